@@ -0,0 +1,202 @@
+/* 
+ * Computing Wikipedia's internal PageRanks
+ * 
+ * Copyright (c) 2020 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
+ */
+
+import java.util.Arrays;
+
+
+/* 
+ * Calculates several PageRank vectors at once, each with its own teleport distribution (personalized PageRank).
+ * The vectors are stored page-major, so that one pass over the list of links updates all of them; the cost
+ * of an iteration is dominated by streaming the links, which is shared instead of repeated per vector.
+ * A vector with the default uniform teleport distribution gives the same values as class Pagerank.
+ * To process thousands of seed sets, run batches of a few dozen vectors each, as the program PersonalizedPagerank does.
+ */
+final class BatchPagerank {
+	
+	/*---- Fields ----*/
+	
+	// Number of PageRank vectors computed simultaneously.
+	public final int numVectors;
+	
+	// The current PageRank values, where ranks[page * numVectors + vector] is the value of the page in the vector.
+	private double[] ranks;
+	
+	// Temporary matrix with the same layout, which is filled and discarded per iteration.
+	private double[] newRanks;
+	
+	// Teleport distribution of each vector as parallel arrays of pages and weights summing to 1,
+	// or null for the uniform distribution over all active pages.
+	private int[][] teleportPages;
+	private double[][] teleportWeights;
+	
+	private LinkRuns links;
+	private int idLimit;
+	private int numActive;
+	private boolean[] isActive;
+	private int[] numOutgoingLinks;
+	
+	
+	/*---- Constructor ----*/
+	
+	// Constructs a calculator of the given number of vectors over the given links, with all vectors
+	// initially using the uniform teleport distribution.
+	public BatchPagerank(LinkRuns links, int numVectors) {
+		this(links, new LinkDegrees(links), numVectors);
+	}
+	
+	
+	// Constructs a calculator using already computed metadata of the given links, to save two passes over them.
+	public BatchPagerank(LinkRuns links, LinkDegrees degrees, int numVectors) {
+		if (numVectors <= 0)
+			throw new IllegalArgumentException("Number of vectors must be positive");
+		if ((long)degrees.idLimit * numVectors > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many vectors for the number of pages");
+		this.numVectors = numVectors;
+		this.links = links;
+		idLimit = degrees.idLimit;
+		numActive = degrees.numActive;
+		isActive = degrees.isActive;
+		numOutgoingLinks = degrees.numOutgoingLinks;
+		teleportPages = new int[numVectors][];
+		teleportWeights = new double[numVectors][];
+		ranks = new double[idLimit * numVectors];
+		newRanks = new double[idLimit * numVectors];
+		for (int v = 0; v < numVectors; v++)
+			resetVector(v);
+	}
+	
+	
+	/*---- Methods ----*/
+	
+	// Sets the teleport distribution of the given vector to the given pages, with probabilities proportional
+	// to the given non-negative weights, and resets the vector to that distribution. Pages may repeat.
+	// If pages is null, then the uniform distribution over active pages is used instead.
+	public void setTeleport(int vector, int[] pages, double[] weights) {
+		if (vector < 0 || vector >= numVectors)
+			throw new IndexOutOfBoundsException();
+		if (pages == null) {
+			teleportPages[vector] = null;
+			teleportWeights[vector] = null;
+		} else {
+			if (weights.length != pages.length)
+				throw new IllegalArgumentException("Array lengths differ");
+			double total = 0;
+			for (int i = 0; i < pages.length; i++) {
+				if (pages[i] < 0 || pages[i] >= idLimit)
+					throw new IllegalArgumentException("Page ID out of range");
+				if (!(weights[i] >= 0))
+					throw new IllegalArgumentException("Invalid weight");
+				total += weights[i];
+			}
+			if (!(total > 0))
+				throw new IllegalArgumentException("Weights sum to zero");
+			double[] normalized = new double[weights.length];
+			for (int i = 0; i < weights.length; i++)
+				normalized[i] = weights[i] / total;
+			teleportPages[vector] = pages.clone();
+			teleportWeights[vector] = normalized;
+		}
+		resetVector(vector);
+	}
+	
+	
+	// Performs one iteration of the PageRank algorithm on all vectors.
+	public void iterateOnce(double damping) {
+		int k = numVectors;
+		
+		// Pre-divide by number of outgoing links, and sum up the ranks of pages without outgoing links
+		double[] bias = new double[k];
+		for (int i = 0; i < idLimit; i++) {
+			int n = numOutgoingLinks[i];
+			int base = i * k;
+			if (n > 0) {
+				for (int v = 0; v < k; v++)
+					ranks[base + v] /= n;
+			} else {
+				for (int v = 0; v < k; v++)
+					bias[v] += ranks[base + v];
+			}
+		}
+		
+		// Distribute PageRanks over links (main calculation), reading each link once for all vectors
+		Arrays.fill(newRanks, 0);
+		links.forEachRun((dest, srcs, off, count) -> {
+			int d = dest * k;
+			for (int j = 0; j < count; j++) {
+				int s = srcs[off + j] * k;
+				for (int v = 0; v < k; v++)
+					newRanks[d + v] += ranks[s + v];
+			}
+		});
+		
+		// Apply damping, and spread the teleport and dangling mass uniformly for vectors that use the uniform distribution
+		double[] uniformAdd = new double[k];
+		for (int v = 0; v < k; v++) {
+			if (teleportPages[v] == null)
+				uniformAdd[v] = bias[v] / numActive * damping + (1 - damping) / numActive;
+		}
+		for (int i = 0; i < idLimit; i++) {
+			int base = i * k;
+			if (isActive[i]) {
+				for (int v = 0; v < k; v++)
+					ranks[base + v] = newRanks[base + v] * damping + uniformAdd[v];
+			} else {
+				for (int v = 0; v < k; v++)
+					ranks[base + v] = newRanks[base + v] * damping;
+			}
+		}
+		
+		// Spread the teleport and dangling mass over the seed pages of personalized vectors
+		for (int v = 0; v < k; v++) {
+			int[] pages = teleportPages[v];
+			if (pages == null)
+				continue;
+			double mass = bias[v] * damping + (1 - damping);
+			double[] weights = teleportWeights[v];
+			for (int i = 0; i < pages.length; i++)
+				ranks[pages[i] * k + v] += mass * weights[i];
+		}
+	}
+	
+	
+	// Returns the current PageRank of the given page in the given vector.
+	public double getPagerank(int vector, int page) {
+		if (vector < 0 || vector >= numVectors || page < 0 || page >= idLimit)
+			throw new IndexOutOfBoundsException();
+		return ranks[page * numVectors + vector];
+	}
+	
+	
+	// Returns a new array of the current PageRanks of all pages in the given vector. Length equals idLimit.
+	public double[] getVector(int vector) {
+		if (vector < 0 || vector >= numVectors)
+			throw new IndexOutOfBoundsException();
+		double[] result = new double[idLimit];
+		for (int i = 0; i < idLimit; i++)
+			result[i] = ranks[i * numVectors + vector];
+		return result;
+	}
+	
+	
+	// Sets the given vector to its teleport distribution.
+	private void resetVector(int vector) {
+		int[] pages = teleportPages[vector];
+		if (pages == null) {
+			double initWeight = 1.0 / numActive;
+			for (int i = 0; i < idLimit; i++)
+				ranks[i * numVectors + vector] = isActive[i] ? initWeight : 0;
+		} else {
+			for (int i = 0; i < idLimit; i++)
+				ranks[i * numVectors + vector] = 0;
+			double[] weights = teleportWeights[vector];
+			for (int i = 0; i < pages.length; i++)
+				ranks[pages[i] * numVectors + vector] += weights[i];
+		}
+	}
+	
+}
@@ -0,0 +1,174 @@
+/* 
+ * Computing Wikipedia's internal PageRanks
+ * 
+ * Copyright (c) 2020 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
+ */
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+
+/* 
+ * A list of page links in a compressed sparse row format, usually backed by memory-mapped segments of a cache file.
+ * Each segment is a byte sequence of runs, where each run is encoded as a sequence of unsigned varints:
+ * (target ID gap minus 1, number of incoming links minus 1, first source ID, source ID gaps...).
+ * The target ID gap is relative to the previous run in the same segment (or -1 at the start of the segment),
+ * and the source IDs within a run are sorted ascending. Segments end on run boundaries, so they can be
+ * mapped and decoded independently. Typical link data takes 1 to 2 bytes per link instead of 4.
+ */
+final class CompressedLinks implements LinkRuns {
+	
+	/*---- Constants ----*/
+	
+	// The first 4 bytes of a compressed links file, which is "PLc1" in ASCII.
+	public static final int FILE_MAGIC = 0x504C6331;
+	
+	// A segment is closed after the first run that makes it reach this many bytes.
+	public static final int SEGMENT_SIZE = 1 << 26;
+	
+	
+	/*---- Fields ----*/
+	
+	// Each buffer spans exactly one segment's encoded bytes, from position 0 to the limit.
+	private final ByteBuffer[] segments;
+	
+	public final long numRuns;
+	
+	public final long numLinks;
+	
+	
+	/*---- Constructor ----*/
+	
+	// Constructs a list of links over the given segment buffers and totals, which are not checked.
+	public CompressedLinks(List<ByteBuffer> segments, long numRuns, long numLinks) {
+		this.segments = segments.toArray(new ByteBuffer[0]);
+		this.numRuns = numRuns;
+		this.numLinks = numLinks;
+	}
+	
+	
+	/*---- Methods ----*/
+	
+	public void forEachRun(Visitor visitor) {
+		int[] srcs = new int[64];
+		for (ByteBuffer segment : segments) {
+			ByteBuffer in = segment.duplicate();  // Independent position, so concurrent callers don't interfere
+			int dest = -1;
+			while (in.hasRemaining()) {
+				dest += readVarint(in) + 1;
+				int count = readVarint(in) + 1;
+				if (count > srcs.length)
+					srcs = new int[Math.max(count, srcs.length * 2)];
+				int src = 0;
+				for (int i = 0; i < count; i++) {
+					src += readVarint(in);
+					srcs[i] = src;
+				}
+				visitor.visit(dest, srcs, 0, count);
+			}
+		}
+	}
+	
+	
+	// Returns the total number of encoded bytes over all segments.
+	public long byteSize() {
+		long result = 0;
+		for (ByteBuffer segment : segments)
+			result += segment.limit();
+		return result;
+	}
+	
+	
+	private static int readVarint(ByteBuffer in) {
+		int result = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = in.get();
+			result |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return result;
+		}
+	}
+	
+	
+	
+	/*---- Helper class ----*/
+	
+	/* 
+	 * Accumulates runs into one segment in memory, and writes out segments in the file format
+	 * (int byte length, int number of runs, int number of links, encoded bytes...).
+	 */
+	public static final class SegmentWriter {
+		
+		private byte[] buffer = new byte[1024];
+		private int length = 0;
+		private int numRuns = 0;
+		private int numLinks = 0;
+		private int prevDest = -1;
+		private int[] sortedSrcs = new int[64];
+		
+		
+		// Appends the given run, which must have a higher target ID than the previous run in this segment.
+		public void append(int dest, int[] srcs, int off, int count) {
+			if (dest <= prevDest)
+				throw new IllegalArgumentException("Links not sorted by target page ID");
+			if (count <= 0)
+				throw new IllegalArgumentException("Empty run");
+			writeVarint(dest - prevDest - 1);
+			writeVarint(count - 1);
+			prevDest = dest;
+			
+			if (count > sortedSrcs.length)
+				sortedSrcs = new int[Math.max(count, sortedSrcs.length * 2)];
+			System.arraycopy(srcs, off, sortedSrcs, 0, count);
+			Arrays.sort(sortedSrcs, 0, count);
+			int prev = 0;
+			for (int i = 0; i < count; i++) {
+				int src = sortedSrcs[i];
+				if (src < 0)
+					throw new IllegalArgumentException("Negative page ID");
+				writeVarint(src - prev);
+				prev = src;
+			}
+			numRuns++;
+			numLinks += count;
+		}
+		
+		
+		public int size() {
+			return length;
+		}
+		
+		
+		// Writes the current segment (if not empty) to the given output and starts a new empty segment.
+		public void flush(DataOutput out) throws IOException {
+			if (numRuns == 0)
+				return;
+			out.writeInt(length);
+			out.writeInt(numRuns);
+			out.writeInt(numLinks);
+			out.write(buffer, 0, length);
+			length = 0;
+			numRuns = 0;
+			numLinks = 0;
+			prevDest = -1;
+		}
+		
+		
+		private void writeVarint(int val) {
+			if (buffer.length - length < 5)
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			while ((val >>> 7) != 0) {
+				buffer[length++] = (byte)(val | 0x80);
+				val >>>= 7;
+			}
+			buffer[length++] = (byte)val;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,64 @@
+/* 
+ * Computing Wikipedia's internal PageRanks
+ * 
+ * Copyright (c) 2020 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
+ */
+
+
+/* 
+ * Per-page metadata of a list of links, which PageRank calculators need besides the links themselves.
+ * Computing it takes two passes over the links. Other classes can read the arrays, but should not modify them.
+ */
+final class LinkDegrees {
+	
+	/*---- Fields ----*/
+	
+	// Maximum page ID value plus 1. This sets the length of various arrays.
+	public final int idLimit;
+	
+	// Number of page IDs with incoming links or outgoing links (ignores disconnected nodes).
+	public final int numActive;
+	
+	// Indicates whether each page ID is active or not. Length equals idLimit.
+	public final boolean[] isActive;
+	
+	// The number of outgoing links each page ID has. Length equals idLimit.
+	public final int[] numOutgoingLinks;
+	
+	
+	/*---- Constructor ----*/
+	
+	public LinkDegrees(LinkRuns links) {
+		// Find highest page ID among all links
+		int[] maxId = {0};
+		links.forEachRun((dest, srcs, off, count) -> {
+			int max = Math.max(dest, maxId[0]);
+			for (int j = 0; j < count; j++)
+				max = Math.max(srcs[off + j], max);
+			maxId[0] = max;
+		});
+		idLimit = maxId[0] + 1;
+		
+		// Compute metadata fields
+		boolean[] hasIncomingLinks = new boolean[idLimit];
+		int[] numOutgoing = new int[idLimit];
+		links.forEachRun((dest, srcs, off, count) -> {
+			hasIncomingLinks[dest] = true;
+			for (int j = 0; j < count; j++)
+				numOutgoing[srcs[off + j]]++;
+		});
+		numOutgoingLinks = numOutgoing;
+		isActive = new boolean[idLimit];
+		int active = 0;
+		for (int i = 0; i < idLimit; i++) {
+			if (numOutgoing[i] > 0 || hasIncomingLinks[i]) {
+				isActive[i] = true;
+				active++;
+			}
+		}
+		numActive = active;
+	}
+	
+}
@@ -0,0 +1,45 @@
+/* 
+ * Computing Wikipedia's internal PageRanks
+ * 
+ * Copyright (c) 2020 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
+ */
+
+
+/* 
+ * A read-only list of page-to-page links grouped by target page, in ascending order of target page ID.
+ * This abstracts over the storage format, so that PageRank can run on an in-memory int[] in the
+ * packed run-length format of PageLinksList, or on a compressed or memory-mapped cache file.
+ */
+interface LinkRuns {
+	
+	// Calls the visitor once for each target page that has at least one incoming link.
+	// The source page IDs are in srcs[off : off + count]. The array may be reused
+	// or be shared with the underlying storage, so the visitor must not modify or retain it.
+	public void forEachRun(Visitor visitor);
+	
+	
+	// Returns a view of the given array in the packed run-length format:
+	// (target page ID, number of incoming links, source page IDs...), ... .
+	public static LinkRuns of(int[] links) {
+		return visitor -> {
+			for (int i = 0; i < links.length; ) {
+				int numIncoming = links[i + 1];
+				visitor.visit(links[i], links, i + 2, numIncoming);
+				i += numIncoming + 2;
+			}
+		};
+	}
+	
+	
+	
+	/*---- Helper interface ----*/
+	
+	public interface Visitor {
+		
+		public void visit(int dest, int[] srcs, int off, int count);
+		
+	}
+	
+}
@@ -0,0 +1,232 @@
+/* 
+ * Computing Wikipedia's internal PageRanks
+ * 
+ * Copyright (c) 2020 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+
+/* 
+ * Sorts links given as packed (target page ID << 32 | source page ID) pairs, and writes them in the raw
+ * packed run-length format of PageLinksList. Pairs that fit in memory are sorted in parallel with a radix
+ * pass on the high bits of the target ID followed by independent bucket sorts. Larger inputs are sorted as
+ * runs that are spilled to temporary files and then merged, so the total size is limited by disk, not heap.
+ */
+final class LinkSorter {
+	
+	/*---- In-memory sorting ----*/
+	
+	// Returns a new array of all the pairs in parts[i][0 : lengths[i]] for every i, sorted ascending.
+	// The total length must fit in an array. The given arrays are not modified.
+	public static long[] sortInMemory(List<long[]> parts, int[] lengths, int maxDest) {
+		long total = 0;
+		for (int len : lengths)
+			total += len;
+		if (total > MAX_ARRAY_LENGTH)
+			throw new IllegalArgumentException("Array size too large");
+		int numParts = parts.size();
+		
+		// Radix pass: each bucket covers a contiguous range of target IDs
+		int shift = Math.max(32 - Integer.numberOfLeadingZeros(maxDest) - NUM_BUCKETS_BITS, 0);
+		int[][] histograms = new int[numParts][1 << NUM_BUCKETS_BITS];
+		IntStream.range(0, numParts).parallel().forEach(p -> {
+			long[] part = parts.get(p);
+			int[] hist = histograms[p];
+			for (int i = 0; i < lengths[p]; i++)
+				hist[(int)(part[i] >>> 32) >>> shift]++;
+		});
+		
+		// Compute the starting offset of each bucket, and of each part's slice within the bucket
+		int[] bucketStarts = new int[(1 << NUM_BUCKETS_BITS) + 1];
+		int[][] offsets = new int[numParts][1 << NUM_BUCKETS_BITS];
+		int offset = 0;
+		for (int b = 0; b < 1 << NUM_BUCKETS_BITS; b++) {
+			bucketStarts[b] = offset;
+			for (int p = 0; p < numParts; p++) {
+				offsets[p][b] = offset;
+				offset += histograms[p][b];
+			}
+		}
+		bucketStarts[1 << NUM_BUCKETS_BITS] = offset;
+		
+		// Scatter each part into its disjoint slices, then sort each bucket independently
+		long[] result = new long[offset];
+		IntStream.range(0, numParts).parallel().forEach(p -> {
+			long[] part = parts.get(p);
+			int[] off = offsets[p];
+			for (int i = 0; i < lengths[p]; i++) {
+				long x = part[i];
+				result[off[(int)(x >>> 32) >>> shift]++] = x;
+			}
+		});
+		IntStream.range(0, 1 << NUM_BUCKETS_BITS).parallel().forEach(b ->
+			Arrays.sort(result, bucketStarts[b], bucketStarts[b + 1]));
+		return result;
+	}
+	
+	
+	/*---- External sorting ----*/
+	
+	// Sorts pairs[0 : len] in place and writes them to a new temporary file in the given directory.
+	public static File writeRun(long[] pairs, int len, File dir) throws IOException {
+		Arrays.sort(pairs, 0, len);
+		File file = File.createTempFile("pagelinks-run-", ".tmp", dir);
+		file.deleteOnExit();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 128 * 1024))) {
+			for (int i = 0; i < len; i++)
+				out.writeLong(pairs[i]);
+		}
+		return file;
+	}
+	
+	
+	// Merges the given sorted run files into the given writer, deleting each file afterward.
+	public static void mergeRuns(List<File> runs, PackedWriter out) throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<>((x, y) -> Long.compare(x.current, y.current));
+		try {
+			for (File run : runs) {
+				RunReader r = new RunReader(run);
+				if (r.next())
+					queue.add(r);
+				else
+					r.close();
+			}
+			while (!queue.isEmpty()) {
+				RunReader r = queue.remove();
+				out.add(r.current);
+				if (r.next())
+					queue.add(r);
+				else
+					r.close();
+			}
+		} finally {
+			for (RunReader r : queue)
+				r.close();
+			for (File run : runs)
+				run.delete();
+		}
+	}
+	
+	
+	private static final int NUM_BUCKETS_BITS = 10;
+	
+	private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+	
+	
+	private LinkSorter() {}  // Not instantiable
+	
+	
+	
+	/*---- Helper classes ----*/
+	
+	/* 
+	 * Writes sorted pairs to a file in the raw packed run-length format, grouping runs of equal target ID.
+	 * The length header is written when the writer is closed, so the total size needn't be known up front.
+	 */
+	public static final class PackedWriter implements AutoCloseable {
+		
+		private final File file;
+		private final DataOutputStream out;
+		private long length = 0;  // Number of ints after the header
+		
+		// The current run, not written yet
+		private int dest = -1;
+		private int[] srcs = new int[64];
+		private int count = 0;
+		
+		
+		public PackedWriter(File file) throws IOException {
+			this.file = file;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 128 * 1024));
+			out.writeInt(0);  // Placeholder for length
+		}
+		
+		
+		// Appends the given pair, which must not be less than the previous one.
+		public void add(long pair) throws IOException {
+			int d = (int)(pair >>> 32);
+			if (count > 0 && d != dest)
+				writeRun();
+			dest = d;
+			if (count == srcs.length)
+				srcs = Arrays.copyOf(srcs, count * 2);
+			srcs[count] = (int)pair;
+			count++;
+		}
+		
+		
+		public long length() {
+			return length;
+		}
+		
+		
+		private void writeRun() throws IOException {
+			out.writeInt(dest);
+			out.writeInt(count);
+			for (int i = 0; i < count; i++)
+				out.writeInt(srcs[i]);
+			length += count + 2L;
+			count = 0;
+		}
+		
+		
+		public void close() throws IOException {
+			if (count > 0)
+				writeRun();
+			out.close();
+			if (length > 0xFFFFFFFFL)
+				throw new RuntimeException("Array size too large");
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.writeInt((int)length);  // Read back as unsigned
+			}
+		}
+		
+	}
+	
+	
+	
+	private static final class RunReader {
+		
+		private final DataInputStream in;
+		private long remaining;
+		public long current;
+		
+		
+		public RunReader(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+			remaining = file.length() / 8;
+		}
+		
+		
+		// Reads the next pair into 'current', returning false at the end of the run.
+		public boolean next() throws IOException {
+			if (remaining == 0)
+				return false;
+			current = in.readLong();
+			remaining--;
+			return true;
+		}
+		
+		
+		public void close() throws IOException {
+			in.close();
+		}
+		
+	}
+	
+}
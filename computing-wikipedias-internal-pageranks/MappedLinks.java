@@ -0,0 +1,94 @@
+/* 
+ * Computing Wikipedia's internal PageRanks
+ * 
+ * Copyright (c) 2020 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
+ */
+
+import java.nio.IntBuffer;
+import java.util.List;
+
+
+/* 
+ * A list of page links in the packed run-length format of PageLinksList, backed by IntBuffer views
+ * of a memory-mapped raw cache file instead of an int[]. Nothing is read from disk until it's accessed.
+ * Because a single mapping is limited to 2 GiB, the data is split into chunks of CHUNK_SIZE ints each.
+ */
+final class MappedLinks implements LinkRuns {
+	
+	/*---- Constants ----*/
+	
+	// Number of ints in each chunk except the last one. Must be a power of 2.
+	public static final int CHUNK_SIZE = 1 << 28;
+	
+	
+	/*---- Fields ----*/
+	
+	// Each buffer has position 0, and the whole array is their concatenation.
+	private final IntBuffer[] chunks;
+	
+	// Total number of ints over all chunks.
+	private final long length;
+	
+	
+	/*---- Constructor ----*/
+	
+	public MappedLinks(List<IntBuffer> chunks) {
+		this.chunks = chunks.toArray(new IntBuffer[0]);
+		long len = 0;
+		for (int i = 0; i < this.chunks.length; i++) {
+			IntBuffer chunk = this.chunks[i];
+			if (i < this.chunks.length - 1 && chunk.limit() != CHUNK_SIZE)
+				throw new IllegalArgumentException("Invalid chunk size");
+			len += chunk.limit();
+		}
+		length = len;
+	}
+	
+	
+	/*---- Methods ----*/
+	
+	public long length() {
+		return length;
+	}
+	
+	
+	public int get(long index) {
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException();
+		return chunks[(int)(index / CHUNK_SIZE)].get((int)(index % CHUNK_SIZE));
+	}
+	
+	
+	// Copies the ints at [index, index + len) into dest[off : off + len], possibly spanning chunks.
+	public void get(long index, int[] dest, int off, int len) {
+		if (index < 0 || len < 0 || len > length - index)
+			throw new IndexOutOfBoundsException();
+		while (len > 0) {
+			IntBuffer chunk = chunks[(int)(index / CHUNK_SIZE)].duplicate();
+			int pos = (int)(index % CHUNK_SIZE);
+			int n = Math.min(len, chunk.limit() - pos);
+			chunk.position(pos);
+			chunk.get(dest, off, n);
+			index += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	
+	public void forEachRun(Visitor visitor) {
+		int[] srcs = new int[64];
+		for (long i = 0; i < length; ) {
+			int dest = get(i);
+			int numIncoming = get(i + 1);
+			if (numIncoming > srcs.length)
+				srcs = new int[Math.max(numIncoming, srcs.length * 2)];
+			get(i + 2, srcs, 0, numIncoming);
+			visitor.visit(dest, srcs, 0, numIncoming);
+			i += numIncoming + 2L;
+		}
+	}
+	
+}
@@ -6,20 +6,13 @@
  * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
  */
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.zip.GZIPInputStream;
 
 
 /* 
@@ -27,104 +20,141 @@ import java.util.zip.GZIPInputStream;
  */
 final class PageIdTitleMap {
 	
-	// Reads the given gzipped SQL file and returns a mapping of page title to integer ID.
-	public static Map<String,Integer> readSqlFile(File file) throws IOException {
+	// Reads the given gzipped SQL file and writes a title table file, without building any map of strings.
+	public static void readSqlFile(File file, File outFile) throws IOException {
 		long startTime = System.currentTimeMillis();
-		Map<String,Integer> result = new HashMap<String,Integer>();
-		
-		long lastPrint = System.currentTimeMillis() - PRINT_INTERVAL;
-		try (SqlReader in = new SqlReader(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8)), "page")) {
-			while (true) {
-				List<List<Object>> multipleRows = in.readInsertionTuples();
-				if (multipleRows == null)
-					break;
-				
-				for (List<Object> tuple : multipleRows) {
-					if (tuple.size() != 12)
-						throw new IllegalArgumentException("Incorrect number of columns");
-					Object namespace = tuple.get(1);
-					Object id = tuple.get(0);
-					Object title = tuple.get(2);
-					
-					if (!(namespace instanceof Integer))
-						throw new IllegalArgumentException("Namespace must be integer");
-					if (!(id instanceof Integer))
-						throw new IllegalArgumentException("ID must be integer");
-					if (!(title instanceof String))
-						throw new IllegalArgumentException("Title must be string");
-					if (((Integer)namespace).intValue() != 0)  // Filter out pages not in the main namespace
-						continue;
-					if (result.containsKey(title))
-						throw new IllegalArgumentException("Duplicate page title");
-					result.put((String)title, (Integer)id);
-				}
-				
-				if (System.currentTimeMillis() - lastPrint >= PRINT_INTERVAL) {
-					System.out.printf("\rParsing %s: %.3f million entries stored...", file.getName(), result.size() / 1000000.0);
-					lastPrint = System.currentTimeMillis();
-				}
-			}
+		List<PageCollector> parts = SqlStreamParser.parseFile(file, "page", PageCollector::new);
+		
+		int total = 0;
+		for (PageCollector part : parts)
+			total += part.titles.size();
+		Entry[] entries = new Entry[total];
+		int i = 0;
+		for (PageCollector part : parts) {
+			for (int j = 0; j < part.titles.size(); j++, i++)
+				entries[i] = new Entry(part.titles.get(j), part.ids[j]);
 		}
-		System.out.printf("\rParsing %s: %.3f million entries stored... Done (%.3f s)%n", file.getName(), result.size() / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
-		return result;
+		parts = null;
+		System.out.printf("Parsing %s: %.3f million entries stored... Done (%.3f s)%n", file.getName(), total / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
+		writeTableFile(entries, outFile);
 	}
 	
 	
-	public static Map<String,Integer> readRawFile(File file) throws IOException {
+	private static void writeTableFile(Entry[] entries, File file) throws IOException {
+		System.out.print("Sorting titles...");
 		long startTime = System.currentTimeMillis();
-		Map<String,Integer> result = new HashMap<String,Integer>();
-		
-		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
-			long lastPrint = System.currentTimeMillis() - PRINT_INTERVAL;
-			for (int i = 0; ; i++) {
-				String line = in.readLine();
-				if (line == null)
-					break;
-				result.put(line, Integer.valueOf(in.readLine()));
-				
-				if (System.currentTimeMillis() - lastPrint >= PRINT_INTERVAL) {
-					System.out.printf("\rReading %s: %.3f million entries...", file.getName(), i / 1000000.0);
-					lastPrint = System.currentTimeMillis();
-				}
-			}
-			System.out.printf("\rReading %s: %.3f million entries... Done (%.3f s)%n", file.getName(), result.size() / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
+		Arrays.parallelSort(entries, (x, y) -> TitleTable.compareBytes(x.title, y.title));
+		int n = entries.length;
+		byte[][] titles = new byte[n][];
+		int[] ids = new int[n];
+		for (int i = 0; i < n; i++) {
+			if (i > 0 && Arrays.equals(entries[i - 1].title, entries[i].title))
+				throw new IllegalArgumentException("Duplicate page title");
+			titles[i] = entries[i].title;
+			ids[i] = entries[i].id;
 		}
-		return result;
+		System.out.printf(" Done (%.3f s)%n", (System.currentTimeMillis() - startTime) / 1000.0);
+		
+		System.out.printf("Writing %s: %.3f million entries...", file.getName(), n / 1000000.0);
+		startTime = System.currentTimeMillis();
+		TitleTable.write(titles, ids, file);
+		System.out.printf(" Done (%.3f s)%n", (System.currentTimeMillis() - startTime) / 1000.0);
 	}
 	
 	
-	public static void writeRawFile(Map<String,Integer> idByTitle, File file) throws IOException {
+	// Memory-maps the given file written by readSqlFile(). Nothing is read or copied up front.
+	public static TitleTable mapTableFile(File file) throws IOException {
 		long startTime = System.currentTimeMillis();
-		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file), 128 * 1024), StandardCharsets.UTF_8))) {
-			int i = 0;
-			long lastPrint = System.currentTimeMillis() - PRINT_INTERVAL;
-			for (String title : idByTitle.keySet()) {
-				out.println(title);
-				out.println(idByTitle.get(title));
-				i++;
-				
-				if (System.currentTimeMillis() - lastPrint >= PRINT_INTERVAL) {
-					System.out.printf("\rWriting %s: %.3f million entries...", file.getName(), i / 1000000.0);
-					lastPrint = System.currentTimeMillis();
-				}
-			}
-			System.out.printf("\rWriting %s: %.3f million entries... Done (%.3f s)%n", file.getName(), i / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
+		TitleTable result;
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (ch.size() > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Title table file too large");
+			result = new TitleTable(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
 		}
+		System.out.printf("Mapping %s: %.3f million entries... Done (%.3f s)%n", file.getName(), result.size() / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
+		return result;
 	}
 	
 	
-	public static <K,V> Map<V,K> computeReverseMap(Map<K,V> map) {
-		System.out.print("Creating reverse mapping...");
-		long startTime = System.currentTimeMillis();
-		Map<V,K> result = new HashMap<V,K>();
-		for (K key : map.keySet())
-			result.put(map.get(key), key);
-		System.out.printf(" Done (%.3f s)%n", (System.currentTimeMillis() - startTime) / 1000.0);
-		return result;
+	
+	/*---- Helper classes ----*/
+	
+	// Collects the UTF-8 titles and IDs of main namespace pages, for one parser thread.
+	private static final class PageCollector implements SqlStreamParser.RowHandler {
+		
+		public List<byte[]> titles = new ArrayList<>();
+		public int[] ids = new int[1024];
+		
+		// Values of the current row
+		private long id;
+		private long namespace;
+		private byte[] title;
+		private int columnsSeen = 0;  // Bit mask of columns with the correct type
+		
+		
+		public void integer(int column, long value) {
+			if (column == 0) {
+				id = value;
+				columnsSeen |= 1;
+			} else if (column == 1) {
+				namespace = value;
+				columnsSeen |= 2;
+			}
+		}
+		
+		
+		public void decimal(int column, byte[] text, int off, int len) {}
+		
+		
+		public void string(int column, byte[] utf8, int off, int len) {
+			if (column == 2) {
+				// Filter out pages not in the main namespace before copying
+				title = (columnsSeen & 2) != 0 && namespace == 0 ? Arrays.copyOfRange(utf8, off, off + len) : null;
+				columnsSeen |= 4;
+			}
+		}
+		
+		
+		public void nullValue(int column) {}
+		
+		
+		public void endRow(int numColumns) {
+			if (numColumns != 12)
+				throw new IllegalArgumentException("Incorrect number of columns");
+			if ((columnsSeen & 2) == 0 || namespace != (int)namespace)
+				throw new IllegalArgumentException("Namespace must be integer");
+			if ((columnsSeen & 1) == 0 || id != (int)id)
+				throw new IllegalArgumentException("ID must be integer");
+			if ((columnsSeen & 4) == 0)
+				throw new IllegalArgumentException("Title must be string");
+			columnsSeen = 0;
+			if (namespace != 0)  // Filter out pages not in the main namespace
+				return;
+			
+			int n = titles.size();
+			if (n == ids.length)
+				ids = Arrays.copyOf(ids, n * 2);
+			ids[n] = (int)id;
+			titles.add(title);
+		}
+		
 	}
 	
 	
-	private static final int PRINT_INTERVAL = 30;  // In milliseconds
+	
+	private static final class Entry {
+		
+		public final byte[] title;
+		public final int id;
+		
+		
+		public Entry(byte[] title, int id) {
+			this.title = title;
+			this.id = id;
+		}
+		
+	}
+	
 	
 	
 	private PageIdTitleMap() {}  // Not instantiable
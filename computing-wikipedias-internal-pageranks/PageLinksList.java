@@ -6,21 +6,20 @@
  * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
  */
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.zip.GZIPInputStream;
 
 
 /* 
@@ -28,120 +27,150 @@ import java.util.zip.GZIPInputStream;
  */
 final class PageLinksList {
 	
-	// Reads the given gzipped SQL file and returns a compressed list of page links.
-	public static int[] readSqlFile(File file, Map<String,Integer> titleToId, Map<Integer,String> idToTitle) throws IOException {
+	// Reads the given gzipped SQL file and writes the list of page links to the given file in the raw format.
+	// If the links don't fit comfortably in the heap, sorted runs are spilled to temporary files in the same
+	// directory as the output file and merged at the end, so the number of links is not limited by memory.
+	public static void readSqlFile(File file, TitleTable titles, File outFile) throws IOException {
 		long startTime = System.currentTimeMillis();
-		long[] rawlinks = new long[1];
-		int rawlinksLen = 0;
-		
-		try (SqlReader in = new SqlReader(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8)), "pagelinks")) {
-			long lastPrint = System.currentTimeMillis() - PRINT_INTERVAL;
-			while (true) {
-				List<List<Object>> multipleRows = in.readInsertionTuples();
-				if (multipleRows == null)
-					break;
-				
-				for (List<Object> tuple : multipleRows) {
-					// Get tuple fields
-					if (tuple.size() != 3)
-						throw new IllegalArgumentException("Incorrect number of columns");
-					Object srcId = tuple.get(0);
-					Object namespace = tuple.get(1);
-					Object destTitle = tuple.get(2);
-					
-					// Check data format
-					if (!(srcId instanceof Integer))
-						throw new IllegalArgumentException("Source ID must be integer");
-					if (!(namespace instanceof Integer))
-						throw new IllegalArgumentException("Namespace must be integer");
-					if (!(destTitle instanceof String))
-						throw new IllegalArgumentException("Destination title must be string");
-					if (!(((Integer)namespace).intValue() == 0 && idToTitle.containsKey(srcId) && titleToId.containsKey(destTitle)))
-						continue;  // Skip if not in main namespace or either page entry not found
-					
-					// Append to dynamic array
-					if (rawlinksLen == rawlinks.length) {
-						if (rawlinksLen >= Integer.MAX_VALUE / 2)
-							throw new RuntimeException("Array size too large");
-						rawlinks = Arrays.copyOf(rawlinks, rawlinks.length * 2);
-					}
-					rawlinks[rawlinksLen] = (long)titleToId.get(destTitle) << 32 | (Integer)srcId;
-					rawlinksLen++;
+		File tempDir = outFile.getAbsoluteFile().getParentFile();
+		// In-memory sorting needs 16 bytes per link: 8 in the collected parts plus 8 in the sorted copy.
+		// The links of all workers together may use half the heap, leaving the rest for growing the buffers.
+		long maxLinks = Runtime.getRuntime().maxMemory() / 2 / 16;
+		int capacity = (int)Math.max(Math.min(maxLinks / SqlStreamParser.numWorkers(), Integer.MAX_VALUE - 8), 1 << 20);
+		List<LinkCollector> parts;
+		try {
+			parts = SqlStreamParser.parseFile(file, "pagelinks", () -> new LinkCollector(titles, capacity, tempDir));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		long numLinks = 0;
+		boolean spilled = false;
+		int maxDest = 0;
+		for (LinkCollector part : parts) {
+			numLinks += part.numSpilled + part.rawlinksLen;
+			spilled |= !part.runFiles.isEmpty();
+			maxDest = Math.max(part.maxDest, maxDest);
+		}
+		System.out.printf("Parsing %s: %.3f million entries stored. Done (%.3f s)%n", file.getName(), numLinks / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
+		
+		System.out.print("Postprocessing links...");
+		startTime = System.currentTimeMillis();
+		try (LinkSorter.PackedWriter out = new LinkSorter.PackedWriter(outFile)) {
+			if (!spilled && numLinks <= Integer.MAX_VALUE - 8) {
+				List<long[]> arrays = new ArrayList<>();
+				int[] lengths = new int[parts.size()];
+				for (int i = 0; i < parts.size(); i++) {
+					arrays.add(parts.get(i).rawlinks);
+					lengths[i] = parts.get(i).rawlinksLen;
 				}
-				
-				if (System.currentTimeMillis() - lastPrint >= PRINT_INTERVAL) {
-					System.out.printf("\rParsing %s: %.3f million entries stored", file.getName(), rawlinksLen / 1000000.0);
-					lastPrint = System.currentTimeMillis();
+				long[] sorted = LinkSorter.sortInMemory(arrays, lengths, maxDest);
+				arrays = null;
+				parts = null;
+				for (long pair : sorted)
+					out.add(pair);
+			} else {
+				List<File> runFiles = new ArrayList<>();
+				for (LinkCollector part : parts) {
+					part.spill();
+					runFiles.addAll(part.runFiles);
 				}
+				System.out.printf(" merging %d runs...", runFiles.size());
+				LinkSorter.mergeRuns(runFiles, out);
 			}
 		}
-		System.out.printf("\rParsing %s: %.3f million entries stored. Done (%.3f s)%n", file.getName(), rawlinksLen / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
-		return postprocessLinks(rawlinks, rawlinksLen);
+		System.out.printf(" Done (%.3f s)%n", (System.currentTimeMillis() - startTime) / 1000.0);
 	}
 	
 	
-	private static int[] postprocessLinks(long[] rawlinks, int rawlinksLen) {
-		System.out.print("Postprocessing links...");
+	// Memory-maps the given file written by readSqlFile(), without reading or copying the data up front.
+	public static MappedLinks mapRawFile(File file) throws IOException {
 		long startTime = System.currentTimeMillis();
-		Arrays.sort(rawlinks, 0, rawlinksLen);
-		int[] links = new int[1];
-		int linksLen = 0;
-		for (int i = 0; i < rawlinksLen; ) {
-			int dest = (int)(rawlinks[i] >>> 32);
-			int j = i + 1;
-			for (; j < rawlinksLen && (int)(rawlinks[j] >>> 32) == dest; j++);
-			while (linksLen + j - i + 2 >= links.length) {
-				if (linksLen >= Integer.MAX_VALUE / 2)
-					throw new RuntimeException("Array size too large");
-				links = Arrays.copyOf(links, links.length * 2);
+		List<IntBuffer> chunks = new ArrayList<>();
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(4);
+			readFully(ch, header, 0, 4);
+			long length = header.getInt(0) & 0xFFFFFFFFL;
+			if (4 + length * 4 != ch.size())
+				throw new IllegalArgumentException("Invalid raw links file length");
+			for (long i = 0; i < length; i += MappedLinks.CHUNK_SIZE) {
+				long n = Math.min(length - i, MappedLinks.CHUNK_SIZE);
+				chunks.add(ch.map(FileChannel.MapMode.READ_ONLY, 4 + i * 4, n * 4).asIntBuffer());
 			}
-			links[linksLen++] = dest;
-			links[linksLen++] = j - i;
-			for (; i < j; i++)
-				links[linksLen++] = (int)rawlinks[i];
 		}
-		links = Arrays.copyOf(links, linksLen);
-		System.out.printf(" Done (%.3f s)%n", (System.currentTimeMillis() - startTime) / 1000.0);
-		return links;
+		MappedLinks result = new MappedLinks(chunks);
+		System.out.printf("Mapping %s: %.3f million raw items... Done (%.3f s)%n", file.getName(), result.length() / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
+		return result;
 	}
 	
 	
-	public static int[] readRawFile(File file) throws IOException {
+	// Writes the given links to the given file in the format of class CompressedLinks.
+	public static void writeCompressedFile(LinkRuns links, File file) throws IOException {
 		long startTime = System.currentTimeMillis();
-		int[] result;
-		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 128 * 1024))) {
-			long lastPrint = System.currentTimeMillis() - PRINT_INTERVAL;
-			result = new int[in.readInt()];
-			for (int i = 0; i < result.length; i++) {
-				result[i] = in.readInt();
-				
-				if (System.currentTimeMillis() - lastPrint >= PRINT_INTERVAL) {
-					System.out.printf("\rReading %s: %.3f of %.3f million raw items...", file.getName(), i / 1000000.0, result.length / 1000000.0);
-					lastPrint = System.currentTimeMillis();
-				}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 128 * 1024))) {
+			out.writeInt(CompressedLinks.FILE_MAGIC);
+			CompressedLinks.SegmentWriter segment = new CompressedLinks.SegmentWriter();
+			long[] numLinks = {0};
+			long[] lastPrint = {System.currentTimeMillis() - PRINT_INTERVAL};
+			try {
+				links.forEachRun((dest, srcs, off, count) -> {
+					segment.append(dest, srcs, off, count);
+					numLinks[0] += count;
+					try {
+						if (segment.size() >= CompressedLinks.SEGMENT_SIZE)
+							segment.flush(out);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					
+					if (System.currentTimeMillis() - lastPrint[0] >= PRINT_INTERVAL) {
+						System.out.printf("\rWriting %s: %.3f million links...", file.getName(), numLinks[0] / 1000000.0);
+						lastPrint[0] = System.currentTimeMillis();
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
 			}
-			System.out.printf("\rReading %s: %.3f of %.3f million raw items... Done (%.3f s)%n", file.getName(), result.length / 1000000.0, result.length / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
+			segment.flush(out);
+			System.out.printf("\rWriting %s: %.3f million links... Done (%.3f s)%n", file.getName(), numLinks[0] / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
 		}
-		return result;
 	}
 	
 	
-	public static void writeRawFile(int[] links, File file) throws IOException {
+	// Memory-maps the given file written by writeCompressedFile(). The mapping remains valid after this method returns.
+	public static CompressedLinks readCompressedFile(File file) throws IOException {
 		long startTime = System.currentTimeMillis();
-		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 128 * 1024))) {
-			out.writeInt(links.length);
-			int i = 0;
-			long lastPrint = System.currentTimeMillis() - PRINT_INTERVAL;
-			for (int link : links) {
-				out.writeInt(link);
-				i++;
-				
-				if (System.currentTimeMillis() - lastPrint >= PRINT_INTERVAL) {
-					System.out.printf("\rWriting %s: %.3f of %.3f million raw items...", file.getName(), i / 1000000.0, links.length / 1000000.0);
-					lastPrint = System.currentTimeMillis();
-				}
+		List<ByteBuffer> segments = new ArrayList<>();
+		long numRuns = 0;
+		long numLinks = 0;
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(12);
+			readFully(ch, header, 0, 4);
+			if (header.getInt(0) != CompressedLinks.FILE_MAGIC)
+				throw new IllegalArgumentException("Not a compressed links file");
+			long pos = 4;
+			while (pos < ch.size()) {
+				readFully(ch, header, pos, 12);
+				int length = header.getInt(0);
+				numRuns += header.getInt(4);
+				numLinks += header.getInt(8);
+				pos += 12;
+				if (length < 0 || length > ch.size() - pos)
+					throw new IllegalArgumentException("Invalid segment length");
+				segments.add(ch.map(FileChannel.MapMode.READ_ONLY, pos, length));
+				pos += length;
 			}
-			System.out.printf("\rWriting %s: %.3f of %.3f million raw items... Done (%.3f s)%n", file.getName(), i / 1000000.0, links.length / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
+		}
+		CompressedLinks result = new CompressedLinks(segments, numRuns, numLinks);
+		System.out.printf("Mapping %s: %.3f million links in %.3f MB... Done (%.3f s)%n", file.getName(), numLinks / 1000000.0, result.byteSize() / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
+		return result;
+	}
+	
+	
+	private static void readFully(FileChannel ch, ByteBuffer buf, long pos, int len) throws IOException {
+		buf.clear().limit(len);
+		while (buf.hasRemaining()) {
+			if (ch.read(buf, pos + buf.position()) == -1)
+				throw new EOFException();
 		}
 	}
 	
@@ -149,6 +178,106 @@ final class PageLinksList {
 	private static final int PRINT_INTERVAL = 30;  // In milliseconds
 	
 	
+	
+	/*---- Helper class ----*/
+	
+	// Collects the (target << 32 | source) pairs of links between main namespace pages, for one parser thread.
+	// When the buffer reaches the given capacity, it is sorted and spilled to a temporary file.
+	private static final class LinkCollector implements SqlStreamParser.RowHandler {
+		
+		private final TitleTable titles;
+		private final int capacity;
+		private final File tempDir;
+		public long[] rawlinks = new long[1024];
+		public int rawlinksLen = 0;
+		public int maxDest = 0;
+		public List<File> runFiles = new ArrayList<>();
+		public long numSpilled = 0;
+		
+		// Values of the current row
+		private long srcId;
+		private long namespace;
+		private int destId;
+		private int columnsSeen = 0;  // Bit mask of columns with the correct type
+		
+		
+		public LinkCollector(TitleTable titles, int capacity, File tempDir) {
+			this.titles = titles;
+			this.capacity = capacity;
+			this.tempDir = tempDir;
+		}
+		
+		
+		public void integer(int column, long value) {
+			if (column == 0) {
+				srcId = value;
+				columnsSeen |= 1;
+			} else if (column == 1) {
+				namespace = value;
+				columnsSeen |= 2;
+			}
+		}
+		
+		
+		public void decimal(int column, byte[] text, int off, int len) {}
+		
+		
+		public void string(int column, byte[] utf8, int off, int len) {
+			if (column == 2) {
+				// Namespace comes first, so only look up titles that can match
+				destId = (columnsSeen & 2) != 0 && namespace == 0 ? titles.getId(utf8, off, len) : -1;
+				columnsSeen |= 4;
+			}
+		}
+		
+		
+		public void nullValue(int column) {}
+		
+		
+		public void endRow(int numColumns) {
+			// Check data format
+			if (numColumns != 3)
+				throw new IllegalArgumentException("Incorrect number of columns");
+			if ((columnsSeen & 1) == 0 || srcId != (int)srcId)
+				throw new IllegalArgumentException("Source ID must be integer");
+			if ((columnsSeen & 2) == 0 || namespace != (int)namespace)
+				throw new IllegalArgumentException("Namespace must be integer");
+			if ((columnsSeen & 4) == 0)
+				throw new IllegalArgumentException("Destination title must be string");
+			columnsSeen = 0;
+			if (!(namespace == 0 && destId != -1 && titles.containsId((int)srcId)))
+				return;  // Skip if not in main namespace or either page entry not found
+			
+			// Append to dynamic array, spilling it when full
+			if (rawlinksLen == rawlinks.length) {
+				if (rawlinksLen < capacity)
+					rawlinks = Arrays.copyOf(rawlinks, (int)Math.min(rawlinks.length * 2L, capacity));
+				else {
+					try {
+						spill();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			}
+			rawlinks[rawlinksLen] = (long)destId << 32 | (int)srcId;
+			rawlinksLen++;
+			maxDest = Math.max(destId, maxDest);
+		}
+		
+		
+		public void spill() throws IOException {
+			if (rawlinksLen == 0)
+				return;
+			runFiles.add(LinkSorter.writeRun(rawlinks, rawlinksLen, tempDir));
+			numSpilled += rawlinksLen;
+			rawlinksLen = 0;
+		}
+		
+	}
+	
+	
+	
 	private PageLinksList() {}  // Not instantiable
 	
 }
@@ -21,9 +21,9 @@ final class Pagerank {
 	public double[] pageranks;
 	
 	
-	// List of page-to-page links in a packed run-length format:
-	// (target page ID, number of incoming links, source page IDs...), ... .
-	private int[] links;
+	// List of page-to-page links grouped by target page, either backed by an int[] in the
+	// packed run-length format or decoded on the fly from a compressed cache file.
+	private LinkRuns links;
 	
 	// Maximum page ID value plus 1. This sets the length of various arrays.
 	private int idLimit;
@@ -46,43 +46,20 @@ final class Pagerank {
 	// Constructs a PageRank calculator based on the given array of links
 	// in the compressed format returned by class PageLinksList.
 	public Pagerank(int[] links) {
+		this(LinkRuns.of(links));
+	}
+	
+	
+	// Constructs a PageRank calculator based on the given list of links, such as
+	// one returned by PageLinksList.readCompressedFile(). The list is scanned once per iteration.
+	public Pagerank(LinkRuns links) {
 		this.links = links;
 		
-		// Find highest page ID among all links
-		int maxId = 0;
-		for (int i = 0; i < links.length; ) {
-			int dest = links[i];
-			maxId = Math.max(dest, maxId);
-			int numIncoming = links[i + 1];
-			for (int j = 0; j < numIncoming; j++) {
-				int src = links[i + 2 + j];
-				maxId = Math.max(src, maxId);
-			}
-			i += numIncoming + 2;
-		}
-		idLimit = maxId + 1;
-		
-		// Compute metadata fields
-		boolean[] hasIncomingLinks = new boolean[idLimit];
-		numOutgoingLinks = new int[idLimit];
-		for (int i = 0; i < links.length; ) {
-			int dest = links[i];
-			hasIncomingLinks[dest] = true;
-			int numIncoming = links[i + 1];
-			for (int j = 0; j < numIncoming; j++) {
-				int src = links[i + 2 + j];
-				numOutgoingLinks[src]++;
-			}
-			i += numIncoming + 2;
-		}
-		isActive = new boolean[idLimit];
-		numActive = 0;
-		for (int i = 0; i < idLimit; i++) {
-			if (numOutgoingLinks[i] > 0 || hasIncomingLinks[i]) {
-				isActive[i] = true;
-				numActive++;
-			}
-		}
+		LinkDegrees degrees = new LinkDegrees(links);
+		idLimit = degrees.idLimit;
+		numActive = degrees.numActive;
+		isActive = degrees.isActive;
+		numOutgoingLinks = degrees.numOutgoingLinks;
 		
 		// Initialize PageRanks uniformly for active pages
 		pageranks = new double[idLimit];
@@ -107,17 +84,12 @@ final class Pagerank {
 		
 		// Distribute PageRanks over links (main calculation)
 		Arrays.fill(newPageranks, 0);
-		for (int i = 0; i < links.length; ) {
-			int numIncoming = links[i + 1];
+		links.forEachRun((dest, srcs, off, count) -> {
 			double sum = 0;
-			for (int j = 0; j < numIncoming; j++) {
-				int src = links[i + 2 + j];
-				sum += pageranks[src];
-			}
-			int dest = links[i];
+			for (int j = 0; j < count; j++)
+				sum += pageranks[srcs[off + j]];
 			newPageranks[dest] = sum;
-			i += numIncoming + 2;
-		}
+		});
 		
 		// Calculate global bias due to pages without outgoing links
 		double bias = 0;
@@ -0,0 +1,137 @@
+/* 
+ * Computing Wikipedia's internal PageRanks
+ * 
+ * Copyright (c) 2020 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/* 
+ * Compares the speed and accuracy of the double-precision (Pagerank) and single-precision (FloatPagerank)
+ * calculators on the same links. Uses the compressed links cache file if it exists, otherwise a random graph.
+ * Each calculator is warmed up before timing, so that the JIT compiler has optimized the loops.
+ */
+public final class PagerankBenchmark {
+	
+	/*---- Configuration ----*/
+	
+	private static final File PAGE_LINKS_COMPRESSED_FILE = new File("wikipedia-pagerank-page-links.csr");
+	
+	// Size of the random graph, if the cache file is absent
+	private static final int RANDOM_NUM_PAGES = 2_000_000;
+	private static final int RANDOM_LINKS_PER_PAGE = 16;
+	
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int TIMED_ITERATIONS = 20;
+	
+	private static final double DAMPING = 0.85;
+	
+	
+	/*---- Main program ----*/
+	
+	public static void main(String[] args) throws IOException {
+		LinkRuns links;
+		if (PAGE_LINKS_COMPRESSED_FILE.isFile())
+			links = PageLinksList.readCompressedFile(PAGE_LINKS_COMPRESSED_FILE);
+		else {
+			System.out.printf("Generating random graph of %d pages...%n", RANDOM_NUM_PAGES);
+			links = LinkRuns.of(randomLinks(RANDOM_NUM_PAGES, RANDOM_LINKS_PER_PAGE, 1));
+		}
+		LinkDegrees degrees = new LinkDegrees(links);
+		
+		Pagerank dpr = new Pagerank(links);
+		for (int i = 0; i < WARMUP_ITERATIONS; i++)
+			dpr.iterateOnce(DAMPING);
+		long startTime = System.nanoTime();
+		for (int i = 0; i < TIMED_ITERATIONS; i++)
+			dpr.iterateOnce(DAMPING);
+		double doubleTime = (System.nanoTime() - startTime) / 1e9 / TIMED_ITERATIONS;
+		
+		FloatPagerank fpr = new FloatPagerank(links, degrees);
+		for (int i = 0; i < WARMUP_ITERATIONS; i++)
+			fpr.iterateOnce(DAMPING);
+		startTime = System.nanoTime();
+		for (int i = 0; i < TIMED_ITERATIONS; i++)
+			fpr.iterateOnce(DAMPING);
+		double floatTime = (System.nanoTime() - startTime) / 1e9 / TIMED_ITERATIONS;
+		
+		// Compare the vectors after the same number of iterations
+		double[] x = dpr.pageranks;
+		float[] y = fpr.pageranks;
+		double sumAbsDiff = 0;
+		double maxRelDiff = 0;
+		for (int i = 0; i < x.length; i++) {
+			double diff = Math.abs(x[i] - y[i]);
+			sumAbsDiff += diff;
+			if (x[i] != 0)
+				maxRelDiff = Math.max(diff / x[i], maxRelDiff);
+		}
+		double[] yWidened = new double[y.length];
+		for (int i = 0; i < y.length; i++)
+			yWidened[i] = y[i];
+		int numTop = Math.min(1000, x.length);
+		int[] topDouble = TopK.selectParallel(x, numTop);
+		int[] topFloat = TopK.selectParallel(yWidened, numTop);
+		
+		System.out.printf("Pages: %d, active: %d%n", degrees.idLimit, degrees.numActive);
+		System.out.printf("double: %.3f s/iteration%n", doubleTime);
+		System.out.printf("float:  %.3f s/iteration (%.2fx)%n", floatTime, doubleTime / floatTime);
+		System.out.printf("Sum of absolute differences: %.3e%n", sumAbsDiff);
+		System.out.printf("Maximum relative difference: %.3e%n", maxRelDiff);
+		System.out.printf("Top %d pages in same order: %b%n", numTop, Arrays.equals(topDouble, topFloat));
+	}
+	
+	
+	// Returns a random graph in the packed run-length format, where each page links to a fixed number of
+	// other pages, chosen with a skew toward low page IDs (like popular pages). The first pass counts the
+	// incoming links per page, and the second pass replays the same random sequence to fill them in.
+	private static int[] randomLinks(int numPages, int linksPerPage, long seed) {
+		int[][] incoming = new int[numPages][];
+		int[] counts = new int[numPages];
+		for (int pass = 0; pass < 2; pass++) {
+			Random rand = new Random(seed);
+			for (int src = 0; src < numPages; src++) {
+				for (int j = 0; j < linksPerPage; j++) {
+					double u = rand.nextDouble();
+					int d = (int)(u * u * u * numPages);
+					if (pass == 0)
+						counts[d]++;
+					else
+						incoming[d][counts[d]++] = src;
+				}
+			}
+			if (pass == 0) {
+				for (int i = 0; i < numPages; i++) {
+					incoming[i] = new int[counts[i]];
+					counts[i] = 0;
+				}
+			}
+		}
+		long length = 0;
+		for (int i = 0; i < numPages; i++) {
+			if (counts[i] > 0)
+				length += counts[i] + 2;
+		}
+		int[] result = new int[Math.toIntExact(length)];
+		int k = 0;
+		for (int i = 0; i < numPages; i++) {
+			if (counts[i] == 0)
+				continue;
+			result[k++] = i;
+			result[k++] = counts[i];
+			System.arraycopy(incoming[i], 0, result, k, counts[i]);
+			k += counts[i];
+		}
+		return result;
+	}
+	
+	
+	private PagerankBenchmark() {}  // Not instantiable
+	
+}
@@ -0,0 +1,93 @@
+/* 
+ * Computing Wikipedia's internal PageRanks
+ * 
+ * Copyright (c) 2020 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
+ */
+
+import java.util.stream.IntStream;
+
+
+/* 
+ * Statistics comparing two successive PageRank vectors, all computed in a single parallel pass over the arrays.
+ */
+final class PagerankStats {
+	
+	/*---- Fields ----*/
+	
+	// Range of cur[i] / prev[i] over pages where both values are non-zero.
+	public final double minRatio;
+	public final double maxRatio;
+	
+	// Sum of |cur[i] - prev[i]| over all pages (L1 norm of the change).
+	public final double residual;
+	
+	// Indices of the highest values in cur, from highest to lowest.
+	public final int[] topPages;
+	
+	
+	/*---- Constructor ----*/
+	
+	private PagerankStats(double minRatio, double maxRatio, double residual, int[] topPages) {
+		this.minRatio = minRatio;
+		this.maxRatio = maxRatio;
+		this.residual = residual;
+		this.topPages = topPages;
+	}
+	
+	
+	/*---- Static factory ----*/
+	
+	// Computes the statistics for the given previous and current vectors, which must have the same length.
+	public static PagerankStats compute(double[] prev, double[] cur, int numTopPages) {
+		if (prev.length != cur.length)
+			throw new IllegalArgumentException();
+		int numSlices = Math.max(Runtime.getRuntime().availableProcessors() * 4, 1);
+		long sliceLen = ((long)cur.length + numSlices - 1) / numSlices;
+		Partial total = IntStream.range(0, numSlices).parallel().mapToObj(s -> {
+			Partial p = new Partial(numTopPages);
+			int end = (int)Math.min((s + 1) * sliceLen, cur.length);
+			for (int i = (int)Math.min(s * sliceLen, cur.length); i < end; i++) {
+				double x = cur[i];
+				double y = prev[i];
+				if (x != 0 && y != 0) {
+					double ratio = x / y;
+					p.minRatio = Math.min(ratio, p.minRatio);
+					p.maxRatio = Math.max(ratio, p.maxRatio);
+				}
+				p.residual += Math.abs(x - y);
+				p.top.offer(i, x);
+			}
+			return p;
+		}).reduce(new Partial(numTopPages), (x, y) -> {
+			Partial z = new Partial(numTopPages);
+			z.minRatio = Math.min(x.minRatio, y.minRatio);
+			z.maxRatio = Math.max(x.maxRatio, y.maxRatio);
+			z.residual = x.residual + y.residual;
+			z.top.addAll(x.top);
+			z.top.addAll(y.top);
+			return z;
+		});
+		return new PagerankStats(total.minRatio, total.maxRatio, total.residual, total.top.toSortedIndices());
+	}
+	
+	
+	
+	/*---- Helper class ----*/
+	
+	private static final class Partial {
+		
+		public double minRatio = Double.POSITIVE_INFINITY;
+		public double maxRatio = 0;
+		public double residual = 0;
+		public final TopK top;
+		
+		
+		public Partial(int k) {
+			top = new TopK(k);
+		}
+		
+	}
+	
+}
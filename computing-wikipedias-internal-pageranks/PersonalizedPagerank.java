@@ -0,0 +1,120 @@
+/* 
+ * Computing Wikipedia's internal PageRanks
+ * 
+ * Copyright (c) 2020 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/* 
+ * Reads a text file where each line is a set of seed page titles separated by tabs, computes the personalized
+ * PageRank of every page for each seed set (teleporting only to the seed pages, with equal weights), and writes
+ * the top pages of each set to a new text file. The seed sets are processed in batches that share the passes
+ * over the links. Requires the data files already computed by the program "wikipediapagerank".
+ */
+public final class PersonalizedPagerank {
+	
+	/*---- Input/output files configuration ----*/
+	
+	// User input/output files
+	private static final File SEED_SETS_INPUT_FILE = new File("personalization-seeds.txt");
+	private static final File TOP_PAGES_OUTPUT_FILE = new File("personalized-pageranks.txt");
+	
+	// Precomputed data files
+	private static final File PAGE_ID_TITLE_TABLE_FILE = new File("wikipedia-pagerank-page-id-title.table");
+	private static final File PAGE_LINKS_COMPRESSED_FILE = new File("wikipedia-pagerank-page-links.csr");
+	
+	
+	/*---- Calculation configuration ----*/
+	
+	private static final double DAMPING = 0.85;  // Between 0.0 and 1.0; standard value is 0.85
+	private static final int NUM_ITERATIONS = 50;
+	private static final int BATCH_SIZE = 32;  // Number of seed sets computed simultaneously
+	private static final int NUM_TOP_PAGES = 30;  // Written per seed set
+	
+	
+	/*---- Main program ----*/
+	
+	public static void main(String[] args) throws IOException {
+		TitleTable titles = PageIdTitleMap.mapTableFile(PAGE_ID_TITLE_TABLE_FILE);
+		LinkRuns links = PageLinksList.readCompressedFile(PAGE_LINKS_COMPRESSED_FILE);
+		LinkDegrees degrees = new LinkDegrees(links);
+		
+		// Read seed sets, skipping unknown titles, pages beyond the linked ID range, and empty sets
+		List<String> seedLines = new ArrayList<>();
+		List<int[]> seedSets = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(SEED_SETS_INPUT_FILE), StandardCharsets.UTF_8))) {
+			while (true) {
+				String line = in.readLine();
+				if (line == null)
+					break;
+				int[] pages = new int[0];
+				for (String title : line.split("\t")) {
+					if (title.isEmpty())
+						continue;
+					int id = titles.getId(title);
+					if (id == -1)
+						System.out.println("Nonexistent page title removed: " + title);
+					else if (id >= degrees.idLimit)
+						System.out.println("Page title without links removed: " + title);
+					else {
+						pages = Arrays.copyOf(pages, pages.length + 1);
+						pages[pages.length - 1] = id;
+					}
+				}
+				if (pages.length == 0)
+					System.out.println("Seed set without pages removed: " + line);
+				else {
+					seedLines.add(line);
+					seedSets.add(pages);
+				}
+			}
+		}
+		
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(TOP_PAGES_OUTPUT_FILE), StandardCharsets.UTF_8))) {
+			for (int start = 0; start < seedSets.size(); start += BATCH_SIZE) {
+				int count = Math.min(BATCH_SIZE, seedSets.size() - start);
+				BatchPagerank pr = new BatchPagerank(links, degrees, count);
+				for (int v = 0; v < count; v++) {
+					int[] pages = seedSets.get(start + v);
+					double[] weights = new double[pages.length];
+					Arrays.fill(weights, 1);
+					pr.setTeleport(v, pages, weights);
+				}
+				
+				System.out.printf("Computing seed sets %d to %d of %d...", start + 1, start + count, seedSets.size());
+				long startTime = System.currentTimeMillis();
+				for (int i = 0; i < NUM_ITERATIONS; i++)
+					pr.iterateOnce(DAMPING);
+				System.out.printf(" Done (%.3f s)%n", (System.currentTimeMillis() - startTime) / 1000.0);
+				
+				for (int v = 0; v < count; v++) {
+					double[] pageranks = pr.getVector(v);
+					out.printf("%s%n", seedLines.get(start + v));
+					for (int id : TopK.selectParallel(pageranks, NUM_TOP_PAGES)) {
+						if (pageranks[id] > 0)  // Skip pages unreachable from the seeds
+							out.printf("  %.3f\t%s%n", Math.log10(pageranks[id]), titles.getTitle(id));
+					}
+				}
+			}
+		}
+	}
+	
+	
+	private PersonalizedPagerank() {}  // Not instantiable
+	
+}
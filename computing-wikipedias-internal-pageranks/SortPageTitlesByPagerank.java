@@ -21,7 +21,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 
@@ -38,15 +37,15 @@ public final class SortPageTitlesByPagerank {
 	private static final File PAGE_TITLES_OUTPUT_FILE = new File("page-titles-sorted.txt");
 	
 	// Precomputed data files
-	private static final File PAGE_ID_TITLE_RAW_FILE = new File("wikipedia-pagerank-page-id-title.raw");  // For caching
+	private static final File PAGE_ID_TITLE_TABLE_FILE = new File("wikipedia-pagerank-page-id-title.table");  // For caching
 	private static final File PAGERANK_RAW_FILE = new File("wikipedia-pageranks.raw");
 	
 	
 	/*---- Main program ----*/
 	
 	public static void main(String[] args) throws IOException {
-		// Read title-ID map
-		Map<String,Integer> titleToId = PageIdTitleMap.readRawFile(PAGE_ID_TITLE_RAW_FILE);
+		// Map title-ID table
+		TitleTable titleTable = PageIdTitleMap.mapTableFile(PAGE_ID_TITLE_TABLE_FILE);
 		
 		// Read page titles to sort
 		Set<String> titles = new HashSet<>();
@@ -57,7 +56,7 @@ public final class SortPageTitlesByPagerank {
 					break;
 				if (titles.contains(line))
 					System.out.println("Duplicate removed: " + line);
-				else if (!titleToId.containsKey(line))
+				else if (titleTable.getId(line) == -1)
 					System.out.println("Nonexistent page title removed: " + line);
 				else
 					titles.add(line);
@@ -74,7 +73,7 @@ public final class SortPageTitlesByPagerank {
 		// Sort and write output
 		List<Entry> entries = new ArrayList<>();
 		for (String title : titles)
-			entries.add(new Entry(pageranks[titleToId.get(title)], title));
+			entries.add(new Entry(pageranks[titleTable.getId(title)], title));
 		Collections.sort(entries);
 		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(PAGE_TITLES_OUTPUT_FILE), StandardCharsets.UTF_8))) {
 			for (Entry e : entries)
@@ -0,0 +1,346 @@
+/* 
+ * Computing Wikipedia's internal PageRanks
+ * 
+ * Copyright (c) 2020 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
+ */
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+
+/* 
+ * A streaming parser for the "INSERT INTO" statements of a gzipped SQL dump file, which works on raw bytes.
+ * It doesn't build line strings or lists of boxed values. The calling thread decompresses
+ * the file into chunks of whole lines, and worker threads parse the chunks and pass each value to a row handler.
+ * Each worker has its own handler, so handlers need no synchronization, and the caller merges their results.
+ * Rows are delivered in file order within a chunk, but chunks are processed in no particular order.
+ */
+final class SqlStreamParser {
+	
+	/*---- Public function ----*/
+	
+	// Parses all rows of the given table in the given gzipped SQL file, using one handler per worker thread.
+	// Returns the list of handlers that were created, after all rows have been delivered to them.
+	public static <H extends RowHandler> List<H> parseFile(File file, String tableName, Supplier<H> handlerFactory) throws IOException {
+		int numWorkers = numWorkers();
+		byte[] prefix = ("INSERT INTO `" + tableName + "` VALUES ").getBytes(StandardCharsets.UTF_8);
+		BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(numWorkers * 2);
+		
+		List<H> handlers = new ArrayList<>();
+		List<Worker> workers = new ArrayList<>();
+		for (int i = 0; i < numWorkers; i++) {
+			H handler = handlerFactory.get();
+			handlers.add(handler);
+			Worker w = new Worker(queue, prefix, handler);
+			workers.add(w);
+			w.start();
+		}
+		
+		try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), 128 * 1024), 64 * 1024)) {
+			long startTime = System.currentTimeMillis();
+			long lastPrint = System.currentTimeMillis() - PRINT_INTERVAL;
+			long totalBytes = 0;
+			byte[] buf = new byte[CHUNK_SIZE];
+			int len = 0;
+			while (true) {
+				int n = in.read(buf, len, buf.length - len);
+				if (n == -1)
+					break;
+				len += n;
+				totalBytes += n;
+				if (len < buf.length)
+					continue;
+				
+				// Buffer is full; hand off all complete lines and keep the partial last line
+				int end = len;
+				while (end > 0 && buf[end - 1] != '\n')
+					end--;
+				byte[] next = new byte[end > 0 ? CHUNK_SIZE : buf.length * 2];  // Grow if no line break yet
+				if (end > 0) {
+					putChunk(queue, new Chunk(buf, end));
+					len -= end;
+					System.arraycopy(buf, end, next, 0, len);
+				} else
+					System.arraycopy(buf, 0, next, 0, len);
+				buf = next;
+				
+				if (System.currentTimeMillis() - lastPrint >= PRINT_INTERVAL) {
+					System.out.printf("\rParsing %s: %.3f MB decompressed...", file.getName(), totalBytes / 1000000.0);
+					lastPrint = System.currentTimeMillis();
+				}
+			}
+			if (len > 0)
+				putChunk(queue, new Chunk(buf, len));
+			System.out.printf("\rParsing %s: %.3f MB decompressed... Done (%.3f s)%n", file.getName(), totalBytes / 1000000.0, (System.currentTimeMillis() - startTime) / 1000.0);
+		} finally {
+			for (int i = 0; i < numWorkers; i++)
+				putChunk(queue, new Chunk(null, 0));  // End-of-stream marker for each worker
+			for (Worker w : workers) {
+				try {
+					w.join();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		
+		for (Worker w : workers) {
+			if (w.error instanceof RuntimeException)
+				throw (RuntimeException)w.error;
+			else if (w.error instanceof Error)
+				throw (Error)w.error;
+			else if (w.error != null)
+				throw new RuntimeException(w.error);
+		}
+		return handlers;
+	}
+	
+	
+	// Returns the number of parser threads (and handlers) that parseFile() uses.
+	public static int numWorkers() {
+		return Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+	}
+	
+	
+	private static void putChunk(BlockingQueue<Chunk> queue, Chunk chunk) {
+		try {
+			queue.put(chunk);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	
+	/*---- Parsing ----*/
+	
+	// Parses each line in data[0 : len], calling the handler for lines with the given prefix.
+	private static void parseLines(byte[] data, int len, byte[] prefix, RowHandler handler, byte[][] scratch) {
+		for (int start = 0; start < len; ) {
+			int end = start;
+			while (end < len && data[end] != '\n')
+				end++;
+			int next = end + 1;
+			if (end > start && data[end - 1] == '\r')
+				end--;
+			
+			// Current line has the form: "INSERT into `tablename` VALUES (...),(...),...,(...);"
+			if (end - start > prefix.length && data[end - 1] == ';' && startsWith(data, start, prefix))
+				parseTuples(data, start + prefix.length, end - 1, handler, scratch);
+			start = next;
+		}
+	}
+	
+	
+	private static boolean startsWith(byte[] data, int off, byte[] prefix) {
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[off + i] != prefix[i])
+				return false;
+		}
+		return true;
+	}
+	
+	
+	// Parses the text "(...),(...),...,(...)" in data[i : end]. The scratch array
+	// holds a reusable buffer for unescaping strings, and may be replaced by a bigger one.
+	private static void parseTuples(byte[] data, int i, int end, RowHandler handler, byte[][] scratch) {
+		while (true) {
+			if (i >= end || data[i] != '(')
+				throw new IllegalArgumentException("Expected '('");
+			i++;
+			int column = 0;
+			if (i < end && data[i] == ')')
+				i++;
+			else {
+				while (true) {
+					if (i >= end)
+						throw new IllegalArgumentException("Unexpected end of tuple");
+					byte c = data[i];
+					if (c == '\'') {  // String
+						i++;
+						int start = i;
+						boolean escaped = false;
+						for (; i < end && data[i] != '\''; i++) {
+							if (data[i] == '\\') {
+								escaped = true;
+								i++;
+							}
+						}
+						if (i >= end)
+							throw new IllegalArgumentException("Unterminated string");
+						if (!escaped)
+							handler.string(column, data, start, i - start);
+						else {
+							if (scratch[0].length < i - start)
+								scratch[0] = new byte[Math.max(i - start, scratch[0].length * 2)];
+							byte[] buf = scratch[0];
+							int n = 0;
+							for (int j = start; j < i; j++) {
+								byte b = data[j];
+								if (b == '\\') {  // Unescape backslashed characters
+									j++;
+									b = data[j];
+									if (b != '\'' && b != '"' && b != '\\')
+										throw new IllegalArgumentException("Invalid escape sequence");
+								}
+								buf[n] = b;
+								n++;
+							}
+							handler.string(column, buf, 0, n);
+						}
+						i++;
+					} else if (c == 'N') {  // Unquoted symbol
+						if (end - i < 4 || data[i + 1] != 'U' || data[i + 2] != 'L' || data[i + 3] != 'L')
+							throw new IllegalArgumentException("Unknown symbol");
+						handler.nullValue(column);
+						i += 4;
+					} else if (c >= '0' && c <= '9' || c == '-' || c == '.') {  // Number
+						int start = i;
+						boolean isDecimal = false;
+						for (; i < end && (data[i] >= '0' && data[i] <= '9' || data[i] == '-' || data[i] == '.'); i++)
+							isDecimal |= data[i] == '.';
+						if (isDecimal)
+							handler.decimal(column, data, start, i - start);
+						else
+							handler.integer(column, parseLong(data, start, i));
+					} else
+						throw new IllegalArgumentException("Unexpected character");
+					column++;
+					
+					if (i >= end)
+						throw new IllegalArgumentException("Unexpected end of tuple");
+					c = data[i];
+					i++;
+					if (c == ')')
+						break;
+					else if (c != ',')
+						throw new IllegalArgumentException("Expected ',' or ')'");
+				}
+			}
+			handler.endRow(column);
+			
+			if (i == end)
+				return;
+			else if (data[i] != ',')
+				throw new IllegalArgumentException("Expected ','");
+			i++;
+		}
+	}
+	
+	
+	private static long parseLong(byte[] data, int start, int end) {
+		boolean negative = start < end && data[start] == '-';
+		int i = negative ? start + 1 : start;
+		if (i == end || end - i > 18)
+			throw new NumberFormatException();
+		long result = 0;
+		for (; i < end; i++) {
+			int d = data[i] - '0';
+			if (d < 0 || d > 9)
+				throw new NumberFormatException();
+			result = result * 10 + d;
+		}
+		return negative ? -result : result;
+	}
+	
+	
+	private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+	
+	private static final int PRINT_INTERVAL = 30;  // In milliseconds
+	
+	
+	private SqlStreamParser() {}  // Not instantiable
+	
+	
+	
+	/*---- Helper interface and classes ----*/
+	
+	/* 
+	 * Receives the values of each row in order. The byte array arguments are only valid during the call.
+	 */
+	public interface RowHandler {
+		
+		// Called for a number without a decimal point.
+		public void integer(int column, long value);
+		
+		// Called for a number with a decimal point, which is passed as its ASCII text.
+		public void decimal(int column, byte[] text, int off, int len);
+		
+		// Called for a string, which is passed as unescaped UTF-8 bytes.
+		public void string(int column, byte[] utf8, int off, int len);
+		
+		public void nullValue(int column);
+		
+		// Called after all values of the row have been delivered.
+		public void endRow(int numColumns);
+		
+	}
+	
+	
+	
+	private static final class Chunk {
+		
+		public final byte[] data;  // Null for end of stream
+		public final int length;
+		
+		
+		public Chunk(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+		
+	}
+	
+	
+	
+	private static final class Worker extends Thread {
+		
+		private final BlockingQueue<Chunk> queue;
+		private final byte[] prefix;
+		private final RowHandler handler;
+		public volatile Throwable error = null;
+		
+		
+		public Worker(BlockingQueue<Chunk> queue, byte[] prefix, RowHandler handler) {
+			this.queue = queue;
+			this.prefix = prefix;
+			this.handler = handler;
+		}
+		
+		
+		public void run() {
+			byte[][] scratch = {new byte[256]};
+			while (true) {
+				Chunk chunk;
+				try {
+					chunk = queue.take();
+				} catch (InterruptedException e) {
+					error = e;
+					return;
+				}
+				if (chunk.data == null)
+					break;
+				if (error != null)
+					continue;  // Keep draining the queue so that the reader never blocks
+				try {
+					parseLines(chunk.data, chunk.length, prefix, handler, scratch);
+				} catch (Throwable e) {
+					error = e;
+				}
+			}
+		}
+		
+	}
+	
+}
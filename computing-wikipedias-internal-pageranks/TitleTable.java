@@ -0,0 +1,241 @@
+/* 
+ * Computing Wikipedia's internal PageRanks
+ * 
+ * Copyright (c) 2020 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/* 
+ * A read-only dictionary between page titles and page IDs, backed by a memory-mapped table file instead of
+ * HashMaps, so that it costs no heap and loads instantly. The file format (all ints big-endian) is:
+ *   int magic, int n, int idLimit, int numSlots,
+ *   int[n] ids, int[n + 1] title offsets, int[idLimit] entry index by ID, int[numSlots] hash slots, byte[] titles.
+ * Entries are sorted by the unsigned bytes of the UTF-8 encoded title, and the title of entry i is the
+ * arena slice [offsets[i], offsets[i + 1]). The entry index array gives ID-to-title lookup in constant time
+ * (-1 for absent IDs), and the hash slots are an open-addressing table of entry indexes (-1 for empty)
+ * with linear probing, giving title-to-ID lookup in expected constant time.
+ */
+final class TitleTable {
+	
+	/*---- Constants ----*/
+	
+	// The first 4 bytes of a title table file, which is "PTt2" in ASCII.
+	public static final int FILE_MAGIC = 0x50547432;
+	
+	
+	/*---- Fields ----*/
+	
+	private final ByteBuffer data;
+	
+	private final int size;
+	
+	private final int idLimit;
+	
+	private final int slotMask;
+	
+	// Byte positions of the arrays within the data.
+	private final int idsStart;
+	private final int offsetsStart;
+	private final int indexByIdStart;
+	private final int slotsStart;
+	private final int titlesStart;
+	
+	
+	/*---- Constructor ----*/
+	
+	// Constructs a table over the given buffer, which contains an entire table file. Nothing is copied.
+	public TitleTable(ByteBuffer data) {
+		this.data = data;
+		if (data.limit() < 16 || data.getInt(0) != FILE_MAGIC)
+			throw new IllegalArgumentException("Not a title table file");
+		size = data.getInt(4);
+		idLimit = data.getInt(8);
+		int numSlots = data.getInt(12);
+		if (size < 0 || idLimit < 0 || numSlots <= size || Integer.bitCount(numSlots) != 1)
+			throw new IllegalArgumentException("Invalid title table header");
+		slotMask = numSlots - 1;
+		idsStart = 16;
+		long offStart = idsStart + size * 4L;
+		long idxStart = offStart + (size + 1) * 4L;
+		long slStart = idxStart + idLimit * 4L;
+		long tiStart = slStart + numSlots * 4L;
+		if (tiStart > data.limit())
+			throw new IllegalArgumentException("Invalid title table size");
+		offsetsStart = (int)offStart;
+		indexByIdStart = (int)idxStart;
+		slotsStart = (int)slStart;
+		titlesStart = (int)tiStart;
+		if (titlesStart + (long)getOffset(size) != data.limit())
+			throw new IllegalArgumentException("Invalid title table size");
+	}
+	
+	
+	/*---- Methods ----*/
+	
+	public int size() {
+		return size;
+	}
+	
+	
+	// Returns the page ID of the given title, or -1 if it is absent.
+	public int getId(String title) {
+		byte[] b = title.getBytes(StandardCharsets.UTF_8);
+		return getId(b, 0, b.length);
+	}
+	
+	
+	// Returns the page ID of the given UTF-8 encoded title, or -1 if it is absent. This is safe for concurrent use.
+	public int getId(byte[] title, int off, int len) {
+		for (int slot = hash(title, off, len) & slotMask; ; slot = (slot + 1) & slotMask) {
+			int index = data.getInt(slotsStart + slot * 4);
+			if (index == -1)
+				return -1;
+			if (equalsAt(index, title, off, len))
+				return getIdAt(index);
+		}
+	}
+	
+	
+	public boolean containsId(int id) {
+		return getIndexById(id) != -1;
+	}
+	
+	
+	// Returns the title of the given page ID, or null if it is absent.
+	public String getTitle(int id) {
+		int index = getIndexById(id);
+		if (index == -1)
+			return null;
+		int start = getOffset(index);
+		byte[] b = new byte[getOffset(index + 1) - start];
+		ByteBuffer buf = data.duplicate();
+		buf.position(titlesStart + start);
+		buf.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+	
+	
+	private int getIndexById(int id) {
+		if (id < 0 || id >= idLimit)
+			return -1;
+		return data.getInt(indexByIdStart + id * 4);
+	}
+	
+	
+	private int getIdAt(int index) {
+		return data.getInt(idsStart + index * 4);
+	}
+	
+	
+	private int getOffset(int index) {
+		return data.getInt(offsetsStart + index * 4);
+	}
+	
+	
+	private boolean equalsAt(int index, byte[] b, int off, int len) {
+		int start = titlesStart + getOffset(index);
+		if (titlesStart + getOffset(index + 1) - start != len)
+			return false;
+		for (int i = 0; i < len; i++) {
+			if (data.get(start + i) != b[off + i])
+				return false;
+		}
+		return true;
+	}
+	
+	
+	/*---- Static functions ----*/
+	
+	// Writes a table file for the given titles, which must be sorted by compareBytes() and distinct,
+	// and the corresponding page IDs, which must be non-negative and distinct.
+	public static void write(byte[][] titles, int[] ids, File file) throws IOException {
+		int n = titles.length;
+		if (ids.length != n)
+			throw new IllegalArgumentException();
+		int maxId = -1;
+		for (int id : ids) {
+			if (id < 0)
+				throw new IllegalArgumentException("Negative page ID");
+			maxId = Math.max(id, maxId);
+		}
+		int idLimit = maxId + 1;
+		int numSlots = Integer.highestOneBit(Math.max(n, 1)) * 4;  // Load factor between 1/4 and 1/2
+		
+		// Build the two index arrays in memory
+		int[] indexById = new int[idLimit];
+		Arrays.fill(indexById, -1);
+		int[] slots = new int[numSlots];
+		Arrays.fill(slots, -1);
+		long arenaSize = 0;
+		for (int i = 0; i < n; i++) {
+			byte[] title = titles[i];
+			if (indexById[ids[i]] != -1)
+				throw new IllegalArgumentException("Duplicate page ID");
+			indexById[ids[i]] = i;
+			int slot = hash(title, 0, title.length) & (numSlots - 1);
+			while (slots[slot] != -1)
+				slot = (slot + 1) & (numSlots - 1);
+			slots[slot] = i;
+			arenaSize += title.length;
+		}
+		if (16 + (n * 2L + 1 + idLimit + numSlots) * 4 + arenaSize > Integer.MAX_VALUE)
+			throw new RuntimeException("Title table too large");
+		
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 128 * 1024))) {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(n);
+			out.writeInt(idLimit);
+			out.writeInt(numSlots);
+			for (int id : ids)
+				out.writeInt(id);
+			int offset = 0;
+			out.writeInt(offset);
+			for (byte[] title : titles) {
+				offset += title.length;
+				out.writeInt(offset);
+			}
+			for (int index : indexById)
+				out.writeInt(index);
+			for (int index : slots)
+				out.writeInt(index);
+			for (byte[] title : titles)
+				out.write(title);
+		}
+	}
+	
+	
+	// Returns a hash of the given bytes, which is part of the file format.
+	public static int hash(byte[] b, int off, int len) {
+		int h = 0x811C9DC5;  // FNV-1a
+		for (int i = 0; i < len; i++)
+			h = (h ^ (b[off + i] & 0xFF)) * 0x01000193;
+		h ^= h >>> 16;  // Spread the high bits, since only the low bits select a slot
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		return h;
+	}
+	
+	
+	// Lexicographically compares two byte sequences as unsigned values. This defines the table order.
+	public static int compareBytes(byte[] a, byte[] b) {
+		for (int i = 0, n = Math.min(a.length, b.length); i < n; i++) {
+			int x = a[i] & 0xFF;
+			int y = b[i] & 0xFF;
+			if (x != y)
+				return Integer.compare(x, y);
+		}
+		return Integer.compare(a.length, b.length);
+	}
+	
+}
@@ -0,0 +1,149 @@
+/* 
+ * Computing Wikipedia's internal PageRanks
+ * 
+ * Copyright (c) 2020 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/computing-wikipedias-internal-pageranks
+ */
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+
+/* 
+ * Keeps the k best (index, value) pairs offered so far, in a bounded min-heap, using O(k) memory.
+ * A pair is better than another if it has a higher value, or an equal value and a lower index.
+ * Selecting the top k of n values this way takes O(n log k) time, instead of sorting the whole array.
+ * Not thread-safe; for parallel use, fill one instance per thread and combine them with addAll().
+ */
+final class TopK {
+	
+	/*---- Fields ----*/
+	
+	private final int capacity;
+	
+	// Heap of the kept pairs, where the root (element 0) is the worst one.
+	private final int[] indices;
+	private final double[] values;
+	private int size;
+	
+	
+	/*---- Constructor ----*/
+	
+	public TopK(int k) {
+		if (k < 0)
+			throw new IllegalArgumentException("Negative k");
+		capacity = k;
+		indices = new int[k];
+		values = new double[k];
+		size = 0;
+	}
+	
+	
+	/*---- Methods ----*/
+	
+	public void offer(int index, double value) {
+		if (size < capacity) {
+			indices[size] = index;
+			values[size] = value;
+			siftUp(size);
+			size++;
+		} else if (capacity > 0 && isBetter(index, value, indices[0], values[0])) {
+			indices[0] = index;
+			values[0] = value;
+			siftDown(0);
+		}
+	}
+	
+	
+	public void addAll(TopK other) {
+		for (int i = 0; i < other.size; i++)
+			offer(other.indices[i], other.values[i]);
+	}
+	
+	
+	// Returns the indices of the kept pairs, from best to worst.
+	public int[] toSortedIndices() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		Arrays.sort(order, (x, y) -> x.equals(y) ? 0 : isBetter(indices[x], values[x], indices[y], values[y]) ? -1 : 1);
+		int[] result = new int[size];
+		for (int i = 0; i < size; i++)
+			result[i] = indices[order[i]];
+		return result;
+	}
+	
+	
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!isBetter(indices[parent], values[parent], indices[i], values[i]))
+				break;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+	
+	
+	private void siftDown(int i) {
+		while (true) {
+			int worst = i;
+			for (int child = i * 2 + 1; child <= i * 2 + 2 && child < size; child++) {
+				if (isBetter(indices[worst], values[worst], indices[child], values[child]))
+					worst = child;
+			}
+			if (worst == i)
+				break;
+			swap(i, worst);
+			i = worst;
+		}
+	}
+	
+	
+	private void swap(int i, int j) {
+		int ti = indices[i];
+		indices[i] = indices[j];
+		indices[j] = ti;
+		double tv = values[i];
+		values[i] = values[j];
+		values[j] = tv;
+	}
+	
+	
+	/*---- Static functions ----*/
+	
+	// Returns the indices of the k largest values in the given array, from largest to smallest.
+	public static int[] select(double[] values, int k) {
+		TopK result = new TopK(k);
+		for (int i = 0; i < values.length; i++)
+			result.offer(i, values[i]);
+		return result.toSortedIndices();
+	}
+	
+	
+	// Returns the same result as select(), but scans slices of the array on multiple threads.
+	public static int[] selectParallel(double[] values, int k) {
+		int numSlices = Math.max(Runtime.getRuntime().availableProcessors() * 4, 1);
+		long sliceLen = ((long)values.length + numSlices - 1) / numSlices;
+		TopK result = IntStream.range(0, numSlices).parallel().mapToObj(s -> {
+			TopK part = new TopK(k);
+			for (int i = (int)Math.min(s * sliceLen, values.length), end = (int)Math.min((s + 1) * sliceLen, values.length); i < end; i++)
+				part.offer(i, values[i]);
+			return part;
+		}).reduce(new TopK(k), (x, y) -> {
+			TopK z = new TopK(k);
+			z.addAll(x);
+			z.addAll(y);
+			return z;
+		});
+		return result.toSortedIndices();
+	}
+	
+	
+	private static boolean isBetter(int index0, double value0, int index1, double value1) {
+		int cmp = Double.compare(value0, value1);
+		return cmp > 0 || cmp == 0 && index0 < index1;
+	}
+	
+}
@@ -11,8 +11,6 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Map;
 
 
 /* 
@@ -28,10 +26,11 @@ public final class WikipediaPagerank {
 	/*---- Input/output files configuration ----*/
 	
 	private static final File PAGE_ID_TITLE_SQL_FILE = new File("enwiki-20140102-page.sql.gz");           // Original input file
-	private static final File PAGE_ID_TITLE_RAW_FILE = new File("wikipedia-pagerank-page-id-title.raw");  // Cache after preprocessing
+	private static final File PAGE_ID_TITLE_TABLE_FILE = new File("wikipedia-pagerank-page-id-title.table");  // Cache after preprocessing, memory-mapped
 	
 	private static final File PAGE_LINKS_SQL_FILE = new File("enwiki-20140102-pagelinks.sql.gz");   // Original input file
 	private static final File PAGE_LINKS_RAW_FILE = new File("wikipedia-pagerank-page-links.raw");  // Cache after preprocessing
+	private static final File PAGE_LINKS_COMPRESSED_FILE = new File("wikipedia-pagerank-page-links.csr");  // Compressed cache, memory-mapped
 	
 	private static final File PAGERANKS_RAW_FILE = new File("wikipedia-pageranks.raw");  // Output file
 	
@@ -40,21 +39,19 @@ public final class WikipediaPagerank {
 	
 	public static void main(String[] args) throws IOException {
 		// Read page-ID-title data
-		Map<String,Integer> titleToId;
-		if (!PAGE_ID_TITLE_RAW_FILE.isFile()) {  // Read SQL and write cache
-			titleToId = PageIdTitleMap.readSqlFile(PAGE_ID_TITLE_SQL_FILE);
-			PageIdTitleMap.writeRawFile(titleToId, PAGE_ID_TITLE_RAW_FILE);
-		} else  // Read cache
-			titleToId = PageIdTitleMap.readRawFile(PAGE_ID_TITLE_RAW_FILE);
-		Map<Integer,String> idToTitle = PageIdTitleMap.computeReverseMap(titleToId);
+		if (!PAGE_ID_TITLE_TABLE_FILE.isFile())  // Read SQL and write cache
+			PageIdTitleMap.readSqlFile(PAGE_ID_TITLE_SQL_FILE, PAGE_ID_TITLE_TABLE_FILE);
+		TitleTable titles = PageIdTitleMap.mapTableFile(PAGE_ID_TITLE_TABLE_FILE);
 		
 		// Read page-links data
-		int[] links;
-		if (!PAGE_LINKS_RAW_FILE.isFile()) {  // Read SQL and write cache
-			links = PageLinksList.readSqlFile(PAGE_LINKS_SQL_FILE, titleToId, idToTitle);
-			PageLinksList.writeRawFile(links, PAGE_LINKS_RAW_FILE);
-		} else  // Read cache
-			links = PageLinksList.readRawFile(PAGE_LINKS_RAW_FILE);
+		LinkRuns links;
+		if (!PAGE_LINKS_COMPRESSED_FILE.isFile()) {
+			if (!PAGE_LINKS_RAW_FILE.isFile())  // Read SQL and write cache
+				PageLinksList.readSqlFile(PAGE_LINKS_SQL_FILE, titles, PAGE_LINKS_RAW_FILE);
+			links = PageLinksList.mapRawFile(PAGE_LINKS_RAW_FILE);
+			PageLinksList.writeCompressedFile(links, PAGE_LINKS_COMPRESSED_FILE);
+		} else  // Map compressed cache, which is decoded on the fly in each iteration
+			links = PageLinksList.readCompressedFile(PAGE_LINKS_COMPRESSED_FILE);
 		
 		// Iteratively compute PageRank
 		final double DAMPING = 0.85;  // Between 0.0 and 1.0; standard value is 0.85
@@ -70,9 +67,8 @@ public final class WikipediaPagerank {
 			
 			// Calculate and print statistics
 			double[] pageranks = pr.pageranks;
-			printPagerankChangeRatios(prevPageranks, pageranks);
-			printTopPages(pageranks, idToTitle);
-			prevPageranks = pageranks.clone();
+			printStatistics(PagerankStats.compute(prevPageranks, pageranks, 30), pageranks, titles);
+			System.arraycopy(pageranks, 0, prevPageranks, 0, pageranks.length);
 		}
 		
 		// Write PageRanks to file
@@ -85,32 +81,11 @@ public final class WikipediaPagerank {
 	
 	/*---- Miscellaneous functions ----*/
 	
-	private static void printPagerankChangeRatios(double[] prevPr, double[] pr) {
-		double min = Double.POSITIVE_INFINITY;
-		double max = 0;
-		for (int i = 0; i < pr.length; i++) {
-			if (pr[i] != 0 && prevPr[i] != 0) {
-				double ratio = pr[i] / prevPr[i];
-				min = Math.min(ratio, min);
-				max = Math.max(ratio, max);
-			}
-		}
-		System.out.println("Range of ratio of changes: " + min + " to " + max);
-	}
-	
-	
-	private static void printTopPages(double[] pageranks, Map<Integer,String> titleById) {
-		final int NUM_PAGES = 30;
-		double[] sorted = pageranks.clone();
-		Arrays.sort(sorted);
-		for (int i = 0; i < NUM_PAGES; i++) {
-			for (int j = 0; j < sorted.length; j++) {
-				if (pageranks[j] == sorted[sorted.length - 1 - i]) {
-					System.out.printf("  %.3f  %s%n", Math.log10(pageranks[j]), titleById.get(j));
-					break;
-				}
-			}
-		}
+	private static void printStatistics(PagerankStats stats, double[] pageranks, TitleTable titles) {
+		System.out.println("Range of ratio of changes: " + stats.minRatio + " to " + stats.maxRatio);
+		System.out.println("Sum of absolute changes: " + stats.residual);
+		for (int id : stats.topPages)
+			System.out.printf("  %.3f  %s%n", Math.log10(pageranks[id]), titles.getTitle(id));
 	}
 	
 	
@@ -9,6 +9,9 @@
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
 
 
 /* 
@@ -71,11 +74,24 @@ final class GifLzwCompressor {
 	 * the LZW encoder to emit a clear code immediately upon the dictionary reaching that size.
 	 */
 	public static void encodeOptimized(byte[] data, int codeSize, int blockSize, int dictClear, BitOutputStream out, boolean print) throws IOException {
+		encodeOptimized(data, codeSize, blockSize, dictClear, 0, true, out, print);
+	}
+	
+	
+	/* 
+	 * Same as above, but if maxRangeBlocks is positive then only runs of at most that many blocks are
+	 * candidates for encoding without clearing the dictionary. This bounds the trial encoding work to
+	 * O(data.length * maxRangeBlocks) instead of O(data.length^2 / blockSize), at the cost of possibly
+	 * missing a longer run that would have been smaller. A value of 0 means no limit (fully optimal).
+	 * If parallel is true then the trial encodings run on the common fork-join pool, otherwise all work
+	 * stays on the calling thread, which is what a caller that is already a task in a thread pool wants.
+	 */
+	public static void encodeOptimized(byte[] data, int codeSize, int blockSize, int dictClear, int maxRangeBlocks, boolean parallel, BitOutputStream out, boolean print) throws IOException {
 		// Check arguments
 		Objects.requireNonNull(data);
 		if (codeSize < 2 || codeSize > 8)
 			throw new IllegalArgumentException();
-		if (blockSize <= 0 || dictClear < -1)
+		if (blockSize <= 0 || dictClear < -1 || maxRangeBlocks < 0)
 			throw new IllegalArgumentException();
 		Objects.requireNonNull(out);
 		
@@ -86,15 +102,49 @@ final class GifLzwCompressor {
 		int numBlocks = (data.length + blockSize - 1) / blockSize;  // ceil(length / blockSize)
 		assert numBlocks >= 1;
 		
+		// The trial encoding of the runs starting at a block doesn't depend on the results for later blocks,
+		// so a batch of start blocks is encoded in parallel, and then only the cheap minimization goes backward
 		long[] minBitLengths = new long[numBlocks];
 		int[] numBlocksToEncode = new int[numBlocks];
-		for (int i = numBlocks - 1; i >= 0; i--) {
-			if (print) System.out.printf("\rOptimizing: %d of %d block ranges", numBlocks - 1 - i, numBlocks);
-			byte[] subData = Arrays.copyOfRange(data, i * blockSize, data.length);
-			long[] subMinBitLen = Arrays.copyOfRange(minBitLengths, i + 1, minBitLengths.length);
-			long[] temp = getLzwEncodedSize(subData, blockSize, codeSize, dictClear, subMinBitLen);
-			minBitLengths[i] = temp[0];
-			numBlocksToEncode[i] = (int)temp[1];
+		int batchSize = parallel ? Runtime.getRuntime().availableProcessors() * 4 : 1;
+		// Encoders are reused across trials, and only live as long as this call. In parallel, each running trial
+		// takes an idle encoder from the queue (or makes one) and puts it back afterward, so at most one per thread is made.
+		DictionaryEncoder serialEncoder = parallel ? null : new DictionaryEncoder(codeSize, dictClear);
+		Queue<DictionaryEncoder> idleEncoders = new ConcurrentLinkedQueue<>();
+		for (int end = numBlocks; end > 0; ) {
+			if (print) System.out.printf("\rOptimizing: %d of %d block ranges", numBlocks - end, numBlocks);
+			int start = Math.max(end - batchSize, 0);
+			long[][] runBitLengths = new long[end - start][];
+			if (parallel) {
+				IntStream.range(start, end).parallel().forEach(i -> {
+					DictionaryEncoder enc = idleEncoders.poll();
+					if (enc == null)
+						enc = new DictionaryEncoder(codeSize, dictClear);
+					runBitLengths[i - start] = getLzwEncodedSizes(data, i, blockSize, enc, maxRangeBlocks);
+					idleEncoders.add(enc);
+				});
+			} else {
+				for (int i = start; i < end; i++)
+					runBitLengths[i - start] = getLzwEncodedSizes(data, i, blockSize, serialEncoder, maxRangeBlocks);
+			}
+			
+			for (int i = end - 1; i >= start; i--) {
+				long[] bitLens = runBitLengths[i - start];
+				long minBitLen = -1;
+				int blocksToEncode = -1;
+				for (int j = 0; j < bitLens.length; j++) {
+					long totalBitLen = bitLens[j];
+					if (i + j + 1 < numBlocks)
+						totalBitLen += minBitLengths[i + j + 1];
+					if (minBitLen == -1 || totalBitLen < minBitLen) {
+						minBitLen = totalBitLen;
+						blocksToEncode = j + 1;
+					}
+				}
+				minBitLengths[i] = minBitLen;
+				numBlocksToEncode[i] = blocksToEncode;
+			}
+			end = start;
 		}
 		if (print) System.out.println();
 		
@@ -114,44 +164,37 @@ final class GifLzwCompressor {
 	}
 	
 	
-	// Returns the pair (minimum bit length to encode the given data array,
-	// number of prefix blocks to encode to achieve the minimum), given that:
-	// - nextOptimalSizes[0] is the minimum bit length to encode data[1*blockSize : end],
-	// - nextOptimalSizes[1] is the minimum bit length to encode data[2*blockSize : end], etc.
-	private static long[] getLzwEncodedSize(byte[] data, int blockSize, int codeSize, int dictClear, long[] nextOptimalSizes) {
-		if (data.length == 0 || nextOptimalSizes.length != (data.length - 1) / blockSize)
+	// Returns an array where element j is the bit length to encode data[startBlock*blockSize : (startBlock+j+1)*blockSize]
+	// (clamped to the data length) as one LZW block, including its terminating Clear or Stop code. The array covers
+	// all blocks up to the end of the data, or only maxRangeBlocks of them if that is positive. The given encoder is reset
+	// and reused, so that no trie is allocated per trial; calls on different threads must use different encoders.
+	private static long[] getLzwEncodedSizes(byte[] data, int startBlock, int blockSize, DictionaryEncoder enc, int maxRangeBlocks) {
+		int numBlocks = (data.length - 1) / blockSize + 1 - startBlock;
+		if (numBlocks <= 0)
 			throw new IllegalArgumentException();
+		if (maxRangeBlocks > 0)
+			numBlocks = Math.min(maxRangeBlocks, numBlocks);
 		try {
-			long minBitLen = -1;
-			int blocksToEncode = -1;
-			DictionaryEncoder enc = new DictionaryEncoder(codeSize, dictClear);
+			long[] result = new long[numBlocks];
+			enc.reset();
 			CountingBitOutputStream counter = new CountingBitOutputStream();
-			int nextBlockIndex = 1;
-			int curBlockEnd = Math.min(nextBlockIndex * blockSize, data.length);
+			int blockIndex = 0;
+			int curBlockEnd = (int)Math.min((long)(startBlock + 1) * blockSize, data.length);
 			
-			int i = 0;
-			while (i < data.length) {
+			int i = startBlock * blockSize;
+			while (blockIndex < numBlocks) {
 				int matched = enc.encodeNext(data, i, counter);
 				i += matched;
-				while (i >= curBlockEnd) {
+				while (i >= curBlockEnd && blockIndex < numBlocks) {
 					// Remember, the LZW dictionary contains all prefixes. So even if we encoded
 					// more input symbols than the block boundary, it would take the same number of
 					// output symbols (and thus bits) to encode exactly up to the block boundary.
-					long totalBitLen = counter.length + enc.codeSize;
-					if (nextBlockIndex - 1 < nextOptimalSizes.length)
-						totalBitLen += nextOptimalSizes[nextBlockIndex - 1];
-					if (minBitLen == -1 || totalBitLen < minBitLen) {
-						minBitLen = totalBitLen;
-						blocksToEncode = nextBlockIndex;
-					}
-					if (curBlockEnd == data.length)
-						break;
-					nextBlockIndex++;
-					curBlockEnd = Math.min(nextBlockIndex * blockSize, data.length);
+					result[blockIndex] = counter.length + enc.codeSize;
+					blockIndex++;
+					curBlockEnd = (int)Math.min((long)(startBlock + blockIndex + 1) * blockSize, data.length);
 				}
 			}
-			assert i == data.length;
-			return new long[]{minBitLen, blocksToEncode};
+			return result;
 			
 		} catch (IOException e) {
 			throw new AssertionError();
@@ -172,16 +215,22 @@ final class GifLzwCompressor {
 	
 	
 	
-	// A helper class with mutable state.
+	// A helper class with mutable state. The dictionary trie is a flat table indexed by
+	// (code * alphabetSize + next symbol), whose entries are tagged with a generation number,
+	// so that clearing the dictionary is a counter increment instead of touching the table.
 	private static final class DictionaryEncoder {
 		
 		private static final int MAX_DICT_SIZE = 4096;
+		private static final int CODE_BITS = 12;  // Bits of a table entry that hold the child code
+		private static final int MAX_GENERATION = (1 << (31 - CODE_BITS)) - 1;
 		
 		private final int initCodeBits;
 		private final int alphabetSize;
 		private final int dictClear;  // In the range [7, MAX_DICT_SIZE + 1]
 		
-		private TrieNode root;
+		// Each entry is (generation << CODE_BITS | childCode), and is valid only if its generation is current.
+		private final int[] children;
+		private int generation;
 		private int size;     // Number of dictionary entries, max 4096
 		public int codeSize;  // Equal to ceil(log2(size))
 		
@@ -195,10 +244,8 @@ final class GifLzwCompressor {
 			initCodeBits = codeSize;
 			alphabetSize = 1 << codeSize;
 			this.dictClear = (dictClear == -1) ? (MAX_DICT_SIZE + 1) : dictClear;
-			
-			root = new TrieNode(-1, alphabetSize);  // Root has no symbol
-			for (int i = 0; i < root.children.length; i++)
-				root.children[i] = new TrieNode(i, alphabetSize);
+			children = new int[MAX_DICT_SIZE * alphabetSize];
+			generation = 0;
 			clearDictionary();
 		}
 		
@@ -206,24 +253,28 @@ final class GifLzwCompressor {
 		// Returns the number of bytes consumed.
 		public int encodeNext(byte[] data, int start, BitOutputStream out) throws IOException {
 			// Find longest match in dictionary
-			TrieNode node = root;
+			int code = data[start] & 0xFF;  // Every literal symbol is in the dictionary
+			if (code >= alphabetSize)
+				throw new IllegalArgumentException("Byte value out of range");
+			int tag = generation << CODE_BITS;
 			int i;
-			for (i = start; i < data.length; i++) {
-				TrieNode next = node.children[data[i] & 0xFF];
-				if (next == null)
+			for (i = start + 1; i < data.length; i++) {
+				int sym = data[i] & 0xFF;
+				if (sym >= alphabetSize)
+					throw new IllegalArgumentException("Byte value out of range");
+				int next = children[code * alphabetSize + sym];
+				if ((next & ~(MAX_DICT_SIZE - 1)) != tag)
 					break;
-				node = next;
+				code = next & (MAX_DICT_SIZE - 1);
 			}
-			if (node == root)
-				throw new IllegalArgumentException("Byte value out of range");
 			
 			// Write encoded symbol
-			out.writeBits(node.symbol, codeSize);
+			out.writeBits(code, codeSize);
 			
 			// Add new dictionary entry
 			if (size < MAX_DICT_SIZE) {
 				if (i < data.length)  // Only add a physical entry if next symbol is not Clear or Stop
-					node.children[data[i] & 0xFF] = new TrieNode(size, alphabetSize);
+					children[code * alphabetSize + (data[i] & 0xFF)] = tag | size;
 				// But we must update the size and code bits for the decoder's sake
 				if (Integer.bitCount(size) == 1)  // Is a power of 2
 					codeSize++;
@@ -237,26 +288,21 @@ final class GifLzwCompressor {
 		}
 		
 		
-		private void clearDictionary() {
-			for (TrieNode child : root.children)
-				Arrays.fill(child.children, null);
-			size = alphabetSize + 2;  // Includes Clear and Stop symbols
-			codeSize = initCodeBits + 1;
+		// Restores the initial state, so that this object can be reused for another encoding.
+		public void reset() {
+			clearDictionary();
 		}
 		
 		
-		
-		private static final class TrieNode {
-			
-			public final int symbol;
-			public TrieNode[] children;
-			
-			
-			public TrieNode(int sym, int alphaSz) {
-				symbol = sym;
-				children = new TrieNode[alphaSz];
+		private void clearDictionary() {
+			// Invalidate all entries by moving to a new generation; the table is only rewritten when generations run out
+			if (generation == MAX_GENERATION) {
+				Arrays.fill(children, 0);
+				generation = 0;
 			}
-			
+			generation++;
+			size = alphabetSize + 2;  // Includes Clear and Stop symbols
+			codeSize = initCodeBits + 1;
 		}
 		
 	}
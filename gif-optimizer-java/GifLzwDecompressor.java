@@ -7,6 +7,7 @@
  */
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
@@ -58,6 +59,116 @@ final class GifLzwDecompressor {
 	}
 	
 	
+	/* 
+	 * Decodes LZW data that is still packed in GIF subblocks (up to and including the zero-length
+	 * terminator, or to the end of the array), giving the same result as decode() but much faster.
+	 * The subblocks are first joined into one contiguous array, codes are extracted from a 64-bit
+	 * bit reservoir, and each dictionary entry is expanded backward along a prefix/suffix/length
+	 * table directly into the output array. expectedLength is only a hint for the initial capacity
+	 * (e.g. width * height of the image), and can be 0 if unknown.
+	 */
+	public static byte[] decodeSubblocks(byte[] subblocks, int codeSize, int expectedLength) throws IOException {
+		// Check arguments
+		Objects.requireNonNull(subblocks);
+		if (!(2 <= codeSize && codeSize <= 8) || expectedLength < 0)
+			throw new IllegalArgumentException();
+		
+		// Join subblocks
+		byte[] data = new byte[subblocks.length];
+		int dataLen = 0;
+		for (int i = 0; i < subblocks.length; ) {
+			int n = subblocks[i] & 0xFF;
+			i++;
+			if (n == 0)
+				break;
+			n = Math.min(n, subblocks.length - i);
+			System.arraycopy(subblocks, i, data, dataLen, n);
+			i += n;
+			dataLen += n;
+		}
+		
+		// Initialize dictionary, where literals are implicit
+		final int alphabetSize = 1 << codeSize;
+		final int clearCode = alphabetSize;
+		final int stopCode = clearCode + 1;
+		final int MAX_ENTRIES = LzwDictionary.MAX_ENTRIES;
+		short[] prefixes = new short[MAX_ENTRIES];
+		byte[] suffixes = new byte[MAX_ENTRIES];
+		byte[] firsts = new byte[MAX_ENTRIES];
+		int[] lengths = new int[MAX_ENTRIES];
+		for (int i = 0; i < alphabetSize; i++) {
+			suffixes[i] = (byte)i;
+			firsts[i] = (byte)i;
+			lengths[i] = 1;
+		}
+		int numEntries = alphabetSize + 2;
+		int curCodeSize = codeSize + 1;
+		boolean hasPlaceholder = false;  // Whether entry numEntries-1 awaits its last byte
+		
+		byte[] out = new byte[Math.max(expectedLength, 16)];
+		int outLen = 0;
+		long bitBuffer = 0;
+		int bitBufferLen = 0;
+		int dataIndex = 0;
+		for (int prevSymbol = -1; ; ) {  // Parse and process each symbol
+			// Read next code, refilling the reservoir a byte at a time while it has room
+			if (bitBufferLen < curCodeSize) {
+				for (; bitBufferLen <= 56 && dataIndex < dataLen; bitBufferLen += 8, dataIndex++)
+					bitBuffer |= (data[dataIndex] & 0xFFL) << bitBufferLen;
+				if (bitBufferLen < curCodeSize)
+					throw new EOFException();
+			}
+			int symbol = (int)bitBuffer & ((1 << curCodeSize) - 1);
+			bitBuffer >>>= curCodeSize;
+			bitBufferLen -= curCodeSize;
+			
+			if (symbol >= numEntries)
+				throw new IllegalArgumentException("Symbol out of range");
+			else if (symbol == stopCode)
+				break;
+			else if (symbol == clearCode) {
+				numEntries = alphabetSize + 2;
+				curCodeSize = codeSize + 1;
+				hasPlaceholder = false;
+				prevSymbol = -1;
+			} else {  // Ordinary data symbol
+				// Complete the newest entry now that its last byte is known
+				if (prevSymbol != -1 && hasPlaceholder) {
+					int newSymbol = numEntries - 1;
+					prefixes[newSymbol] = (short)prevSymbol;
+					suffixes[newSymbol] = firsts[symbol == newSymbol ? prevSymbol : symbol];
+					firsts[newSymbol] = firsts[prevSymbol];
+					lengths[newSymbol] = lengths[prevSymbol] + 1;
+					hasPlaceholder = false;
+				}
+				
+				// Write bytes of the current symbol's entry, from last to first
+				int len = lengths[symbol];
+				if (out.length - outLen < len)
+					out = Arrays.copyOf(out, Math.max(out.length * 2, outLen + len));
+				outLen += len;
+				int i = outLen;
+				int sym = symbol;
+				for (; sym >= alphabetSize; sym = prefixes[sym]) {
+					i--;
+					out[i] = suffixes[sym];
+				}
+				out[i - 1] = (byte)sym;
+				prevSymbol = symbol;
+				
+				// Increment size before knowing what the encoder just added
+				if (numEntries < MAX_ENTRIES) {
+					if (Integer.bitCount(numEntries) == 1)  // Is power of 2
+						curCodeSize++;
+					numEntries++;
+					hasPlaceholder = true;
+				}
+			}
+		}
+		return outLen == out.length ? out : Arrays.copyOf(out, outLen);
+	}
+	
+	
 	
 	// A helper class with mutable state.
 	private static final class LzwDictionary {
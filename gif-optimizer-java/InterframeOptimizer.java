@@ -0,0 +1,196 @@
+/* 
+ * Library classes for GIF optimizer (Java)
+ * 
+ * Copyright (c) 2018 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/gif-optimizer-java
+ */
+
+import java.util.Arrays;
+import java.util.Objects;
+
+
+/* 
+ * Tracks the composited canvas of an animated GIF frame by frame, and rewrites each frame to cover only
+ * the bounding box of pixels that actually change the canvas, with unchanged pixels inside the box set
+ * to the transparent index. The rewritten frame displays exactly the same result as the original one.
+ * Canvas areas whose content depends on the decoder (before the first frame, or after disposal to the
+ * background color) are treated as unknown, so pixels drawn over them always count as changed.
+ */
+final class InterframeOptimizer {
+	
+	/*---- Fields ----*/
+	
+	private final int width;
+	private final int height;
+	
+	// Opaque colors as 0xFFRRGGBB, or UNKNOWN.
+	private int[] canvas;
+	
+	private static final int UNKNOWN = 0;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	public InterframeOptimizer(int width, int height) {
+		if (width < 0 || height < 0)
+			throw new IllegalArgumentException();
+		this.width = width;
+		this.height = height;
+		canvas = new int[width * height];
+		Arrays.fill(canvas, UNKNOWN);
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/* 
+	 * Returns a smaller frame with the same visual result as the given one, or null if the frame can't be
+	 * changed losslessly (interlaced, extending beyond the screen, disposal to background, etc.) or nothing
+	 * would be saved. Either way, updates the canvas to the state that the next frame is drawn on.
+	 * If canAddTransparency is false, then masking is only done if the frame already has a transparent index.
+	 */
+	public Frame process(Frame frame, boolean canAddTransparency) {
+		Objects.requireNonNull(frame);
+		if (frame.pixels.length != frame.width * frame.height)
+			throw new IllegalArgumentException();
+		boolean inScreen = frame.left + frame.width <= width && frame.top + frame.height <= height;
+		Frame result = null;
+		if (!frame.interlaced && inScreen && (frame.disposal == 0 || frame.disposal == 1) && frame.pixels.length > 0)
+			result = crop(frame, canAddTransparency);
+		
+		// Update the canvas, which is independent of whether the frame was rewritten
+		int[] before = frame.disposal == 3 ? canvas.clone() : null;
+		int[] palette = frame.palette;
+		for (int y = 0; y < frame.height; y++) {
+			for (int x = 0; x < frame.width; x++) {
+				int cx = frame.left + x;
+				int cy = frame.top + y;
+				if (cx >= width || cy >= height)
+					continue;
+				int index = frame.pixels[y * frame.width + x] & 0xFF;
+				if (index != frame.transparentIndex)
+					canvas[cy * width + cx] = index < palette.length ? palette[index] : UNKNOWN;
+			}
+		}
+		switch (frame.disposal) {
+			case 0:  // Unspecified
+			case 1:  // Leave in place
+				break;
+			case 3:  // Restore to previous
+				canvas = before;
+				break;
+			default:  // Restore to background, or undefined
+				invalidate(frame.left, frame.top, frame.width, frame.height);
+				break;
+		}
+		return result;
+	}
+	
+	
+	// Marks the given rectangle of the canvas as unknown, for a frame that can't be interpreted.
+	public void invalidate(int left, int top, int w, int h) {
+		for (int y = top; y < Math.min(top + h, height); y++) {
+			for (int x = left; x < Math.min(left + w, width); x++)
+				canvas[y * width + x] = UNKNOWN;
+		}
+	}
+	
+	
+	private Frame crop(Frame frame, boolean canAddTransparency) {
+		// Find the bounding box of changed pixels, and which indexes they use
+		int[] palette = frame.palette;
+		boolean[] changed = new boolean[frame.pixels.length];
+		boolean[] indexUsed = new boolean[256];
+		int minX = frame.width, maxX = -1;
+		int minY = frame.height, maxY = -1;
+		for (int y = 0; y < frame.height; y++) {
+			for (int x = 0; x < frame.width; x++) {
+				int i = y * frame.width + x;
+				int index = frame.pixels[i] & 0xFF;
+				if (index == frame.transparentIndex)
+					continue;
+				int old = canvas[(frame.top + y) * width + frame.left + x];
+				if (old == UNKNOWN || index >= palette.length || palette[index] != old) {
+					changed[i] = true;
+					indexUsed[index] = true;
+					minX = Math.min(x, minX);
+					maxX = Math.max(x, maxX);
+					minY = Math.min(y, minY);
+					maxY = Math.max(y, maxY);
+				}
+			}
+		}
+		if (maxX == -1) {  // Nothing changed, but a frame needs at least one pixel, and any one of them is harmless
+			minX = maxX = 0;
+			minY = maxY = 0;
+		}
+		
+		// Choose the transparent index for unchanged pixels
+		int transIndex = frame.transparentIndex;
+		if (transIndex == -1 && canAddTransparency) {
+			for (int i = 0; i < Math.min(palette.length, 1 << frame.codeSize); i++) {
+				if (!indexUsed[i]) {
+					transIndex = i;
+					break;
+				}
+			}
+		}
+		
+		// Copy the box, masking unchanged pixels
+		int newWidth = maxX - minX + 1;
+		int newHeight = maxY - minY + 1;
+		byte[] newPixels = new byte[newWidth * newHeight];
+		boolean masked = false;
+		for (int y = 0; y < newHeight; y++) {
+			for (int x = 0; x < newWidth; x++) {
+				int i = (minY + y) * frame.width + minX + x;
+				byte b = frame.pixels[i];
+				if (!changed[i] && transIndex != -1 && (b & 0xFF) != transIndex) {
+					b = (byte)transIndex;
+					masked = true;
+				}
+				newPixels[y * newWidth + x] = b;
+			}
+		}
+		if (newWidth == frame.width && newHeight == frame.height && !masked)
+			return null;
+		return new Frame(frame.left + minX, frame.top + minY, newWidth, newHeight, palette,
+			masked ? transIndex : frame.transparentIndex, frame.disposal, false, frame.codeSize, newPixels);
+	}
+	
+	
+	
+	/*---- Helper class ----*/
+	
+	// An immutable description of one image block and its graphic control.
+	public static final class Frame {
+		
+		public final int left, top, width, height;
+		public final int[] palette;         // Colors as 0xFFRRGGBB, length at most 256
+		public final int transparentIndex;  // -1 if none
+		public final int disposal;          // Disposal method, in the range [0, 7]
+		public final boolean interlaced;
+		public final int codeSize;          // LZW minimum code size, in the range [2, 8]
+		public final byte[] pixels;         // Palette indexes in row-major order, length width * height
+		
+		
+		public Frame(int left, int top, int width, int height, int[] palette, int transparentIndex,
+				int disposal, boolean interlaced, int codeSize, byte[] pixels) {
+			this.left = left;
+			this.top = top;
+			this.width = width;
+			this.height = height;
+			this.palette = Objects.requireNonNull(palette);
+			this.transparentIndex = transparentIndex;
+			this.disposal = disposal;
+			this.interlaced = interlaced;
+			this.codeSize = codeSize;
+			this.pixels = Objects.requireNonNull(pixels);
+		}
+		
+	}
+	
+}
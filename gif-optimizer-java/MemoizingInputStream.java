@@ -63,6 +63,12 @@ final class MemoizingInputStream extends InputStream {
 	}
 	
 	
+	// Returns the number of bytes read since the last clearing.
+	public int getBufferLength() {
+		return buffer.size();
+	}
+	
+	
 	public byte[] getBuffer() {
 		return buffer.toByteArray();
 	}
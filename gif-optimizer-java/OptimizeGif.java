@@ -6,10 +6,19 @@
  * every block of pixel data, and writes a new output file.
  * 
  * Usage: java OptimizeGif [Options] Input.gif Output.gif
+ *    or: java OptimizeGif [Options] InputDir OutputDir
+ * 
+ * In the second form (batch mode), every .gif file in the input directory tree
+ * is optimized to the same relative path in the output directory, with several
+ * files processed in parallel in one JVM. A cache file named ".optimizegif-cache"
+ * in the output directory maps the SHA-256 hash of each input file (and the
+ * options) to the winning parameters and the hash of the output file. A file
+ * whose output still matches is skipped, and a file whose input is known but
+ * whose output is missing or changed is rerun with only the winning parameters.
  * 
  * Options:
- *   blocksize=int
- *     For example: blocksize=512
+ *   blocksize=int[,int...]
+ *     For example: blocksize=512 or blocksize=256,1024
  *     If this value is a positive integer, then every multiple of blocksize
  *       pixels (starting from the top left) will be a candidate boundary for
  *       clearing the LZW dictionary. Smaller values yield better optimization,
@@ -19,8 +28,8 @@
  *       dictionary (unless dictclear is specified).
  *     If the value is 0, then uncompressed LZW encoding is used, which will
  *       produce rather large files.
- *   dictclear=int or "dcc"
- *     For example: dictclear=4096
+ *   dictclear=int or "dcc"[,...]
+ *     For example: dictclear=4096 or dictclear=dcc,4096
  *     Valid range: [7, 4096]. Default is "dcc".
  *     If this value is "dcc", then deferred clear codes are used - in other
  *       words the dictionary will never be cleared because of reaching a certain
@@ -33,13 +42,45 @@
  *       The value 4096 should be sufficient to work around decoder bugs; otherwise
  *       try 4095 or 4094. There is no need to use lower values (which hurts
  *       compression further), but this encoder easily supports all possible values.
+ *   If several values are given for blocksize and/or dictclear, then every
+ *     combination is tried in parallel on each file, and the smallest output
+ *     is kept. Only list dictclear values that your target decoders support.
+ *   maxblocks=int
+ *     For example: maxblocks=64
+ *     Default is 0, which means no limit. If this value is positive, then the
+ *       optimizer only considers encoding runs of up to this many blocks between
+ *       dictionary clears. This bounds the computation time to be linear in the
+ *       number of pixels (instead of quadratic), but may yield a slightly larger
+ *       file if a longer run would have compressed better.
+ *   threads=int
+ *     For example: threads=8
+ *     Default is 1, or the number of processors in batch mode or when several
+ *       parameter combinations are tried. For a single combination on a single
+ *       file, if this value is greater than 1, then the image blocks
+ *       (frames) are decompressed, optimized, and recompressed concurrently on
+ *       this many threads, while the file is still read and written in order.
+ *       At most a few frames per thread are held in memory at once.
+ *       Progress is not printed in this mode. Otherwise the value is the number
+ *       of files and parameter combinations that are processed in parallel.
+ *     Only a single combination on a single file with threads=1 spreads the
+ *       trial encodings of each frame over all processors. In every other mode,
+ *       each task does its trial encodings on its own thread, so no more than
+ *       this many threads do optimization work at once.
+ *   interframe=bool
+ *     For example: interframe=true
+ *     Default is false. If true, then each frame of an animation is compared
+ *       against the canvas composited from the previous frames, cropped to the
+ *       bounding box of pixels that change, and has its unchanged pixels set to
+ *       the transparent color (adding one if a palette index is free). This is
+ *       lossless, and only applies to frames with disposal method 0 or 1 that
+ *       are not interlaced. A rewritten frame is only kept if it is smaller.
  * 
  * Notes:
  * - All GIF files are supported, including animated ones, ones
  *   with multiple data blocks, ones with over 256 colors, etc.
- * - This program only optimizes the LZW encoding. This does not
- *   change the block headers, palettes, or raw pixel data.
- *   Furthermore, no blocks are rearranged.
+ * - This program only optimizes the LZW encoding. Unless interframe=true
+ *   is used, this does not change the block headers, palettes, or raw pixel
+ *   data. Furthermore, no blocks are rearranged.
  * - Any data following the trailer is discarded.
  *   (Compliant GIF decoders will ignore this data anyway).
  * - The output file path must be different from the input file
@@ -53,13 +94,36 @@
  * https://www.nayuki.io/page/gif-optimizer-java
  */
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.DataFormatException;
 
 
@@ -68,7 +132,8 @@ public final class OptimizeGif {
 	// Main program wrapper for conveniently handling error messages.
 	public static void main(String[] args) throws IOException, DataFormatException {
 		if (args.length == 0) {
-			System.err.println("Usage: java OptimizeGif Input.gif Output.gif");
+			System.err.println("Usage: java OptimizeGif [Options] Input.gif Output.gif");
+			System.err.println("   or: java OptimizeGif [Options] InputDir OutputDir");
 			System.exit(1);
 		}
 		String errmsg = submain(args);
@@ -87,14 +152,20 @@ public final class OptimizeGif {
 		// Get file paths
 		File inFile  = new File(args[args.length - 2]);
 		File outFile = new File(args[args.length - 1]);
-		if (!inFile.isFile())
+		boolean batch = inFile.isDirectory();
+		if (!batch && !inFile.isFile())
 			return "Input file does not exist: " + inFile.getPath();
 		if (outFile.getCanonicalFile().equals(inFile.getCanonicalFile()))
 			return "Output file is the same as input file";
+		if (batch && outFile.getCanonicalFile().toPath().startsWith(inFile.getCanonicalFile().toPath()))
+			return "Output directory is inside input directory";
 		
 		// Parse options
-		int blockSize = -1;
-		int dictClear = -2;
+		int[] blockSizes = null;
+		int[] dictClears = null;
+		int maxRangeBlocks = -1;
+		int numThreads = -1;
+		int interframe = -1;
 		for (int i = 0; i < args.length - 2; i++) {
 			String opt = args[i];
 			String[] parts = opt.split("=", 2);
@@ -105,47 +176,233 @@ public final class OptimizeGif {
 			
 			switch (key) {
 				case "blocksize":
-					if (blockSize != -1)
+					if (blockSizes != null)
 						return "Duplicate block size option";
-					blockSize = Integer.parseInt(value);
-					if (blockSize < 0)
-						return "Invalid block size value";
+					String[] bsVals = value.split(",", -1);
+					blockSizes = new int[bsVals.length];
+					for (int j = 0; j < bsVals.length; j++) {
+						blockSizes[j] = Integer.parseInt(bsVals[j]);
+						if (blockSizes[j] < 0)
+							return "Invalid block size value";
+					}
 					break;
 				case "dictclear":
-					if (dictClear != -2)
+					if (dictClears != null)
 						return "Duplicate dictionary clear option";
-					if (value.equals("dcc"))
-						dictClear = -1;
-					else {
-						dictClear = Integer.parseInt(opt.substring(10));
-						if (dictClear < 0)
-							return "Invalid dictionary clear value";
+					String[] dcVals = value.split(",", -1);
+					dictClears = new int[dcVals.length];
+					for (int j = 0; j < dcVals.length; j++) {
+						if (dcVals[j].equals("dcc"))
+							dictClears[j] = -1;
+						else {
+							dictClears[j] = Integer.parseInt(dcVals[j]);
+							if (dictClears[j] < 0)
+								return "Invalid dictionary clear value";
+						}
 					}
 					break;
+				case "maxblocks":
+					if (maxRangeBlocks != -1)
+						return "Duplicate maximum blocks option";
+					maxRangeBlocks = Integer.parseInt(value);
+					if (maxRangeBlocks < 0)
+						return "Invalid maximum blocks value";
+					break;
+				case "threads":
+					if (numThreads != -1)
+						return "Duplicate threads option";
+					numThreads = Integer.parseInt(value);
+					if (numThreads < 1)
+						return "Invalid threads value";
+					break;
+				case "interframe":
+					if (interframe != -1)
+						return "Duplicate interframe option";
+					if (value.equals("true"))
+						interframe = 1;
+					else if (value.equals("false"))
+						interframe = 0;
+					else
+						return "Invalid interframe value";
+					break;
 				default:
 					return "Invalid option: " + opt;
 			}
 		}
 		
 		// Set defaults
-		if (blockSize == -1)
-			blockSize = 1024;
-		if (dictClear == -2)
-			dictClear = -1;
+		if (blockSizes == null)
+			blockSizes = new int[]{1024};
+		if (dictClears == null)
+			dictClears = new int[]{-1};
+		if (maxRangeBlocks == -1)
+			maxRangeBlocks = 0;
+		boolean single = !batch && blockSizes.length == 1 && dictClears.length == 1;
+		if (numThreads == -1)
+			numThreads = single ? 1 : Runtime.getRuntime().availableProcessors();
+		if (interframe == -1)
+			interframe = 0;
 		
 		// Run optimizer
-		optimizeGif(inFile, blockSize, dictClear, outFile);
+		if (single)
+			optimizeGif(inFile, blockSizes[0], dictClears[0], maxRangeBlocks, numThreads, interframe == 1, outFile);
+		else if (!batch)
+			optimizeFiles(Collections.singletonList(inFile.toPath()), Collections.singletonList(outFile.toPath()),
+				blockSizes, dictClears, maxRangeBlocks, interframe == 1, null, numThreads);
+		else {
+			Path inDir = inFile.toPath();
+			Path outDir = outFile.toPath();
+			List<Path> inFiles;
+			try (Stream<Path> paths = Files.walk(inDir)) {
+				inFiles = paths.filter(p -> Files.isRegularFile(p) && p.getFileName().toString().toLowerCase().endsWith(".gif"))
+					.sorted().collect(Collectors.toList());
+			}
+			List<Path> outFiles = new ArrayList<>();
+			for (Path p : inFiles)
+				outFiles.add(outDir.resolve(inDir.relativize(p).toString()));
+			Files.createDirectories(outDir);
+			ResultCache cache = new ResultCache(outDir.resolve(".optimizegif-cache"));
+			try {
+				optimizeFiles(inFiles, outFiles, blockSizes, dictClears, maxRangeBlocks, interframe == 1, cache, numThreads);
+			} finally {
+				cache.save();
+			}
+		}
 		return null;
 	}
 	
 	
+	// Optimizes each input file to the corresponding output file, trying every combination of the given parameters
+	// and keeping the smallest output. Each (file, combination) pair is a task on a pool of the given number of threads,
+	// and a few files per thread are in flight at once. If the cache is not null, then files whose output still matches
+	// the cache are skipped, and files whose input matches are only run with the cached winning parameters.
+	// Errors in one file are printed, and don't stop the others.
+	private static void optimizeFiles(List<Path> inFiles, List<Path> outFiles, int[] blockSizes, int[] dictClears,
+			int maxRangeBlocks, boolean interframe, ResultCache cache, int numThreads) throws IOException {
+		String optionsKey = "blocksize=" + Arrays.stream(blockSizes).mapToObj(Integer::toString).collect(Collectors.joining(","))
+			+ ";dictclear=" + Arrays.stream(dictClears).mapToObj(OptimizeGif::formatDictClear).collect(Collectors.joining(","))
+			+ ";maxblocks=" + maxRangeBlocks + ";interframe=" + interframe;
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			Deque<PendingFile> pending = new ArrayDeque<>();
+			for (int i = 0; i < inFiles.size(); i++) {
+				Path inPath = inFiles.get(i);
+				Path outPath = outFiles.get(i);
+				byte[] input;
+				try {
+					input = Files.readAllBytes(inPath);
+				} catch (IOException e) {
+					System.out.println("Error: " + inPath + ": " + e);
+					continue;
+				}
+				
+				// Consult the cache
+				String key = sha256Hex(input) + " " + optionsKey;
+				ResultCache.Entry cached = cache != null ? cache.get(key) : null;
+				if (cached != null && outputMatches(outPath, cached.outputHash)) {
+					System.out.println("Unchanged: " + inPath);
+					continue;
+				}
+				int[] bs = cached != null ? new int[]{cached.blockSize} : blockSizes;
+				int[] dc = cached != null ? new int[]{cached.dictClear} : dictClears;
+				
+				// Submit one task per parameter combination
+				PendingFile pf = new PendingFile(inPath, outPath, key, input.length);
+				for (int blockSize : bs) {
+					for (int dictClear : dc)
+						pf.results.add(executor.submit(() -> new Result(optimizeGif(input, blockSize, dictClear, maxRangeBlocks, interframe), blockSize, dictClear)));
+				}
+				pending.addLast(pf);
+				while (pending.size() > numThreads * 2)
+					finishFile(pending.removeFirst(), cache);
+			}
+			while (!pending.isEmpty())
+				finishFile(pending.removeFirst(), cache);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	
+	// Waits for all the results of the given file, and writes the smallest one.
+	private static void finishFile(PendingFile pf, ResultCache cache) throws IOException {
+		Result best = null;
+		try {
+			for (Future<Result> fut : pf.results) {  // Ties go to the earlier combination
+				Result res = fut.get();
+				if (best == null || res.data.length < best.data.length)
+					best = res;
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			System.out.println("Error: " + pf.inPath + ": " + e.getCause());
+			return;
+		}
+		try {
+			Path parent = pf.outPath.toAbsolutePath().getParent();
+			if (parent != null)
+				Files.createDirectories(parent);
+			Files.write(pf.outPath, best.data);
+		} catch (IOException e) {
+			System.out.println("Error: " + pf.outPath + ": " + e);
+			return;
+		}
+		if (cache != null)
+			cache.put(pf.cacheKey, new ResultCache.Entry(best.blockSize, best.dictClear, sha256Hex(best.data)));
+		System.out.printf("%s: %d -> %d bytes (blocksize=%d dictclear=%s)%n", pf.inPath,
+			pf.inputLength, best.data.length, best.blockSize, formatDictClear(best.dictClear));
+	}
+	
+	
+	// Tells whether the given output file exists and has the given hash. An unreadable file counts as a mismatch, so it gets rewritten.
+	private static boolean outputMatches(Path outPath, String hash) {
+		if (!Files.isRegularFile(outPath))
+			return false;
+		try {
+			return sha256Hex(Files.readAllBytes(outPath)).equals(hash);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	
+	// Optimizes the given whole GIF file data in memory with the given parameters, without printing progress.
+	private static byte[] optimizeGif(byte[] input, int blockSize, int dictClear, int maxRangeBlocks, boolean interframe) throws IOException, DataFormatException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (MemoizingInputStream in = new MemoizingInputStream(new ByteArrayInputStream(input));
+				OrderedWriter writer = new OrderedWriter(out, 1, false)) {
+			optimizeGif(in, blockSize, dictClear, maxRangeBlocks, interframe, false, writer);
+		}
+		return out.toByteArray();
+	}
+	
+	
+	private static String formatDictClear(int dictClear) {
+		return dictClear == -1 ? "dcc" : Integer.toString(dictClear);
+	}
+	
+	
+	private static String sha256Hex(byte[] data) {
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(data))
+				sb.append(String.format("%02x", b & 0xFF));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	
 	// Reads the given input file, optimizes just the LZW blocks according to the block size, and writes to the given output file.
 	// The output file path *must* point to a different file than the input file, otherwise the data will be corrupted.
-	private static void optimizeGif(File inFile, int blockSize, int dictClear, File outFile) throws IOException, DataFormatException {
+	private static void optimizeGif(File inFile, int blockSize, int dictClear, int maxRangeBlocks, int numThreads, boolean interframe, File outFile) throws IOException, DataFormatException {
 		try (MemoizingInputStream in = new MemoizingInputStream(new FileInputStream(inFile))) {
 			Throwable error = null;
-			try (OutputStream out = new FileOutputStream(outFile)) {
-				optimizeGif(in, blockSize, dictClear, out);
+			try (OutputStream out = new FileOutputStream(outFile);
+					OrderedWriter writer = new OrderedWriter(out, numThreads, true)) {
+				optimizeGif(in, blockSize, dictClear, maxRangeBlocks, interframe, numThreads <= 1, writer);
 			} catch (DataFormatException|IOException e) {
 				error = e;
 			}
@@ -157,7 +414,11 @@ public final class OptimizeGif {
 	}
 	
 	
-	private static void optimizeGif(MemoizingInputStream in, int blockSize, int dictClear, OutputStream out) throws IOException, DataFormatException {
+	// Parses the block structure sequentially, and hands each image block to the writer for recompression,
+	// which happens either immediately or concurrently with parsing the following blocks. In interframe mode,
+	// frames are also decoded and cropped here in order, because each one depends on the canvas before it.
+	// The trial encodings within a frame only run in parallel if parallelTrials is true.
+	private static void optimizeGif(MemoizingInputStream in, int blockSize, int dictClear, int maxRangeBlocks, boolean interframe, boolean parallelTrials, OrderedWriter out) throws IOException, DataFormatException {
 		// Header
 		int version;
 		{
@@ -175,14 +436,20 @@ public final class OptimizeGif {
 		}
 		
 		// Logical screen descriptor
+		byte[] globalColorTable = new byte[0];
+		InterframeOptimizer canvas = null;
 		{
 			byte[] screenDesc = new byte[7];
 			in.readFully(screenDesc);
 			if ((screenDesc[4] & 0x80) != 0) {
 				int gctSize = (screenDesc[4] & 0x7) + 1;
-				in.readFully(new byte[(1 << gctSize) * 3]);  // Skip global color table
+				globalColorTable = new byte[(1 << gctSize) * 3];
+				in.readFully(globalColorTable);
 			}
+			if (interframe)
+				canvas = new InterframeOptimizer(getUint16(screenDesc, 0), getUint16(screenDesc, 2));
 		}
+		int gceStart = -1;  // Offset of the graphic control extension for the next image in the input buffer, or -1
 		
 		// Process top-level blocks
 		while (true) {
@@ -194,9 +461,12 @@ public final class OptimizeGif {
 			else if (b == 0x21) {  // Extension introducer
 				if (version == 87)
 					throw new DataFormatException("Extension block not supported in GIF87a");
+				int extStart = in.getBufferLength() - 1;
 				b = in.read();  // Block label
 				if (b == -1)
 					throw new EOFException();
+				if (b == 0xF9)
+					gceStart = extStart;
 				try (SubblockInputStream bin = new SubblockInputStream(in)) {
 					while (bin.read() != -1);  // Skip all data
 					in = (MemoizingInputStream)bin.detach();
@@ -204,20 +474,84 @@ public final class OptimizeGif {
 				
 			} else if (b == 0x2C) {
 				// Image descriptor
+				int imageStart = in.getBufferLength() - 1;
 				byte[] imageDesc = new byte[9];
 				in.readFully(imageDesc);
+				byte[] colorTable = globalColorTable;
 				if ((imageDesc[8] & 0x80) != 0) {
 					int lctSize = (imageDesc[8] & 0x7) + 1;
-					in.readFully(new byte[(1 << lctSize) * 3]);  // Skip local color table
+					colorTable = new byte[(1 << lctSize) * 3];
+					in.readFully(colorTable);  // Local color table
 				}
 				int codeSize = in.read();
 				if (codeSize == -1)
 					throw new EOFException();
 				if (codeSize < 2 || codeSize > 8)
 					throw new DataFormatException("Invalid number of code bits");
-				out.write(in.getBuffer());
+				byte[] header = in.getBuffer();
 				in.clearBuffer();
-				recompressData(in, blockSize, dictClear, codeSize, out);
+				
+				// Read the LZW data subblocks without decoding them
+				try (SubblockInputStream blockIn = new SubblockInputStream(in)) {
+					while (blockIn.read() != -1);
+					in = (MemoizingInputStream)blockIn.detach();
+				}
+				byte[] oldComp = in.getBuffer();
+				in.clearBuffer();
+				boolean print = out.printsProgress();
+				if (canvas == null) {
+					out.write(header);
+					int numPixels = getUint16(imageDesc, 4) * getUint16(imageDesc, 6);
+					out.submit(() -> recompressData(oldComp, numPixels, blockSize, dictClear, maxRangeBlocks, parallelTrials, codeSize, print));
+					gceStart = -1;
+					continue;
+				}
+				
+				// Read the frame's graphic control, and check whether it can be rewritten
+				int disposal = 0;
+				int transIndex = -1;
+				boolean canAddTransparency = version == 89;
+				if (gceStart != -1) {
+					if (header[gceStart + 2] == 4) {  // Block size
+						disposal = (header[gceStart + 3] >>> 2) & 7;
+						if ((header[gceStart + 3] & 1) != 0)
+							transIndex = header[gceStart + 6] & 0xFF;
+					} else {
+						disposal = 7;  // Malformed, so don't rewrite this frame
+						canAddTransparency = false;
+					}
+				}
+				int left = getUint16(imageDesc, 0);
+				int top = getUint16(imageDesc, 2);
+				int width = getUint16(imageDesc, 4);
+				int height = getUint16(imageDesc, 6);
+				boolean interlaced = (imageDesc[8] & 0x40) != 0;
+				
+				// Decode and crop now, because the canvas must be updated in frame order
+				byte[] pixels = decompressData(oldComp, width * height, codeSize);
+				InterframeOptimizer.Frame newFrame = null;
+				if (pixels.length == width * height) {
+					int[] palette = new int[colorTable.length / 3];
+					for (int i = 0; i < palette.length; i++)
+						palette[i] = 0xFF000000 | (colorTable[i * 3] & 0xFF) << 16 | (colorTable[i * 3 + 1] & 0xFF) << 8 | (colorTable[i * 3 + 2] & 0xFF);
+					newFrame = canvas.process(new InterframeOptimizer.Frame(left, top, width, height,
+						palette, transIndex, disposal, interlaced, codeSize, pixels), canAddTransparency);
+				} else
+					canvas.invalidate(left, top, width, height);
+				byte[] newHeader = newFrame != null ? rewriteHeader(header, gceStart, imageStart, newFrame) : null;
+				byte[] newPixels = newFrame != null ? newFrame.pixels : null;
+				gceStart = -1;
+				
+				// Compress both versions of the frame, and keep the shorter one
+				out.submit(() -> {
+					byte[] result = concat(header, chooseShorter(compressData(pixels, blockSize, dictClear, maxRangeBlocks, parallelTrials, codeSize, print), oldComp));
+					if (newHeader != null) {
+						byte[] alt = concat(newHeader, compressData(newPixels, blockSize, dictClear, maxRangeBlocks, parallelTrials, codeSize, print));
+						if (alt.length < result.length)
+							result = alt;
+					}
+					return result;
+				});
 				
 			} else
 				throw new DataFormatException("Unrecognized data block");
@@ -225,40 +559,285 @@ public final class OptimizeGif {
 		
 		// Copy remainder of data that was read
 		out.write(in.getBuffer());
+		out.finish();
 	}
 	
 	
-	// Read and decompress the LZW data fully, perform optimization and compression, and write out the new version.
-	private static void recompressData(MemoizingInputStream in, int blockSize, int dictClear, int codeSize, OutputStream out) throws IOException {
-		// Read and decompress
-		byte[] pixels;
-		try (SubblockInputStream blockIn = new SubblockInputStream(in)) {
-			pixels = GifLzwDecompressor.decode(new BitInputStream(blockIn), codeSize);
-			while (blockIn.read() != -1);  // Discard rest of subblock data after the LZW Stop code
-			in = (MemoizingInputStream)blockIn.detach();
-		}
-		
-		// Compress and hold
+	// Decompresses the given LZW data (in subblocks, including the terminator), performs optimization
+	// and compression, and returns either the new version or the given data, whichever is shorter.
+	private static byte[] recompressData(byte[] oldComp, int numPixels, int blockSize, int dictClear, int maxRangeBlocks, boolean parallelTrials, int codeSize, boolean print) throws IOException {
+		byte[] pixels = decompressData(oldComp, numPixels, codeSize);
+		return chooseShorter(compressData(pixels, blockSize, dictClear, maxRangeBlocks, parallelTrials, codeSize, print), oldComp);
+	}
+	
+	
+	// Decompresses the given LZW data, which is in subblocks including the terminator. The number of pixels is only a size hint.
+	private static byte[] decompressData(byte[] comp, int numPixels, int codeSize) throws IOException {
+		return GifLzwDecompressor.decodeSubblocks(comp, codeSize, numPixels);
+	}
+	
+	
+	// Compresses the given pixels according to the options, and returns LZW data in subblocks including the terminator.
+	private static byte[] compressData(byte[] pixels, int blockSize, int dictClear, int maxRangeBlocks, boolean parallelTrials, int codeSize, boolean print) throws IOException {
 		ByteArrayOutputStream bufOut = new ByteArrayOutputStream();
 		SubblockOutputStream blockOut = new SubblockOutputStream(bufOut);
 		ByteBitOutputStream bitOut = new ByteBitOutputStream(blockOut);
 		if (blockSize > 0)
-			GifLzwCompressor.encodeOptimized(pixels, codeSize, blockSize, dictClear, bitOut, true);
+			GifLzwCompressor.encodeOptimized(pixels, codeSize, blockSize, dictClear, maxRangeBlocks, parallelTrials, bitOut, print);
 		else if (blockSize == 0)
 			GifLzwCompressor.encodeUncompressed(pixels, codeSize, bitOut);
 		else
 			throw new AssertionError();
 		blockOut = (SubblockOutputStream)bitOut.detach();
 		blockOut.detach();
+		return bufOut.toByteArray();
+	}
+	
+	
+	// Returns a copy of the given bytes preceding an image (extensions and image descriptor, local color table,
+	// and code size), with the descriptor and graphic control changed to describe the given rewritten frame.
+	private static byte[] rewriteHeader(byte[] header, int gceStart, int imageStart, InterframeOptimizer.Frame frame) {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		byte[] prefix = Arrays.copyOf(header, imageStart);
+		int trans = frame.transparentIndex;
+		if (gceStart != -1) {
+			prefix[gceStart + 3] = (byte)((prefix[gceStart + 3] & ~1) | (trans != -1 ? 1 : 0));
+			if (trans != -1)
+				prefix[gceStart + 6] = (byte)trans;
+			result.write(prefix, 0, prefix.length);
+		} else {
+			result.write(prefix, 0, prefix.length);
+			if (trans != -1)  // Add a graphic control extension with no delay and unspecified disposal
+				result.write(new byte[]{0x21, (byte)0xF9, 4, 1, 0, 0, (byte)trans, 0}, 0, 8);
+		}
+		byte[] desc = Arrays.copyOfRange(header, imageStart, header.length);
+		setUint16(desc, 1, frame.left);
+		setUint16(desc, 3, frame.top);
+		setUint16(desc, 5, frame.width);
+		setUint16(desc, 7, frame.height);
+		desc[9] &= ~0x40;  // Not interlaced
+		result.write(desc, 0, desc.length);
+		return result.toByteArray();
+	}
+	
+	
+	private static byte[] chooseShorter(byte[] x, byte[] y) {
+		return x.length < y.length ? x : y;
+	}
+	
+	
+	private static byte[] concat(byte[] x, byte[] y) {
+		byte[] result = Arrays.copyOf(x, x.length + y.length);
+		System.arraycopy(y, 0, result, x.length, y.length);
+		return result;
+	}
+	
+	
+	private static int getUint16(byte[] b, int off) {
+		return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8;
+	}
+	
+	
+	private static void setUint16(byte[] b, int off, int val) {
+		b[off] = (byte)val;
+		b[off + 1] = (byte)(val >>> 8);
+	}
+	
+	
+	
+	/*---- Helper classes ----*/
+	
+	// Writes chunks of data in order, where some chunks are computed by tasks. With more than one thread,
+	// the tasks run concurrently on a pool, and finished results wait in a bounded reorder buffer until all
+	// earlier chunks are written. The producer blocks when the buffer is full, which bounds the memory usage.
+	private static final class OrderedWriter implements AutoCloseable {
+		
+		private final OutputStream output;
+		private final ExecutorService executor;  // Null if sequential
+		private final int maxPending;
+		private final boolean print;
+		private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+		
+		
+		public OrderedWriter(OutputStream out, int numThreads, boolean print) {
+			output = out;
+			this.print = print && numThreads <= 1;
+			if (numThreads > 1) {
+				executor = Executors.newFixedThreadPool(numThreads);
+				maxPending = numThreads * 4;
+			} else {
+				executor = null;
+				maxPending = 0;
+			}
+		}
+		
+		
+		// Tells whether tasks may print progress, which is only when they run one at a time and printing was requested.
+		public boolean printsProgress() {
+			return print;
+		}
+		
+		
+		public void write(byte[] b) throws IOException {
+			if (pending.isEmpty())
+				output.write(b);
+			else
+				pending.addLast(CompletableFuture.completedFuture(b));
+		}
+		
+		
+		public void submit(Callable<byte[]> task) throws IOException {
+			if (executor == null) {  // Run the task now; nothing is ever pending
+				try {
+					output.write(task.call());
+				} catch (IOException|RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException(e);
+				}
+			} else {
+				pending.addLast(executor.submit(task));
+				while (pending.size() > maxPending)
+					writeHead();
+			}
+		}
+		
+		
+		// Waits for all tasks and writes their results. Must be called after the last chunk.
+		public void finish() throws IOException {
+			while (!pending.isEmpty())
+				writeHead();
+		}
+		
+		
+		private void writeHead() throws IOException {
+			try {
+				output.write(pending.removeFirst().get());
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+					throw (IOException)cause;
+				else if (cause instanceof RuntimeException)
+					throw (RuntimeException)cause;
+				else if (cause instanceof Error)
+					throw (Error)cause;
+				else
+					throw new IOException(cause);
+			}
+		}
+		
+		
+		// Stops the thread pool, abandoning any unfinished tasks.
+		public void close() {
+			if (executor != null)
+				executor.shutdownNow();
+		}
+		
+	}
+	
+	
+	
+	private static final class PendingFile {
+		
+		public final Path inPath;
+		public final Path outPath;
+		public final String cacheKey;
+		public final int inputLength;
+		public final List<Future<Result>> results = new ArrayList<>();
+		
+		
+		public PendingFile(Path inPath, Path outPath, String cacheKey, int inputLength) {
+			this.inPath = inPath;
+			this.outPath = outPath;
+			this.cacheKey = cacheKey;
+			this.inputLength = inputLength;
+		}
+		
+	}
+	
+	
+	
+	private static final class Result {
+		
+		public final byte[] data;
+		public final int blockSize;
+		public final int dictClear;
+		
+		
+		public Result(byte[] data, int blockSize, int dictClear) {
+			this.data = data;
+			this.blockSize = blockSize;
+			this.dictClear = dictClear;
+		}
+		
+	}
+	
+	
+	
+	// A thread-safe map from (input hash, options) to the winning parameters and output hash,
+	// stored as a text file with one entry per line.
+	private static final class ResultCache {
+		
+		private final Path file;
+		private final Map<String,Entry> entries = Collections.synchronizedMap(new TreeMap<>());
+		
+		
+		// Loads the given cache file, if it exists. Malformed lines are ignored.
+		public ResultCache(Path file) throws IOException {
+			this.file = file;
+			if (!Files.isRegularFile(file))
+				return;
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+				String[] parts = line.split(" ");
+				if (parts.length != 5)
+					continue;
+				try {
+					entries.put(parts[0] + " " + parts[1], new Entry(Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), parts[4]));
+				} catch (NumberFormatException e) {}
+			}
+		}
+		
+		
+		public Entry get(String key) {
+			return entries.get(key);
+		}
+		
+		
+		public void put(String key, Entry val) {
+			entries.put(key, val);
+		}
+		
+		
+		public void save() throws IOException {
+			List<String> lines = new ArrayList<>();
+			synchronized (entries) {
+				for (Map.Entry<String,Entry> e : entries.entrySet()) {
+					Entry val = e.getValue();
+					lines.add(e.getKey() + " " + val.blockSize + " " + val.dictClear + " " + val.outputHash);
+				}
+			}
+			Files.write(file, lines, StandardCharsets.UTF_8);
+		}
+		
+		
+		
+		public static final class Entry {
+			
+			public final int blockSize;
+			public final int dictClear;
+			public final String outputHash;
+			
+			
+			public Entry(int blockSize, int dictClear, String outputHash) {
+				this.blockSize = blockSize;
+				this.dictClear = dictClear;
+				this.outputHash = outputHash;
+			}
+			
+		}
 		
-		// Choose which version to write
-		byte[] oldComp = in.getBuffer();
-		byte[] newComp = bufOut.toByteArray();
-		if (newComp.length < oldComp.length)
-			out.write(newComp);
-		else
-			out.write(oldComp);
-		in.clearBuffer();
 	}
 	
 }
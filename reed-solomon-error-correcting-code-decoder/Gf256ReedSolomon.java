@@ -0,0 +1,554 @@
+/* 
+ * Reed-Solomon error-correcting code decoder (Java)
+ * 
+ * Copyright (c) 2017 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/reed-solomon-error-correcting-code-decoder
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Performs Reed-Solomon encoding and decoding over GF(2<sup>8</sup>) directly on byte arrays.
+ * It produces exactly the same codewords as {@code ReedSolomon<Integer>} with a {@link BinaryField}
+ * of the same modulus and the same generator, but does arithmetic with logarithm and product tables
+ * instead of boxed values, and works in place on a region of a caller's array.
+ * <p>A codeword is laid out like in {@link ReedSolomon}: the {@code eccLen} error correction
+ * bytes come first, followed by the {@code messageLen} message bytes.</p>
+ * <p>This class is immutable and thread-safe, but the argument arrays passed into methods are not thread-safe.</p>
+ */
+public final class Gf256ReedSolomon {
+	
+	/*---- Fields ----*/
+	
+	/** The number of bytes in each message. Always at least 1. */
+	public final int messageLen;
+	
+	/** The number of error correction bytes to expand the message by. Always at least 1. */
+	public final int eccLen;
+	
+	/** The number of bytes in each codeword, equal to messageLen + eccLen. Always in the range [2, 255]. */
+	public final int codewordLen;
+	
+	
+	// expTable[i] = generator^i for 0 <= i < 510, so that the sum of two logarithms needs no reduction.
+	private final byte[] expTable;
+	
+	// logTable[x] = i such that generator^i = x, for 1 <= x < 256. logTable[0] is unused.
+	private final int[] logTable;
+	
+	// productTable[x * 256 + y] = x * y in the field, for the encoder's inner loop.
+	private final byte[] productTable;
+	
+	// Coefficients of the generator polynomial in little endian, without the leading 1 (like in ReedSolomon).
+	private final byte[] genPoly;
+	
+	// Number of consecutive codewords per task in decodeBatch().
+	private static final int BATCH_SIZE = 256;
+	
+	
+	
+	/*---- Constructor ----*/
+	
+	/**
+	 * Constructs a Reed-Solomon encoder-decoder over the binary field with the specified
+	 * modulus of degree 8, using the specified generator and lengths.
+	 * @param mod the field modulus, an irreducible polynomial of degree 8 such as 0x11D
+	 * @param gen a generator of the field's multiplicative group, such as 0x02
+	 * @param msgLen the length of messages, which must be positive
+	 * @param eccLen the number of bytes to expand each message by, which must be positive
+	 * @throws IllegalArgumentException if the modulus doesn't have degree 8, the generator doesn't
+	 * generate all 255 non-zero elements, msgLen &le; 0, eccLen &le; 0, or msgLen + eccLen > 255
+	 */
+	public Gf256ReedSolomon(int mod, int gen, int msgLen, int eccLen) {
+		// Check arguments
+		if (mod >>> 8 != 1)
+			throw new IllegalArgumentException("Modulus must have degree 8");
+		if (gen <= 0 || gen >= 256)
+			throw new IllegalArgumentException("Generator must be a non-zero field element");
+		if (msgLen <= 0 || eccLen <= 0 || msgLen + eccLen > 255)
+			throw new IllegalArgumentException("Invalid message or ECC length");
+		
+		// Build the logarithm tables by repeated multiplication
+		expTable = new byte[510];
+		logTable = new int[256];
+		int x = 1;
+		for (int i = 0; i < 255; i++) {
+			if (x == 1 && i > 0)
+				throw new IllegalArgumentException("Generator must generate the whole field");
+			expTable[i] = (byte)x;
+			expTable[i + 255] = (byte)x;
+			logTable[x] = i;
+			x = multiplySlow(x, gen, mod);
+		}
+		if (x != 1)
+			throw new IllegalArgumentException("Modulus is not irreducible");
+		
+		productTable = new byte[256 * 256];
+		for (int i = 1; i < 256; i++) {
+			for (int j = 1; j < 256; j++)
+				productTable[i << 8 | j] = expTable[logTable[i] + logTable[j]];
+		}
+		
+		this.messageLen = msgLen;
+		this.eccLen = eccLen;
+		this.codewordLen = msgLen + eccLen;
+		genPoly = makeGeneratorPolynomial();
+	}
+	
+	
+	// Computes genPoly(x) = (x - gen^0) * (x - gen^1) * ... * (x - gen^(eccLen-1)) like ReedSolomon does.
+	// Done once per object, since it doesn't depend on the message.
+	private byte[] makeGeneratorPolynomial() {
+		byte[] result = new byte[eccLen];
+		result[0] = 1;
+		for (int i = 0; i < eccLen; i++) {
+			int genPow = expTable[i] & 0xFF;
+			for (int j = eccLen - 1; j >= 0; j--) {
+				int val = multiply(genPow, result[j] & 0xFF);
+				if (j >= 1)
+					val ^= result[j - 1] & 0xFF;
+				result[j] = (byte)val;
+			}
+		}
+		return result;
+	}
+	
+	
+	
+	/*---- Encoder methods ----*/
+	
+	/**
+	 * Returns a new array representing the codeword produced by encoding the specified message.
+	 * @param message the message to encode, whose length must equal {@code this.messageLen}
+	 * @return a new array of length {@code this.codewordLen} representing the codeword
+	 * @throws NullPointerException if the message is {@code null}
+	 * @throws IllegalArgumentException if the message array has the wrong length
+	 */
+	public byte[] encode(byte[] message) {
+		Objects.requireNonNull(message);
+		if (message.length != messageLen)
+			throw new IllegalArgumentException("Invalid message length");
+		byte[] result = new byte[codewordLen];
+		System.arraycopy(message, 0, result, eccLen, messageLen);
+		encode(result, 0);
+		return result;
+	}
+	
+	
+	/**
+	 * Computes the error correction bytes of the codeword that starts at the specified offset,
+	 * whose message bytes are already in place, and stores them in front of the message.
+	 * Nothing is allocated.
+	 * @param codeword the array containing the codeword region (not {@code null})
+	 * @param off the index of the codeword's first byte
+	 * @throws NullPointerException if the array is {@code null}
+	 * @throws IndexOutOfBoundsException if the codeword region extends outside the array
+	 */
+	public void encode(byte[] codeword, int off) {
+		Objects.checkFromIndexSize(off, codewordLen, codeword.length);
+		byte[] gen = genPoly;
+		byte[] prod = productTable;
+		int last = off + eccLen - 1;
+		Arrays.fill(codeword, off, off + eccLen, (byte)0);
+		
+		// Polynomial division as in ReedSolomon.encode(), with the shift and the
+		// multiply-subtract merged into one pass from the highest power downward
+		for (int i = off + codewordLen - 1; i > last; i--) {
+			int row = ((codeword[i] ^ codeword[last]) & 0xFF) << 8;
+			for (int j = eccLen - 1; j >= 1; j--)
+				codeword[off + j] = (byte)(codeword[off + j - 1] ^ prod[row | gen[j] & 0xFF]);
+			codeword[off] = prod[row | gen[0] & 0xFF];
+		}
+	}
+	
+	
+	
+	/*---- Decoder methods ----*/
+	
+	/**
+	 * Attempts to decode the specified codeword with the maximum error-correcting capability
+	 * allowed, returning either a new array with the best-guess message or {@code null}.
+	 * The argument array is not modified.
+	 * @param codeword the codeword to decode, whose length must equal {@code this.codewordLen}
+	 * @return a new array representing the decoded message, or {@code null} to indicate failure
+	 * @throws NullPointerException if the codeword is {@code null}
+	 * @throws IllegalArgumentException if the codeword array has the wrong length
+	 */
+	public byte[] decode(byte[] codeword) {
+		Objects.requireNonNull(codeword);
+		if (codeword.length != codewordLen)
+			throw new IllegalArgumentException("Invalid codeword length");
+		byte[] temp = codeword.clone();
+		if (!decode(temp, 0, eccLen / 2))
+			return null;
+		return Arrays.copyOfRange(temp, eccLen, codewordLen);
+	}
+	
+	
+	/**
+	 * Attempts to correct the codeword that starts at the specified offset in place, fixing
+	 * up to the specified number of erroneous bytes. Returns {@code true} if the codeword now has
+	 * all zero syndromes (possibly after corrections), or {@code false} if decoding failed, in which
+	 * case the array is left unchanged. Like in {@link ReedSolomon#decode(Object[], int)}, success is
+	 * guaranteed if there are at most numErrorsToCorrect errors, and a wrong answer is possible otherwise.
+	 * @param codeword the array containing the codeword region (not {@code null})
+	 * @param off the index of the codeword's first byte
+	 * @param numErrorsToCorrect the number of errors to try to fix, between 0 and floor(eccLen / 2) inclusive
+	 * @return whether the codeword region is now a valid codeword
+	 * @throws NullPointerException if the array is {@code null}
+	 * @throws IndexOutOfBoundsException if the codeword region extends outside the array
+	 * @throws IllegalArgumentException if numErrorsToCorrect is out of range
+	 */
+	public boolean decode(byte[] codeword, int off, int numErrorsToCorrect) {
+		return decode(codeword, off, new int[0], numErrorsToCorrect);
+	}
+	
+	
+	/**
+	 * Attempts to correct the codeword that starts at the specified offset in place, where the bytes
+	 * at the specified indexes are known to be unreliable (erasures), fixing up to the specified number
+	 * of erroneous bytes elsewhere. Returns {@code true} if the codeword now has all zero syndromes,
+	 * or {@code false} if decoding failed, in which case the array is left unchanged. Like in
+	 * {@link ReedSolomon#decode(Object[], int[], int)}, success is guaranteed if there are at most
+	 * numErrorsToCorrect errors outside the erasures, and a wrong answer is possible otherwise.
+	 * @param codeword the array containing the codeword region (not {@code null})
+	 * @param off the index of the codeword's first byte
+	 * @param erasures the distinct indexes (relative to {@code off}) of bytes to treat as
+	 * missing, at most {@code eccLen} of them (their values are ignored)
+	 * @param numErrorsToCorrect the number of errors outside the erasures to try to fix,
+	 * between 0 and floor((eccLen - erasures.length) / 2) inclusive
+	 * @return whether the codeword region is now a valid codeword
+	 * @throws NullPointerException if any array is {@code null}
+	 * @throws IndexOutOfBoundsException if the codeword region extends outside the array
+	 * @throws IllegalArgumentException if the erasure indexes are out of range, repeated,
+	 * or too many, or numErrorsToCorrect is out of range
+	 */
+	public boolean decode(byte[] codeword, int off, int[] erasures, int numErrorsToCorrect) {
+		Objects.checkFromIndexSize(off, codewordLen, codeword.length);
+		checkErasures(erasures);
+		if (numErrorsToCorrect < 0 || numErrorsToCorrect > (eccLen - erasures.length) / 2)
+			throw new IllegalArgumentException("Number of errors to correct is out of range");
+		return decode(codeword, off, erasures, numErrorsToCorrect, new int[eccLen]);
+	}
+	
+	
+	/**
+	 * Corrects many consecutive codewords in place with the maximum error-correcting capability allowed,
+	 * splitting them into batches that are decoded in parallel by the specified executor. Each batch reuses
+	 * one syndrome buffer across its codewords, so codewords without errors cost no allocation.
+	 * Returns after all batches are done.
+	 * @param data the array containing the codewords (not {@code null})
+	 * @param off the index of the first codeword's first byte
+	 * @param count the number of codewords, which are {@code codewordLen} bytes apart
+	 * @param erasures either {@code null} for no erasures, or an array of length {@code count}
+	 * whose elements are the erasure indexes of each codeword (an element can be {@code null} for none)
+	 * @param executor the executor to run batch tasks on (not {@code null})
+	 * @return a new array telling for each codeword whether it was successfully decoded
+	 * (failed codewords are left unchanged)
+	 * @throws NullPointerException if the data array or the executor is {@code null}
+	 * @throws IndexOutOfBoundsException if the codewords extend outside the array
+	 * @throws IllegalArgumentException if count is negative, the erasures array has the wrong length,
+	 * or any of its elements is invalid like in {@link #decode(byte[], int, int[], int)}
+	 * @throws InterruptedException if interrupted while waiting for the batch tasks
+	 */
+	public boolean[] decodeBatch(byte[] data, int off, int count, int[][] erasures, ExecutorService executor)
+			throws InterruptedException {
+		// Check arguments
+		Objects.requireNonNull(executor);
+		if (count < 0)
+			throw new IllegalArgumentException("Negative count");
+		Objects.checkFromIndexSize(off, (long)count * codewordLen, data.length);
+		if (erasures != null && erasures.length != count)
+			throw new IllegalArgumentException("Erasures array length mismatch");
+		int[][] eras = new int[count][];
+		for (int i = 0; i < count; i++) {
+			eras[i] = erasures != null && erasures[i] != null ? erasures[i] : new int[0];
+			checkErasures(eras[i]);
+		}
+		
+		// Decode batches in parallel
+		boolean[] result = new boolean[count];
+		List<Future<?>> futures = new ArrayList<>();
+		for (int start = 0; start < count; start += BATCH_SIZE) {
+			int first = start;
+			int end = Math.min(start + BATCH_SIZE, count);
+			futures.add(executor.submit(() -> {
+				int[] syndromes = new int[eccLen];
+				for (int i = first; i < end; i++)
+					result[i] = decode(data, off + i * codewordLen, eras[i], (eccLen - eras[i].length) / 2, syndromes);
+			}));
+		}
+		try {
+			for (Future<?> fut : futures)
+				fut.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return result;
+	}
+	
+	
+	// The decoding logic shared by the public methods, whose arguments are already checked.
+	// The syndromes array is scratch space of length eccLen, which can be reused across calls.
+	private boolean decode(byte[] codeword, int off, int[] erasures, int numErrorsToCorrect, int[] syndromes) {
+		// Calculate and check syndromes
+		if (calculateSyndromes(codeword, off, syndromes))
+			return true;
+		if (numErrorsToCorrect == 0 && erasures.length == 0)
+			return false;
+		
+		// Find the error locator polynomial from the syndromes with the erasures' effect removed, then
+		// its roots, and multiply it by the erasure locator polynomial to cover all locations to fix
+		int[] eraLocPoly = calculateErasureLocatorPolynomial(erasures);
+		int[] errLocPoly = {1};
+		int[] errLocs = new int[0];
+		if (numErrorsToCorrect > 0) {
+			errLocPoly = calculateErrorLocatorPolynomial(calculateModifiedSyndromes(syndromes, eraLocPoly));
+			if (errLocPoly.length - 1 > numErrorsToCorrect)
+				return false;
+			errLocs = findErrorLocations(errLocPoly);
+			if (errLocs == null)
+				return false;
+		}
+		int[] locs = Arrays.copyOf(errLocs, errLocs.length + erasures.length);
+		System.arraycopy(erasures, 0, locs, errLocs.length, erasures.length);
+		int[] errVals = calculateErrorValues(locs, multiplyPolynomials(errLocPoly, eraLocPoly), syndromes);
+		if (errVals == null)
+			return false;
+		
+		// Perform repairs, and undo them if the result is not a codeword
+		for (int i = 0; i < locs.length; i++)
+			codeword[off + locs[i]] ^= errVals[i];
+		if (!calculateSyndromes(codeword, off, syndromes)) {
+			for (int i = 0; i < locs.length; i++)
+				codeword[off + locs[i]] ^= errVals[i];
+			return false;
+		}
+		return true;
+	}
+	
+	
+	// Checks that the given erasure indexes are distinct, in range, and at most eccLen in number.
+	private void checkErasures(int[] erasures) {
+		Objects.requireNonNull(erasures);
+		if (erasures.length > eccLen)
+			throw new IllegalArgumentException("Too many erasures");
+		boolean[] seen = new boolean[codewordLen];
+		for (int e : erasures) {
+			if (e < 0 || e >= codewordLen)
+				throw new IllegalArgumentException("Erasure index out of range");
+			if (seen[e])
+				throw new IllegalArgumentException("Duplicate erasure index");
+			seen[e] = true;
+		}
+	}
+	
+	
+	// Stores syndrome[i] = codeword(generator^i) into the given array, and returns whether all are zero.
+	private boolean calculateSyndromes(byte[] codeword, int off, int[] result) {
+		int nonzero = 0;
+		for (int i = 0; i < eccLen; i++) {
+			// Horner's method, multiplying by generator^i through its row of the product table
+			int row = (expTable[i] & 0xFF) << 8;
+			int val = 0;
+			for (int j = off + codewordLen - 1; j >= off; j--)
+				val = (productTable[row | val] ^ codeword[j]) & 0xFF;
+			result[i] = val;
+			nonzero |= val;
+		}
+		return nonzero == 0;
+	}
+	
+	
+	// Returns the product of (1 - generator^e * x) over the erasure indexes e, in little endian.
+	private int[] calculateErasureLocatorPolynomial(int[] erasures) {
+		int[] result = new int[erasures.length + 1];
+		result[0] = 1;
+		for (int i = 0; i < erasures.length; i++) {
+			for (int j = i + 1; j >= 1; j--)
+				result[j] ^= multiply(expTable[erasures[i]] & 0xFF, result[j - 1]);
+		}
+		return result;
+	}
+	
+	
+	// Returns the syndromes of the errors outside the erasures (with altered values), of length
+	// eccLen - (number of erasures): result[i] = coefficient of x^(numErasures + i) in syndromes(x) * eraLocPoly(x).
+	private int[] calculateModifiedSyndromes(int[] syndromes, int[] eraLocPoly) {
+		int numErasures = eraLocPoly.length - 1;
+		int[] result = new int[eccLen - numErasures];
+		for (int i = 0; i < result.length; i++) {
+			int val = 0;
+			for (int j = 0; j <= numErasures; j++)
+				val ^= multiply(eraLocPoly[j], syndromes[numErasures + i - j]);
+			result[i] = val;
+		}
+		return result;
+	}
+	
+	
+	// Returns the coefficients of the shortest error locator polynomial in little endian, whose
+	// constant term is 1, computed from the syndromes by the Berlekamp-Massey algorithm.
+	private int[] calculateErrorLocatorPolynomial(int[] syndromes) {
+		int[] cur = new int[syndromes.length + 1];
+		int[] prev = new int[syndromes.length + 1];
+		int[] temp = new int[syndromes.length + 1];
+		cur[0] = 1;
+		prev[0] = 1;
+		int len = 0;        // Current number of errors (degree of cur)
+		int shift = 1;      // Power of x that prev is multiplied by
+		int prevDisc = 1;   // Discrepancy when prev was last replaced
+		for (int n = 0; n < syndromes.length; n++) {
+			int disc = syndromes[n];
+			for (int i = 1; i <= len; i++)
+				disc ^= multiply(cur[i], syndromes[n - i]);
+			if (disc == 0) {
+				shift++;
+				continue;
+			}
+			int scale = divide(disc, prevDisc);
+			if (2 * len <= n) {
+				System.arraycopy(cur, 0, temp, 0, cur.length);
+				for (int i = 0; i + shift < cur.length; i++)
+					cur[i + shift] ^= multiply(scale, prev[i]);
+				System.arraycopy(temp, 0, prev, 0, cur.length);
+				len = n + 1 - len;
+				prevDisc = disc;
+				shift = 1;
+			} else {
+				for (int i = 0; i + shift < cur.length; i++)
+					cur[i + shift] ^= multiply(scale, prev[i]);
+				shift++;
+			}
+		}
+		return Arrays.copyOf(cur, len + 1);
+	}
+	
+	
+	// Returns the codeword indexes i where errLocPoly(generator^-i) = 0, or null if the number
+	// of such indexes differs from the degree of the polynomial. Uses Chien search: the logarithm of
+	// each non-zero term is kept, and moving to the next point subtracts a fixed amount from each.
+	private int[] findErrorLocations(int[] errLocPoly) {
+		int numErrors = errLocPoly.length - 1;
+		int[] termLogs = new int[errLocPoly.length];  // -1 for a zero term
+		for (int k = 0; k < termLogs.length; k++)
+			termLogs[k] = errLocPoly[k] != 0 ? logTable[errLocPoly[k]] : -1;
+		
+		int[] result = new int[numErrors];
+		int numFound = 0;
+		for (int i = 0; i < codewordLen; i++) {
+			// At this point, termLogs[k] = log(errLocPoly[k]) - i * k (mod 255)
+			int sum = 0;
+			for (int k = 0; k < termLogs.length; k++) {
+				int lg = termLogs[k];
+				if (lg >= 0) {
+					sum ^= expTable[lg];
+					lg -= k;
+					termLogs[k] = lg < 0 ? lg + 255 : lg;
+				}
+			}
+			if ((sum & 0xFF) == 0) {
+				if (numFound == numErrors)
+					return null;
+				result[numFound] = i;
+				numFound++;
+			}
+		}
+		return numFound == numErrors ? result : null;
+	}
+	
+	
+	// Returns the error values at the given locations by Forney's algorithm, where errLocPoly
+	// has a root at each location, or null if the polynomial is inconsistent with the syndromes.
+	private int[] calculateErrorValues(int[] errLocs, int[] errLocPoly, int[] syndromes) {
+		// The error evaluator polynomial is (syndromes(x) * errLocPoly(x)) mod x^eccLen
+		int[] evaluator = new int[eccLen];
+		for (int i = 0; i < eccLen; i++) {
+			int val = 0;
+			for (int j = 0; j <= i && j < errLocPoly.length; j++)
+				val ^= multiply(errLocPoly[j], syndromes[i - j]);
+			evaluator[i] = val;
+		}
+		
+		// The formal derivative keeps only the odd powers, because 2 = 0 in the field
+		int[] derivative = new int[Math.max(errLocPoly.length - 1, 1)];
+		for (int i = 1; i < errLocPoly.length; i += 2)
+			derivative[i - 1] = errLocPoly[i];
+		
+		// errVal = X * evaluator(X^-1) / derivative(X^-1), where X = generator^errLoc
+		int[] result = new int[errLocs.length];
+		for (int i = 0; i < errLocs.length; i++) {
+			int invLog = (255 - errLocs[i]) % 255;
+			int num = evaluatePolynomial(evaluator, invLog);
+			int den = evaluatePolynomial(derivative, invLog);
+			if (den == 0)
+				return null;
+			if (num != 0)  // Zero is possible for an erasure that holds the right value
+				result[i] = expTable[(logTable[num] - logTable[den] + 255 + errLocs[i]) % 255] & 0xFF;
+		}
+		return result;
+	}
+	
+	
+	
+	/*---- Field arithmetic ----*/
+	
+	// Returns the value of the given polynomial in little endian at the point generator^pointLog.
+	private int evaluatePolynomial(int[] poly, int pointLog) {
+		int result = 0;
+		for (int i = poly.length - 1; i >= 0; i--) {
+			if (result != 0)
+				result = expTable[logTable[result] + pointLog] & 0xFF;
+			result ^= poly[i];
+		}
+		return result;
+	}
+	
+	
+	private int[] multiplyPolynomials(int[] x, int[] y) {
+		int[] result = new int[x.length + y.length - 1];
+		for (int i = 0; i < x.length; i++) {
+			for (int j = 0; j < y.length; j++)
+				result[i + j] ^= multiply(x[i], y[j]);
+		}
+		return result;
+	}
+	
+	
+	private int multiply(int x, int y) {
+		if (x == 0 || y == 0)
+			return 0;
+		return expTable[logTable[x] + logTable[y]] & 0xFF;
+	}
+	
+	
+	private int divide(int x, int y) {
+		if (y == 0)
+			throw new ArithmeticException("Division by zero");
+		if (x == 0)
+			return 0;
+		return expTable[logTable[x] - logTable[y] + 255] & 0xFF;
+	}
+	
+	
+	// Multiplies two elements by shifting and reducing, which is only used to build the tables.
+	private static int multiplySlow(int x, int y, int mod) {
+		int result = 0;
+		for (; y != 0; y >>>= 1) {
+			result ^= (y & 1) * x;
+			x <<= 1;
+			if ((x & 0x100) != 0)
+				x ^= mod;
+		}
+		return result;
+	}
+	
+}
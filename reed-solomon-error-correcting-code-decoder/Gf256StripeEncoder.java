@@ -0,0 +1,217 @@
+/* 
+ * Reed-Solomon error-correcting code decoder (Java)
+ * 
+ * Copyright (c) 2017 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/reed-solomon-error-correcting-code-decoder
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Computes Reed-Solomon parity shards from data shards, in the style of erasure-coded storage. Each byte
+ * offset across the shards forms one codeword of {@link ReedSolomon} over a {@link BinaryField} of size 256:
+ * data shard <var>i</var> holds message value <var>i</var>, and parity shard <var>j</var> holds codeword value
+ * <var>j</var> (an error correction value). So a column of bytes can be checked and repaired with the same
+ * {@code ReedSolomon} or {@link Gf256ReedSolomon} object.
+ * <p>Because the code is linear, each parity shard is a sum of the data shards multiplied by constants.
+ * Those products are computed on 8 bytes at once in a {@code long}, by doubling all 8 field elements with
+ * a few bitwise operations and adding the doublings selected by the bits of each constant.</p>
+ * <p>This class is immutable and thread-safe, but the argument arrays passed into methods are not thread-safe.</p>
+ */
+public final class Gf256StripeEncoder {
+	
+	/*---- Fields ----*/
+	
+	/** The number of data shards. Always at least 1. */
+	public final int messageLen;
+	
+	/** The number of parity shards. Always at least 1. */
+	public final int eccLen;
+	
+	
+	// coefMasks[((i * eccLen) + j) * 8 + b] is all ones if bit b of the coefficient
+	// of data shard i in parity shard j is set, otherwise zero.
+	private final long[] coefMasks;
+	
+	// The low 8 bits of the field modulus, replicated into each byte by the doubling step.
+	private final long reduction;
+	
+	// Shards are split into ranges of this many bytes when encoding in parallel. A multiple of 8.
+	private static final int CHUNK_SIZE = 16 * 1024;
+	
+	private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	
+	
+	
+	/*---- Constructor ----*/
+	
+	/**
+	 * Constructs a stripe encoder for the specified field, generator, and numbers of shards.
+	 * The coefficients are derived by encoding each unit message with {@link ReedSolomon#encode(Object[])}.
+	 * @param f the field, which must have size 256 (not {@code null})
+	 * @param gen a generator of the field (not {@code null})
+	 * @param msgLen the number of data shards, which must be positive
+	 * @param eccLen the number of parity shards, which must be positive
+	 * @throws NullPointerException if any of the object arguments is null
+	 * @throws IllegalArgumentException if the field doesn't have 256 elements,
+	 * msgLen &le; 0, eccLen &le; 0, or msgLen + eccLen > 255
+	 */
+	public Gf256StripeEncoder(BinaryField f, Integer gen, int msgLen, int eccLen) {
+		Objects.requireNonNull(f);
+		Objects.requireNonNull(gen);
+		if (f.size != 256)
+			throw new IllegalArgumentException("Field must have 256 elements");
+		if (msgLen <= 0 || eccLen <= 0 || msgLen + eccLen > f.size - 1)
+			throw new IllegalArgumentException("Invalid message or ECC length");
+		this.messageLen = msgLen;
+		this.eccLen = eccLen;
+		reduction = f.modulus & 0xFF;
+		
+		ReedSolomon<Integer> rs = new ReedSolomon<>(f, gen, Integer.class, msgLen, eccLen);
+		coefMasks = new long[eccLen * msgLen * 8];
+		Integer[] unit = new Integer[msgLen];
+		for (int i = 0; i < msgLen; i++) {
+			for (int k = 0; k < msgLen; k++)
+				unit[k] = k == i ? 1 : 0;
+			Integer[] codeword = rs.encode(unit);
+			for (int j = 0; j < eccLen; j++) {
+				int coef = codeword[j];
+				for (int b = 0; b < 8; b++)
+					coefMasks[(i * eccLen + j) * 8 + b] = -(long)((coef >>> b) & 1);
+			}
+		}
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Computes the parity shards for the specified data shards on the calling thread.
+	 * All shards must have the same length, which can be anything.
+	 * @param data the data shards, an array of length {@code messageLen} (not {@code null})
+	 * @param parity the parity shards to overwrite, an array of length {@code eccLen} (not {@code null})
+	 * @throws NullPointerException if any array is {@code null}
+	 * @throws IllegalArgumentException if the numbers or lengths of the shards are wrong
+	 */
+	public void encode(byte[][] data, byte[][] parity) {
+		int len = checkShards(data, parity);
+		encodeRange(data, parity, 0, len);
+	}
+	
+	
+	/**
+	 * Computes the parity shards for the specified data shards, splitting the shards into byte ranges
+	 * that are encoded in parallel by the specified executor. Returns after all ranges are done.
+	 * @param data the data shards, an array of length {@code messageLen} (not {@code null})
+	 * @param parity the parity shards to overwrite, an array of length {@code eccLen} (not {@code null})
+	 * @param executor the executor to run range tasks on (not {@code null})
+	 * @throws NullPointerException if any argument is {@code null}
+	 * @throws IllegalArgumentException if the numbers or lengths of the shards are wrong
+	 * @throws InterruptedException if interrupted while waiting for the tasks
+	 */
+	public void encode(byte[][] data, byte[][] parity, ExecutorService executor) throws InterruptedException {
+		Objects.requireNonNull(executor);
+		int len = checkShards(data, parity);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int start = 0; start < len; start += CHUNK_SIZE) {
+			int off = start;
+			int end = Math.min(start + CHUNK_SIZE, len);
+			futures.add(executor.submit(() -> encodeRange(data, parity, off, end)));
+		}
+		try {
+			for (Future<?> fut : futures)
+				fut.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	
+	// Checks the shard arrays and returns their common length.
+	private int checkShards(byte[][] data, byte[][] parity) {
+		Objects.requireNonNull(data);
+		Objects.requireNonNull(parity);
+		if (data.length != messageLen || parity.length != eccLen)
+			throw new IllegalArgumentException("Invalid number of shards");
+		int len = data[0].length;
+		for (byte[] shard : data) {
+			if (shard.length != len)
+				throw new IllegalArgumentException("Shard lengths differ");
+		}
+		for (byte[] shard : parity) {
+			if (shard.length != len)
+				throw new IllegalArgumentException("Shard lengths differ");
+		}
+		return len;
+	}
+	
+	
+	// Computes the parity bytes at offsets [start, end) of all shards.
+	private void encodeRange(byte[][] data, byte[][] parity, int start, int end) {
+		long[] acc = new long[eccLen];
+		long[] words = new long[messageLen];
+		int pos = start;
+		for (; end - pos >= 8; pos += 8) {
+			for (int i = 0; i < messageLen; i++)
+				words[i] = (long)LONG_VIEW.get(data[i], pos);
+			multiplyAccumulate(words, acc);
+			for (int j = 0; j < eccLen; j++)
+				LONG_VIEW.set(parity[j], pos, acc[j]);
+		}
+		
+		// Handle the last few bytes as a zero-padded word
+		if (pos < end) {
+			for (int i = 0; i < messageLen; i++) {
+				long word = 0;
+				for (int k = pos; k < end; k++)
+					word |= (data[i][k] & 0xFFL) << ((k - pos) * 8);
+				words[i] = word;
+			}
+			multiplyAccumulate(words, acc);
+			for (int j = 0; j < eccLen; j++) {
+				for (int k = pos; k < end; k++)
+					parity[j][k] = (byte)(acc[j] >>> ((k - pos) * 8));
+			}
+		}
+	}
+	
+	
+	// Sets acc[j] = sum over i of coefficient(j, i) * words[i], for 8 field elements per word.
+	private void multiplyAccumulate(long[] words, long[] acc) {
+		long[] masks = coefMasks;
+		long red = reduction;
+		for (int j = 0; j < eccLen; j++)
+			acc[j] = 0;
+		for (int i = 0, k = 0; i < messageLen; i++) {
+			long x0 = words[i];
+			if (x0 == 0) {
+				k += eccLen * 8;
+				continue;
+			}
+			// Doublings: x_b = 2^b * x0 for each byte, reducing the bytes whose top bit overflows
+			long x1 = ((x0 & 0x7F7F7F7F7F7F7F7FL) << 1) ^ (((x0 >>> 7) & 0x0101010101010101L) * red);
+			long x2 = ((x1 & 0x7F7F7F7F7F7F7F7FL) << 1) ^ (((x1 >>> 7) & 0x0101010101010101L) * red);
+			long x3 = ((x2 & 0x7F7F7F7F7F7F7F7FL) << 1) ^ (((x2 >>> 7) & 0x0101010101010101L) * red);
+			long x4 = ((x3 & 0x7F7F7F7F7F7F7F7FL) << 1) ^ (((x3 >>> 7) & 0x0101010101010101L) * red);
+			long x5 = ((x4 & 0x7F7F7F7F7F7F7F7FL) << 1) ^ (((x4 >>> 7) & 0x0101010101010101L) * red);
+			long x6 = ((x5 & 0x7F7F7F7F7F7F7F7FL) << 1) ^ (((x5 >>> 7) & 0x0101010101010101L) * red);
+			long x7 = ((x6 & 0x7F7F7F7F7F7F7F7FL) << 1) ^ (((x6 >>> 7) & 0x0101010101010101L) * red);
+			for (int j = 0; j < eccLen; j++, k += 8) {
+				acc[j] ^= x0 & masks[k] ^ x1 & masks[k + 1] ^ x2 & masks[k + 2] ^ x3 & masks[k + 3]
+					^ x4 & masks[k + 4] ^ x5 & masks[k + 5] ^ x6 & masks[k + 6] ^ x7 & masks[k + 7];
+			}
+		}
+	}
+	
+}
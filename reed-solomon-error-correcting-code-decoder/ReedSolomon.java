@@ -7,8 +7,13 @@
  */
 
 import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 /**
@@ -40,6 +45,9 @@ public final class ReedSolomon<E> {
 	// The class object for the actual type parameter E, which is used in newArray(). Not null.
 	private Class<E> elementType;
 	
+	// Number of consecutive codewords per task in decodeBatch().
+	private static final int BATCH_SIZE = 64;
+	
 	
 	
 	/*---- Constructor ----*/
@@ -185,35 +193,157 @@ public final class ReedSolomon<E> {
 			throw new IllegalArgumentException("Invalid codeword length");
 		if (numErrorsToCorrect < 0 || numErrorsToCorrect > eccLen / 2)
 			throw new IllegalArgumentException("Number of errors to correct is out of range");
+		return decode(codeword, new int[0], numErrorsToCorrect, newArray(eccLen));
+	}
+	
+	
+	/**
+	 * Attempts to decode the specified codeword, where the values at the specified indexes are known
+	 * to be unreliable (erasures), with the maximum error-correcting capability allowed for the
+	 * remaining values. Returns either a best-guess message or {@code null}.
+	 * <p>An erasure costs half as much correction capability as an error at an unknown location. If 2 *
+	 * (number of errors) + (number of erasures) &le; eccLen, then decoding is guaranteed to succeed.</p>
+	 * @param codeword the codeword to decode, whose length must equal {@code this.codewordLen}
+	 * @param erasures the distinct indexes into the codeword of values to treat as missing,
+	 * at most {@code eccLen} of them (their values in the codeword are ignored)
+	 * @return a new array representing the decoded message, or {@code null} to indicate failure
+	 * @throws NullPointerException if the codeword or erasures array is {@code null}
+	 * @throws IllegalArgumentException if the codeword array has the wrong length,
+	 * or the erasure indexes are out of range, repeated, or too many
+	 */
+	public E[] decode(E[] codeword, int[] erasures) {
+		Objects.requireNonNull(erasures);
+		if (erasures.length > eccLen)
+			throw new IllegalArgumentException("Too many erasures");
+		return decode(codeword, erasures, (eccLen - erasures.length) / 2);
+	}
+	
+	
+	/**
+	 * Attempts to decode the specified codeword with the specified erasures, and
+	 * with the specified level of error-correcting capability for the remaining values,
+	 * returning either a best-guess message or {@code null}.
+	 * <p>If there are at most numErrorsToCorrect erroneous values outside the erasures, then
+	 * decoding is guaranteed to succeed. Otherwise an explicit failure ({@code null} answer)
+	 * is most likely, but wrong answer and right answer are also possible too.</p>
+	 * @param codeword the codeword to decode, whose length must equal {@code this.codewordLen}
+	 * @param erasures the distinct indexes into the codeword of values to treat as missing,
+	 * at most {@code eccLen} of them (their values in the codeword are ignored)
+	 * @param numErrorsToCorrect the number of errors outside the erasures to try to fix,
+	 * which must be between 0 to floor((eccLen - erasures.length) / 2), inclusive
+	 * @return a new array representing the decoded message, or {@code null} to indicate failure
+	 * @throws NullPointerException if the codeword or erasures array is {@code null}
+	 * @throws IllegalArgumentException if the codeword array has the wrong length, the erasure
+	 * indexes are out of range, repeated, or too many, or numErrorsToCorrect is out of range
+	 */
+	public E[] decode(E[] codeword, int[] erasures, int numErrorsToCorrect) {
+		// Check arguments
+		Objects.requireNonNull(codeword);
+		if (codeword.length != codewordLen)
+			throw new IllegalArgumentException("Invalid codeword length");
+		checkErasures(erasures);
+		if (numErrorsToCorrect < 0 || numErrorsToCorrect > (eccLen - erasures.length) / 2)
+			throw new IllegalArgumentException("Number of errors to correct is out of range");
+		return decode(codeword, erasures, numErrorsToCorrect, newArray(eccLen));
+	}
+	
+	
+	/**
+	 * Decodes many codewords with the maximum error-correcting capability allowed, splitting them
+	 * into batches of consecutive codewords that are decoded in parallel by the specified executor.
+	 * Each batch reuses one syndrome buffer across its codewords. Returns after all batches are done.
+	 * @param codewords the codewords to decode, each of length {@code this.codewordLen} (not {@code null})
+	 * @param erasures either {@code null} for no erasures, or an array parallel to {@code codewords}
+	 * whose elements are the erasure indexes of each codeword (an element can be {@code null} for none)
+	 * @param executor the executor to run batch tasks on (not {@code null})
+	 * @return a new array of the decoded messages, where an element is {@code null} if decoding failed
+	 * @throws NullPointerException if the codewords array, any codeword, or the executor is {@code null}
+	 * @throws IllegalArgumentException if any codeword or erasures array is invalid like in {@link #decode(Object[], int[])},
+	 * or the erasures array has the wrong length
+	 * @throws InterruptedException if interrupted while waiting for the batch tasks
+	 */
+	public E[][] decodeBatch(E[][] codewords, int[][] erasures, ExecutorService executor) throws InterruptedException {
+		// Check arguments
+		Objects.requireNonNull(codewords);
+		Objects.requireNonNull(executor);
+		if (erasures != null && erasures.length != codewords.length)
+			throw new IllegalArgumentException("Erasures array length mismatch");
+		int[][] eras = new int[codewords.length][];
+		for (int i = 0; i < codewords.length; i++) {
+			Objects.requireNonNull(codewords[i]);
+			if (codewords[i].length != codewordLen)
+				throw new IllegalArgumentException("Invalid codeword length");
+			eras[i] = erasures != null && erasures[i] != null ? erasures[i] : new int[0];
+			checkErasures(eras[i]);
+		}
 		
+		// Decode batches in parallel
+		E[][] result = newArray2D(codewords.length);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int start = 0; start < codewords.length; start += BATCH_SIZE) {
+			int off = start;
+			int end = Math.min(start + BATCH_SIZE, codewords.length);
+			futures.add(executor.submit(() -> {
+				E[] syndromes = newArray(eccLen);
+				for (int i = off; i < end; i++)
+					result[i] = decode(codewords[i], eras[i], (eccLen - eras[i].length) / 2, syndromes);
+			}));
+		}
+		try {
+			for (Future<?> fut : futures)
+				fut.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return result;
+	}
+	
+	
+	// The decoding logic shared by the public methods, whose arguments are already checked.
+	// The syndromes array is scratch space of length eccLen, which can be reused across calls.
+	private E[] decode(E[] codeword, int[] erasures, int numErrorsToCorrect, E[] syndromes) {
 		// Calculate and check syndromes
-		E[] syndromes = calculateSyndromes(codeword);
+		calculateSyndromes(codeword, syndromes);
 		if (!areAllZero(syndromes)) {
 			// At this point, we know the codeword must have some errors
-			if (numErrorsToCorrect == 0)
+			if (numErrorsToCorrect == 0 && erasures.length == 0)
 				return null;  // Only detect but not fix errors
 			
-			// Try to solve for the error locator polynomial
-			E[] errLocPoly = calculateErrorLocatorPolynomial(syndromes, numErrorsToCorrect);
-			if (errLocPoly == null)
-				return null;
+			// Try to find the codeword indexes where errors might have occurred, apart from the erasures
+			int[] errLocs = new int[0];
+			E[] modSyndromes = calculateModifiedSyndromes(syndromes, erasures);
+			if (numErrorsToCorrect > 0 && !areAllZero(modSyndromes)) {
+				// Try to solve for the error locator polynomial
+				E[] errLocPoly = calculateErrorLocatorPolynomial(modSyndromes, numErrorsToCorrect);
+				if (errLocPoly == null)
+					return null;
+				errLocs = findErrorLocations(errLocPoly, numErrorsToCorrect);
+				if (errLocs == null || errLocs.length == 0)
+					return null;
+			}
 			
-			// Try to find the codeword indexes where errors might have occurred
-			int[] errLocs = findErrorLocations(errLocPoly, numErrorsToCorrect);
-			if (errLocs == null || errLocs.length == 0)
-				return null;
+			// Merge the erasures with the error locations found
+			int[] locs = Arrays.copyOf(erasures, erasures.length + errLocs.length);
+			int numLocs = erasures.length;
+			for (int loc : errLocs) {
+				if (!contains(erasures, loc)) {
+					locs[numLocs] = loc;
+					numLocs++;
+				}
+			}
+			locs = Arrays.copyOf(locs, numLocs);
 			
 			// Try to find the error values at these indexes
-			E[] errVals = calculateErrorValues(errLocs, syndromes);
+			E[] errVals = calculateErrorValues(locs, syndromes);
 			if (errVals == null)
 				return null;
 			
 			// Perform repairs to the codeword with the information just derived
-			E[] newCodeword = fixErrors(codeword, errLocs, errVals);
+			E[] newCodeword = fixErrors(codeword, locs, errVals);
 			
 			// Final sanity check by recomputing syndromes
-			E[] newSyndromes = calculateSyndromes(newCodeword);
-			if (!areAllZero(newSyndromes))
+			calculateSyndromes(newCodeword, syndromes);
+			if (!areAllZero(syndromes))
 				throw new AssertionError();
 			codeword = newCodeword;
 		}
@@ -224,21 +354,63 @@ public final class ReedSolomon<E> {
 	}
 	
 	
-	// Returns a new array representing the sequence of syndrome values for the given codeword.
+	// Checks that the given erasure indexes are distinct, in range, and at most eccLen in number.
+	private void checkErasures(int[] erasures) {
+		Objects.requireNonNull(erasures);
+		if (erasures.length > eccLen)
+			throw new IllegalArgumentException("Too many erasures");
+		for (int i = 0; i < erasures.length; i++) {
+			if (erasures[i] < 0 || erasures[i] >= codewordLen)
+				throw new IllegalArgumentException("Erasure index out of range");
+			for (int j = 0; j < i; j++) {
+				if (erasures[j] == erasures[i])
+					throw new IllegalArgumentException("Duplicate erasure index");
+			}
+		}
+	}
+	
+	
+	// Stores the sequence of syndrome values for the given codeword into the given array of length eccLen.
 	// To summarize the math, syndrome[i] = codeword(generator^i).
-	private E[] calculateSyndromes(E[] codeword) {
+	private void calculateSyndromes(E[] codeword, E[] result) {
 		// Check arguments
 		Objects.requireNonNull(codeword);
-		if (codeword.length != codewordLen)
+		Objects.requireNonNull(result);
+		if (codeword.length != codewordLen || result.length != eccLen)
 			throw new IllegalArgumentException();
 		
 		// Evaluate the codeword polynomial at generator powers
-		E[] result = newArray(eccLen);
 		E genPow = f.one();
 		for (int i = 0; i < result.length; i++) {
 			result[i] = evaluatePolynomial(codeword, genPow);
 			genPow = f.multiply(generator, genPow);
 		}
+	}
+	
+	
+	// Returns a new array of the syndromes with the effect of the erasures removed, of length eccLen - erasures.length.
+	// These are the syndromes of the errors outside the erasures (with altered values), so the error locator
+	// polynomial can be solved from them in the same way as without erasures. The math: let
+	// erasureLocator(x) = product of (1 - generator^e * x) over all erasure indexes e; then
+	// result[i] = coefficient of x^(erasures.length + i) in syndromes(x) * erasureLocator(x).
+	private E[] calculateModifiedSyndromes(E[] syndromes, int[] erasures) {
+		// Multiply out the erasure locator polynomial in little endian
+		E[] eraLocPoly = newArray(erasures.length + 1);
+		Arrays.fill(eraLocPoly, f.zero());
+		eraLocPoly[0] = f.one();
+		for (int i = 0; i < erasures.length; i++) {
+			E root = f.negate(pow(generator, erasures[i]));
+			for (int j = i + 1; j >= 1; j--)
+				eraLocPoly[j] = f.add(eraLocPoly[j], f.multiply(root, eraLocPoly[j - 1]));
+		}
+		
+		E[] result = newArray(eccLen - erasures.length);
+		for (int i = 0; i < result.length; i++) {
+			E sum = f.zero();
+			for (int j = 0; j < eraLocPoly.length; j++)
+				sum = f.add(sum, f.multiply(eraLocPoly[j], syndromes[erasures.length + i - j]));
+			result[i] = sum;
+		}
 		return result;
 	}
 	
@@ -248,7 +420,7 @@ public final class ReedSolomon<E> {
 	private E[] calculateErrorLocatorPolynomial(E[] syndromes, int numErrorsToCorrect) {
 		// Check arguments
 		Objects.requireNonNull(syndromes);
-		if (syndromes.length != eccLen || numErrorsToCorrect <= 0 || numErrorsToCorrect > syndromes.length / 2)
+		if (syndromes.length > eccLen || numErrorsToCorrect <= 0 || numErrorsToCorrect > syndromes.length / 2)
 			throw new IllegalArgumentException();
 		
 		// Copy syndrome values into augmented matrix
@@ -297,7 +469,9 @@ public final class ReedSolomon<E> {
 	
 	// Returns a new array that represents indexes into the codeword array where the value
 	// might be erroneous, or null if it is discovered that the decoding process is impossible.
-	// This method tries to find roots of the error locator polynomial by brute force.
+	// This method finds the roots of the error locator polynomial by Chien search: each term of the
+	// polynomial is kept separately, so that moving from the point generator^-i to generator^-(i+1)
+	// takes one multiplication per term by a fixed power, and the value is just the sum of the terms.
 	private int[] findErrorLocations(E[] errLocPoly, int maxSolutions) {
 		// Check arguments
 		Objects.requireNonNull(errLocPoly);
@@ -308,19 +482,29 @@ public final class ReedSolomon<E> {
 		int[] indexesFound = new int[maxSolutions];
 		int numFound = 0;
 		
-		// Evaluate errLocPoly(generator^-i) for 0 <= i < codewordLen
+		// terms[k] = errLocPoly[k] * generator^(-i*k), and steps[k] = generator^-k
+		E[] terms = errLocPoly.clone();
+		E[] steps = newArray(errLocPoly.length);
 		E genRec = f.reciprocal(generator);
 		E genRecPow = f.one();
+		for (int k = 0; k < steps.length; k++) {
+			steps[k] = genRecPow;
+			genRecPow = f.multiply(genRec, genRecPow);
+		}
+		
+		// Evaluate errLocPoly(generator^-i) for 0 <= i < codewordLen
 		for (int i = 0; i < codewordLen; i++) {
-			// At this point, genRecPow == generator^-i
-			E polyVal = evaluatePolynomial(errLocPoly, genRecPow);
+			E polyVal = f.zero();
+			for (E term : terms)
+				polyVal = f.add(polyVal, term);
 			if (f.equals(polyVal, f.zero())) {
 				if (numFound >= indexesFound.length)
 					return null;  // Too many solutions
 				indexesFound[numFound] = i;
 				numFound++;
 			}
-			genRecPow = f.multiply(genRec, genRecPow);
+			for (int k = 1; k < terms.length; k++)
+				terms[k] = f.multiply(steps[k], terms[k]);
 		}
 		return Arrays.copyOf(indexesFound, numFound);
 	}
@@ -350,9 +534,9 @@ public final class ReedSolomon<E> {
 		for (int r = 0; r < matrix.rowCount(); r++)
 			matrix.set(r, matrix.columnCount() - 1, syndromes[r]);
 		
-		// Solve matrix and check basic consistency
+		// Solve matrix and check basic consistency (impossible if there are as many locations as syndromes)
 		matrix.reducedRowEchelonForm();
-		if (!f.equals(matrix.get(matrix.columnCount() - 1, matrix.columnCount() - 1), f.zero()))
+		if (errLocs.length < syndromes.length && !f.equals(matrix.get(matrix.columnCount() - 1, matrix.columnCount() - 1), f.zero()))
 			return null;  // System of linear equations is inconsistent
 		
 		// Check that the top left side equals an identity matrix,
@@ -398,6 +582,13 @@ public final class ReedSolomon<E> {
 	}
 	
 	
+	// Returns a new array of the given length of null E[] elements.
+	@SuppressWarnings("unchecked")
+	private E[][] newArray2D(int len) {
+		return (E[][])Array.newInstance(newArray(0).getClass(), len);
+	}
+	
+	
 	// Returns the value of the given polynomial at the given point. The polynomial is represented
 	// in little endian. In other words, this method evaluates result = polynomial(point)
 	// = polynomial[0]*point^0 + polynomial[1]*point^1 + ... + ponylomial[len-1]*point^(len-1).
@@ -415,6 +606,15 @@ public final class ReedSolomon<E> {
 	}
 	
 	
+	private static boolean contains(int[] array, int val) {
+		for (int x : array) {
+			if (x == val)
+				return true;
+		}
+		return false;
+	}
+	
+	
 	// Tests whether all elements of the given array are equal to the field's zero element.
 	private boolean areAllZero(E[] array) {
 		Objects.requireNonNull(array);
@@ -0,0 +1,214 @@
+/* 
+ * Reed-Solomon error-correcting code decoder benchmark (Java)
+ * 
+ * Copyright (c) 2019 Project Nayuki
+ * All rights reserved. Contact Nayuki for licensing.
+ * https://www.nayuki.io/page/reed-solomon-error-correcting-code-decoder
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/* 
+ * Compares the speed of the byte-specialized codec (Gf256ReedSolomon) against the generic one
+ * (ReedSolomon<Integer> over BinaryField) with the same parameters. Before timing, checks that both produce
+ * identical codewords and that both decode codewords with correctable errors back to the message.
+ * Also measures batch decoding of the byte codec, with and without the error locations given as erasures,
+ * and compares encoding whole shards column by column against the word-parallel stripe encoder.
+ * Usage: java ReedSolomonBenchmark [MsgLen EccLen]
+ */
+public final class ReedSolomonBenchmark {
+	
+	/*---- Configuration ----*/
+	
+	private static final int MODULUS = 0x11D;
+	private static final int GENERATOR = 0x02;
+	
+	private static final int NUM_CODEWORDS = 1000;
+	private static final int SHARD_LEN = 256 * 1024;
+	private static final long WARMUP_NANOS = 1_000_000_000L;
+	private static final long TIMED_NANOS = 2_000_000_000L;
+	
+	
+	/*---- Main program ----*/
+	
+	public static void main(String[] args) {
+		int msgLen = 223;
+		int eccLen = 32;
+		if (args.length == 2) {
+			msgLen = Integer.parseInt(args[0]);
+			eccLen = Integer.parseInt(args[1]);
+		} else if (args.length != 0) {
+			System.err.println("Usage: java ReedSolomonBenchmark [MsgLen EccLen]");
+			System.exit(1);
+			return;
+		}
+		BinaryField field = new BinaryField(MODULUS);
+		ReedSolomon<Integer> generic = new ReedSolomon<>(field, GENERATOR, Integer.class, msgLen, eccLen);
+		Gf256ReedSolomon special = new Gf256ReedSolomon(MODULUS, GENERATOR, msgLen, eccLen);
+		
+		// Random messages, and their codewords with floor(eccLen / 2) random errors each
+		Random rand = new Random(1);
+		byte[][] messages = new byte[NUM_CODEWORDS][msgLen];
+		Integer[][] boxedMessages = new Integer[NUM_CODEWORDS][msgLen];
+		byte[][] damaged = new byte[NUM_CODEWORDS][];
+		Integer[][] boxedDamaged = new Integer[NUM_CODEWORDS][];
+		for (int i = 0; i < NUM_CODEWORDS; i++) {
+			rand.nextBytes(messages[i]);
+			for (int j = 0; j < msgLen; j++)
+				boxedMessages[i][j] = messages[i][j] & 0xFF;
+			byte[] cw = special.encode(messages[i]);
+			Integer[] boxedCw = generic.encode(boxedMessages[i]);
+			for (int j = 0; j < cw.length; j++) {
+				if ((cw[j] & 0xFF) != boxedCw[j])
+					throw new AssertionError("Codewords differ");
+			}
+			int[] positions = randomPositions(cw.length, eccLen / 2, rand);
+			for (int pos : positions)
+				cw[pos] ^= rand.nextInt(255) + 1;
+			damaged[i] = cw;
+			boxedDamaged[i] = new Integer[cw.length];
+			for (int j = 0; j < cw.length; j++)
+				boxedDamaged[i][j] = cw[j] & 0xFF;
+			if (!Arrays.equals(special.decode(cw), messages[i]) || !Arrays.equals(generic.decode(boxedDamaged[i]), boxedMessages[i]))
+				throw new AssertionError("Decoding failed");
+		}
+		
+		System.out.printf("msgLen=%d, eccLen=%d, errors per codeword=%d%n", msgLen, eccLen, eccLen / 2);
+		double genericEnc = measure(() -> {
+			for (Integer[] msg : boxedMessages)
+				generic.encode(msg);
+		});
+		byte[] buffer = new byte[special.codewordLen];
+		double specialEnc = measure(() -> {
+			for (byte[] msg : messages) {
+				System.arraycopy(msg, 0, buffer, special.eccLen, msg.length);
+				special.encode(buffer, 0);
+			}
+		});
+		double genericDec = measure(() -> {
+			for (Integer[] cw : boxedDamaged)
+				generic.decode(cw);
+		});
+		double specialDec = measure(() -> {
+			for (byte[] cw : damaged) {
+				System.arraycopy(cw, 0, buffer, 0, cw.length);
+				special.decode(buffer, 0, special.eccLen / 2);
+			}
+		});
+		
+		// Decode all codewords as one contiguous batch, with the error locations known as erasures
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		byte[] batch = new byte[NUM_CODEWORDS * special.codewordLen];
+		int[][] erasures = new int[NUM_CODEWORDS][];
+		for (int i = 0; i < NUM_CODEWORDS; i++) {
+			byte[] cw = special.encode(messages[i]);
+			for (int j = 0; j < cw.length; j++) {
+				if (cw[j] != damaged[i][j])
+					erasures[i] = appendIndex(erasures[i], j);
+			}
+		}
+		double batchDec = measure(() -> {
+			for (int i = 0; i < NUM_CODEWORDS; i++)
+				System.arraycopy(damaged[i], 0, batch, i * special.codewordLen, special.codewordLen);
+			try {
+				special.decodeBatch(batch, 0, NUM_CODEWORDS, null, executor);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		double erasureDec = measure(() -> {
+			for (int i = 0; i < NUM_CODEWORDS; i++)
+				System.arraycopy(damaged[i], 0, batch, i * special.codewordLen, special.codewordLen);
+			try {
+				special.decodeBatch(batch, 0, NUM_CODEWORDS, erasures, executor);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		
+		double mbPerRound = (double)NUM_CODEWORDS * msgLen / 1e6;
+		System.out.printf("Encode: generic %9.2f MB/s, byte %9.2f MB/s (%.1fx)%n",
+			mbPerRound / genericEnc, mbPerRound / specialEnc, genericEnc / specialEnc);
+		System.out.printf("Decode: generic %9.2f MB/s, byte %9.2f MB/s (%.1fx)%n",
+			mbPerRound / genericDec, mbPerRound / specialDec, genericDec / specialDec);
+		System.out.printf("Batch decode with %d threads: errors %9.2f MB/s, same locations as erasures %9.2f MB/s%n",
+			numThreads, mbPerRound / batchDec, mbPerRound / erasureDec);
+		
+		// Encode whole shards, one column at a time with the byte codec, and word-parallel with the stripe encoder
+		Gf256StripeEncoder stripe = new Gf256StripeEncoder(field, GENERATOR, msgLen, eccLen);
+		byte[][] data = new byte[msgLen][SHARD_LEN];
+		for (byte[] shard : data)
+			rand.nextBytes(shard);
+		byte[][] parity = new byte[eccLen][SHARD_LEN];
+		double columnEnc = measure(() -> {
+			for (int k = 0; k < SHARD_LEN; k++) {
+				for (int i = 0; i < special.messageLen; i++)
+					buffer[special.eccLen + i] = data[i][k];
+				special.encode(buffer, 0);
+				for (int j = 0; j < special.eccLen; j++)
+					parity[j][k] = buffer[j];
+			}
+		});
+		double stripeEnc = measure(() -> stripe.encode(data, parity));
+		double parallelEnc = measure(() -> {
+			try {
+				stripe.encode(data, parity, executor);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		executor.shutdown();
+		mbPerRound = (double)msgLen * SHARD_LEN / 1e6;
+		System.out.printf("Shards: columns %9.2f MB/s, stripe %9.2f MB/s (%.1fx), stripe with %d threads %9.2f MB/s (%.1fx)%n",
+			mbPerRound / columnEnc, mbPerRound / stripeEnc, columnEnc / stripeEnc,
+			numThreads, mbPerRound / parallelEnc, columnEnc / parallelEnc);
+	}
+	
+	
+	// Runs the given round repeatedly for a while to warm up, then returns the mean time per round in seconds.
+	private static double measure(Runnable round) {
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < WARMUP_NANOS)
+			round.run();
+		long rounds = 0;
+		start = System.nanoTime();
+		long elapsed;
+		do {
+			round.run();
+			rounds++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < TIMED_NANOS);
+		return elapsed / 1e9 / rounds;
+	}
+	
+	
+	private static int[] appendIndex(int[] array, int index) {
+		int[] result = array == null ? new int[1] : Arrays.copyOf(array, array.length + 1);
+		result[result.length - 1] = index;
+		return result;
+	}
+	
+	
+	// Returns the given number of distinct random indexes in the range [0, len), by a partial Durstenfeld shuffle.
+	private static int[] randomPositions(int len, int count, Random rand) {
+		int[] indexes = new int[len];
+		for (int i = 0; i < len; i++)
+			indexes[i] = i;
+		for (int i = 0; i < count; i++) {
+			int j = rand.nextInt(len - i) + i;
+			int temp = indexes[i];
+			indexes[i] = indexes[j];
+			indexes[j] = temp;
+		}
+		return Arrays.copyOf(indexes, count);
+	}
+	
+	
+	private ReedSolomonBenchmark() {}  // Not instantiable
+	
+}
@@ -0,0 +1,222 @@
+/* 
+ * Simple FLAC decoder (Java)
+ * 
+ * Copyright (c) 2017 Project Nayuki. (MIT License)
+ * https://www.nayuki.io/page/simple-flac-implementation
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * - The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ * - The Software is provided "as is", without warranty of any kind, express or
+ *   implied, including but not limited to the warranties of merchantability,
+ *   fitness for a particular purpose and noninfringement. In no event shall the
+ *   authors or copyright holders be liable for any claim, damages or other
+ *   liability, whether in an action of contract, tort or otherwise, arising from,
+ *   out of or in connection with the Software or the use or other dealings in the
+ *   Software.
+ */
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+
+
+/* 
+ * Compares the speed of the order-specialized prediction restoration loops in SimpleDecodeFlacToWav against
+ * the general loop, for fixed orders 0 to 4 and LPC orders 8 and 12. The audio is decoded from the given
+ * FLAC file and cut into blocks; each block is turned into residuals with the predictor being measured,
+ * so that restoring it reproduces the decoded samples, which is checked before timing.
+ * Usage: java LpcRestorationBenchmark InFile.flac
+ */
+public final class LpcRestorationBenchmark {
+	
+	/*---- Configuration ----*/
+	
+	private static final int BLOCK_SIZE = 4096;
+	private static final int LPC_PRECISION = 12;
+	private static final int LPC_SHIFT = 10;
+	
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int TIMED_ITERATIONS = 20;
+	
+	
+	/*---- Main program ----*/
+	
+	public static void main(String[] args) throws IOException, DataFormatException {
+		if (args.length != 1) {
+			System.err.println("Usage: java LpcRestorationBenchmark InFile.flac");
+			System.exit(1);
+			return;
+		}
+		List<int[]> blocks = readBlocks(new File(args[0]));
+		long numSamples = 0;
+		for (int[] block : blocks)
+			numSamples += block.length;
+		System.out.printf("Blocks: %d, samples: %d%n", blocks.size(), numSamples);
+		System.out.println("Predictor   general (Msample/s)   specialized (Msample/s)   speedup");
+		
+		for (int order = 0; order < FIXED_PREDICTION_COEFFICIENTS.length; order++) {
+			int[] coefs = FIXED_PREDICTION_COEFFICIENTS[order];
+			run("Fixed " + order, blocks, b -> coefs, 0, true);
+		}
+		for (int order : new int[]{8, 12})
+			run("LPC " + order, blocks, b -> lpcCoefficients(b, order), LPC_SHIFT, false);
+	}
+	
+	
+	// Measures one predictor over all blocks, after checking that both loops restore the samples exactly.
+	private static void run(String name, List<int[]> blocks, Function<int[],int[]> coefsFunc, int shift, boolean fixed) {
+		List<int[]> coefsList = new ArrayList<>();
+		List<long[]> residuals = new ArrayList<>();
+		long numSamples = 0;
+		for (int[] block : blocks) {
+			int[] coefs = coefsFunc.apply(block);
+			if (block.length < coefs.length)
+				continue;
+			long[] r = computeResiduals(block, coefs, shift);
+			for (int k = 0; k < 2; k++) {
+				long[] x = r.clone();
+				restore(k == 1, fixed, x, coefs, shift);
+				for (int i = 0; i < x.length; i++) {
+					if (x[i] != block[i])
+						throw new AssertionError("Restoration mismatch: " + name);
+				}
+			}
+			coefsList.add(coefs);
+			residuals.add(r);
+			numSamples += r.length;
+		}
+		
+		double[] speeds = new double[2];
+		for (int k = 0; k < 2; k++) {
+			long startTime = 0;
+			for (int iter = 0; iter < WARMUP_ITERATIONS + TIMED_ITERATIONS; iter++) {
+				if (iter == WARMUP_ITERATIONS)
+					startTime = System.nanoTime();
+				for (int j = 0; j < residuals.size(); j++) {
+					long[] x = residuals.get(j).clone();
+					restore(k == 1, fixed, x, coefsList.get(j), shift);
+				}
+			}
+			speeds[k] = numSamples * TIMED_ITERATIONS / ((System.nanoTime() - startTime) / 1e9) / 1e6;
+		}
+		System.out.printf("%-9s %12.1f %25.1f %16.2fx%n", name, speeds[0], speeds[1], speeds[1] / speeds[0]);
+	}
+	
+	
+	private static void restore(boolean specialized, boolean fixed, long[] result, int[] coefs, int shift) {
+		if (!specialized)
+			restoreGeneral(result, coefs, shift);
+		else if (fixed)
+			SimpleDecodeFlacToWav.restoreFixedPrediction(result, coefs.length);
+		else
+			SimpleDecodeFlacToWav.restoreLinearPrediction(result, coefs, shift);
+	}
+	
+	
+	// The restoration loop that the decoder used for every order before it had specialized ones.
+	private static void restoreGeneral(long[] result, int[] coefs, int shift) {
+		for (int i = coefs.length; i < result.length; i++) {
+			long sum = 0;
+			for (int j = 0; j < coefs.length; j++)
+				sum += result[i - 1 - j] * coefs[j];
+			result[i] += sum >> shift;
+		}
+	}
+	
+	
+	// Returns the residuals of the given samples under the given predictor, with the warmup samples copied verbatim.
+	private static long[] computeResiduals(int[] samples, int[] coefs, int shift) {
+		long[] result = new long[samples.length];
+		for (int i = 0; i < samples.length; i++) {
+			long sum = 0;
+			if (i >= coefs.length) {
+				for (int j = 0; j < coefs.length; j++)
+					sum += (long)samples[i - 1 - j] * coefs[j];
+			}
+			result[i] = samples[i] - (sum >> shift);
+		}
+		return result;
+	}
+	
+	
+	// Returns quantized LPC coefficients of the given order for the block, computed by the
+	// autocorrelation method and Levinson-Durbin recursion, or all zeros if the block is silent.
+	private static int[] lpcCoefficients(int[] samples, int order) {
+		double[] autoc = new double[order + 1];
+		for (int lag = 0; lag <= order; lag++) {
+			for (int i = lag; i < samples.length; i++)
+				autoc[lag] += (double)samples[i] * samples[i - lag];
+		}
+		autoc[0] *= 1 + 1e-9;  // Keeps the recursion stable for pure tones
+		double[] lpc = new double[order];
+		double error = autoc[0];
+		for (int m = 0; m < order && error > 0; m++) {
+			double k = autoc[m + 1];
+			for (int j = 0; j < m; j++)
+				k -= lpc[j] * autoc[m - j];
+			k /= error;
+			double[] prev = lpc.clone();
+			lpc[m] = k;
+			for (int j = 0; j < m; j++)
+				lpc[j] = prev[j] - k * prev[m - 1 - j];
+			error *= 1 - k * k;
+		}
+		int max = (1 << (LPC_PRECISION - 1)) - 1;
+		int[] result = new int[order];
+		for (int i = 0; i < order; i++)
+			result[i] = (int)Math.max(Math.min(Math.round(lpc[i] * (1 << LPC_SHIFT)), max), -max - 1);
+		return result;
+	}
+	
+	
+	// Decodes the FLAC file and returns the samples of each channel cut into blocks of BLOCK_SIZE (the last one shorter).
+	private static List<int[]> readBlocks(File file) throws IOException, DataFormatException {
+		ByteArrayOutputStream wav = new ByteArrayOutputStream();
+		SimpleDecodeFlacToWav.decodeFile(file, wav);
+		byte[] data = wav.toByteArray();
+		int numChannels = (data[22] & 0xFF) | (data[23] & 0xFF) << 8;
+		int bytesPerSample = ((data[34] & 0xFF) | (data[35] & 0xFF) << 8) / 8;
+		int numSamples = (data.length - 44) / (numChannels * bytesPerSample);
+		
+		List<int[]> result = new ArrayList<>();
+		for (int ch = 0; ch < numChannels; ch++) {
+			for (int start = 0; start < numSamples; start += BLOCK_SIZE) {
+				int[] block = new int[Math.min(BLOCK_SIZE, numSamples - start)];
+				for (int i = 0; i < block.length; i++) {
+					int off = 44 + ((start + i) * numChannels + ch) * bytesPerSample;
+					int val = 0;
+					for (int b = 0; b < bytesPerSample; b++)
+						val |= (data[off + b] & 0xFF) << (b * 8);
+					if (bytesPerSample == 1)
+						val -= 128;
+					else
+						val = val << (32 - bytesPerSample * 8) >> (32 - bytesPerSample * 8);
+					block[i] = val;
+				}
+				result.add(block);
+			}
+		}
+		return result;
+	}
+	
+	
+	private static final int[][] FIXED_PREDICTION_COEFFICIENTS = {
+		{},
+		{1},
+		{2, -1},
+		{3, -3, 1},
+		{4, -6, 4, -1},
+	};
+	
+	
+	private LpcRestorationBenchmark() {}  // Not instantiable
+	
+}
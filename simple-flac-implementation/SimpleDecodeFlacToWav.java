@@ -22,21 +22,62 @@
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.DataFormatException;
 
 
 public final class SimpleDecodeFlacToWav {
 	
 	public static void main(String[] args) throws IOException, DataFormatException {
-		if (args.length != 2) {
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		File reportFile = null;
+		int argIndex = 0;
+		for (; argIndex < args.length && args[argIndex].startsWith("-"); argIndex++) {
+			String opt = args[argIndex];
+			if (opt.startsWith("-threads=") && opt.length() > 9)
+				numThreads = Integer.parseInt(opt.substring(9));
+			else if (opt.startsWith("-report=") && opt.length() > 8)
+				reportFile = new File(opt.substring(8));
+			else
+				break;
+		}
+		if (args.length - argIndex != 2 || numThreads < 1) {
 			System.err.println("Usage: java SimpleDecodeFlacToWav InFile.flac OutFile.wav");
+			System.err.println("   or: java SimpleDecodeFlacToWav [-threads=N] [-report=Report.tsv] InDir OutDir");
 			System.exit(1);
 			return;
 		}
-		try (BitInputStream in = new BitInputStream(new BufferedInputStream(new FileInputStream(args[0])));
-				OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]))) {
+		File inFile = new File(args[argIndex]);
+		File outFile = new File(args[argIndex + 1]);
+		if (inFile.isDirectory()) {
+			if (reportFile == null)
+				reportFile = new File(outFile, "decode-report.tsv");
+			if (!decodeDirectory(inFile, outFile, numThreads, reportFile))
+				System.exit(1);
+			return;
+		}
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile))) {
+			decodeFile(inFile, out);
+		}
+	}
+	
+	
+	public static void decodeFile(File inFile, OutputStream out) throws IOException, DataFormatException {
+		try (BitInputStream in = new BitInputStream(new FileInputStream(inFile))) {
 			decodeFile(in, out);
 		}
 	}
@@ -76,6 +117,186 @@ public final class SimpleDecodeFlacToWav {
 			throw new RuntimeException("Sample depth not supported");
 		
 		// Start writing WAV file headers
+		writeWavHeader(numChannels, sampleRate, sampleDepth, numSamples, out);
+		
+		// Decode FLAC audio frames and write raw samples
+		while (decodeFrame(in, numChannels, sampleDepth, out));
+	}
+	
+	
+	/* 
+	 * Decodes every .flac file in the input directory to a .wav file of the same name in the output directory,
+	 * verifies the MD5 hash of each stream, and writes a tab-separated report with one line per file. Returns
+	 * true if every file decoded without error and matched its hash (or had none). Several files are in flight
+	 * at once, and within a file, runs of frames are decoded in parallel after a scan for frame boundaries.
+	 */
+	public static boolean decodeDirectory(File inDir, File outDir, int numThreads, File reportFile) throws IOException {
+		File[] inFiles = inDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".flac"));
+		if (inFiles == null)
+			throw new IOException("Cannot list directory: " + inDir);
+		Arrays.sort(inFiles);
+		if (!outDir.isDirectory() && !outDir.mkdirs())
+			throw new IOException("Cannot create directory: " + outDir);
+		
+		List<BatchResult> results = new ArrayList<>();
+		long startTime = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			// Keep a bounded number of files (and bytes of them) in memory
+			Deque<CompletableFuture<BatchResult>> pending = new ArrayDeque<>();
+			long pendingBytes = 0;
+			for (File inFile : inFiles) {
+				while (!pending.isEmpty() && (pending.size() >= numThreads * 2 || pendingBytes + inFile.length() > MAX_BYTES_IN_FLIGHT)) {
+					BatchResult r = pending.removeFirst().join();
+					pendingBytes -= r.flacBytes;
+					results.add(r);
+					System.out.println(r.status + "  " + r.fileName);
+				}
+				String name = inFile.getName();
+				File outFile = new File(outDir, name.substring(0, name.length() - 5) + ".wav");
+				pending.addLast(decodeFileAsync(inFile, outFile, executor));
+				pendingBytes += inFile.length();
+			}
+			while (!pending.isEmpty()) {
+				BatchResult r = pending.removeFirst().join();
+				results.add(r);
+				System.out.println(r.status + "  " + r.fileName);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		double totalSeconds = (System.nanoTime() - startTime) / 1e9;
+		
+		// Write the report and summary
+		int numFailed = 0;
+		long totalWavBytes = 0;
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8))) {
+			out.print("file\tstatus\tsamples\tflac_bytes\twav_bytes\tseconds\twav_mb_per_second\tmessage\n");
+			for (BatchResult r : results) {
+				out.printf(Locale.ROOT, "%s\t%s\t%d\t%d\t%d\t%.3f\t%.1f\t%s\n", r.fileName, r.status, r.numSamples,
+					r.flacBytes, r.wavBytes, r.seconds, r.wavBytes / 1e6 / Math.max(r.seconds, 1e-9), r.message);
+				if (!r.status.equals("ok") && !r.status.equals("unverified"))
+					numFailed++;
+				totalWavBytes += r.wavBytes;
+			}
+		}
+		System.out.printf(Locale.ROOT, "%d files, %d failed, %.3f s, %.1f MB/s of WAV output%n",
+			results.size(), numFailed, totalSeconds, totalWavBytes / 1e6 / totalSeconds);
+		return numFailed == 0;
+	}
+	
+	
+	// Decodes one file on the given executor without blocking any of its threads: reading and scanning is one
+	// task, each run of frames is another, and the runs are hashed and written in order by a chain of callbacks.
+	private static CompletableFuture<BatchResult> decodeFileAsync(File inFile, File outFile, ExecutorService executor) {
+		long[] startTime = {System.nanoTime()};  // Reset when the first task starts, to exclude time in the queue
+		long flacBytes = inFile.length();
+		return CompletableFuture.supplyAsync(() -> {
+			startTime[0] = System.nanoTime();
+			try {
+				return new BatchDecoding(inFile, outFile);
+			} catch (IOException|DataFormatException e) {
+				throw new CompletionException(e);
+			}
+		}, executor).thenCompose(dec -> {
+			CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+			for (int i = 0; i + 1 < dec.chunkOffsets.length; i++) {
+				int start = dec.chunkOffsets[i];
+				int end = dec.chunkOffsets[i + 1];
+				CompletableFuture<byte[]> pcm = CompletableFuture.supplyAsync(() -> dec.decodeChunk(start, end), executor);
+				chain = chain.thenCombine(pcm, (v, b) -> {
+					dec.consume(b);
+					return null;
+				});
+			}
+			return chain.thenApply(v -> dec.finish(startTime[0])).whenComplete((r, e) -> {
+				if (e != null)
+					dec.abort();
+			});
+		}).handle((result, e) -> {
+			if (result != null)
+				return result;
+			while (e instanceof CompletionException && e.getCause() != null)
+				e = e.getCause();
+			String msg = e.getClass().getSimpleName() + (e.getMessage() != null ? ": " + e.getMessage() : "");
+			return new BatchResult(inFile.getName(), "error", 0, flacBytes, 0, (System.nanoTime() - startTime[0]) / 1e9, msg);
+		});
+	}
+	
+	
+	private static final long MAX_BYTES_IN_FLIGHT = 512L << 20;
+	
+	
+	// Returns the byte offsets of all frames in the given FLAC data, plus data.length at the end. A frame starts
+	// where the running CRC-16 is zero (so the previous frame's checksum matches) and a header with a valid
+	// CRC-8 follows, which makes false matches inside compressed audio negligible without decoding anything.
+	static int[] scanFrameOffsets(byte[] data, int start) throws DataFormatException {
+		int[] result = new int[64];
+		int count = 0;
+		result[count++] = start;
+		int frameStart = start;
+		int crc = 0;
+		for (int i = start; i < data.length; i++) {
+			if (crc == 0 && i > frameStart && isFrameHeader(data, i)) {
+				if (count == result.length)
+					result = Arrays.copyOf(result, count * 2);
+				result[count++] = i;
+				frameStart = i;
+			}
+			crc = ((crc << 8) & 0xFFFF) ^ CRC16_TABLE[((crc >>> 8) ^ data[i]) & 0xFF];
+		}
+		if (crc != 0)
+			throw new DataFormatException("Frame CRC mismatch or truncated stream");
+		if (start < data.length && !isFrameHeader(data, start))
+			throw new DataFormatException("Sync code expected");
+		result = Arrays.copyOf(result, count + 1);
+		result[count] = data.length;
+		return result;
+	}
+	
+	
+	// Tests whether a frame header with a correct CRC-8 starts at the given offset.
+	private static boolean isFrameHeader(byte[] data, int pos) {
+		if (data.length - pos < 6 || (data[pos] & 0xFF) != 0xFF || (data[pos + 1] & 0xFE) != 0xF8)
+			return false;
+		int blockSizeCode = (data[pos + 2] >>> 4) & 0xF;
+		int sampleRateCode = data[pos + 2] & 0xF;
+		int chanAsgn = (data[pos + 3] >>> 4) & 0xF;
+		int depthCode = (data[pos + 3] >>> 1) & 7;
+		if (blockSizeCode == 0 || sampleRateCode == 15 || chanAsgn > 10 || depthCode == 3 || depthCode == 7 || (data[pos + 3] & 1) != 0)
+			return false;
+		int first = data[pos + 4] & 0xFF;
+		int numExtra = first < 0x80 ? 0 : Integer.numberOfLeadingZeros(~(first << 24)) - 1;
+		if (numExtra < 0 || numExtra > 6)
+			return false;
+		int end = pos + 5 + numExtra;
+		end += blockSizeCode == 6 ? 1 : blockSizeCode == 7 ? 2 : 0;
+		end += sampleRateCode == 12 ? 1 : sampleRateCode == 13 || sampleRateCode == 14 ? 2 : 0;
+		if (end >= data.length)
+			return false;
+		int crc = 0;
+		for (int i = pos; i < end; i++) {
+			crc ^= data[i] & 0xFF;
+			for (int j = 0; j < 8; j++)
+				crc = (crc << 1) ^ ((crc >>> 7) * 0x107);
+		}
+		return crc == (data[end] & 0xFF);
+	}
+	
+	
+	private static final int[] CRC16_TABLE = new int[256];
+	
+	static {
+		for (int i = 0; i < CRC16_TABLE.length; i++) {
+			int crc = i << 8;
+			for (int j = 0; j < 8; j++)
+				crc = (crc << 1) ^ ((crc >>> 15) * 0x18005);
+			CRC16_TABLE[i] = crc;
+		}
+	}
+	
+	
+	private static void writeWavHeader(int numChannels, int sampleRate, int sampleDepth, long numSamples, OutputStream out) throws IOException {
 		long sampleDataLen = numSamples * numChannels * (sampleDepth / 8);
 		writeString("RIFF", out);
 		writeLittleInt(4, (int)sampleDataLen + 36, out);
@@ -90,9 +311,6 @@ public final class SimpleDecodeFlacToWav {
 		writeLittleInt(2, sampleDepth, out);
 		writeString("data", out);
 		writeLittleInt(4, (int)sampleDataLen, out);
-		
-		// Decode FLAC audio frames and write raw samples
-		while (decodeFrame(in, numChannels, sampleDepth, out));
 	}
 	
 	
@@ -156,14 +374,18 @@ public final class SimpleDecodeFlacToWav {
 		in.readUint(16);
 		
 		// Write the decoded samples
-		for (int i = 0; i < blockSize; i++) {
+		int bytesPerSample = sampleDepth / 8;
+		byte[] buf = new byte[blockSize * numChannels * bytesPerSample];
+		for (int i = 0, k = 0; i < blockSize; i++) {
 			for (int j = 0; j < numChannels; j++) {
 				int val = samples[j][i];
 				if (sampleDepth == 8)
 					val += 128;
-				writeLittleInt(sampleDepth / 8, val, out);
+				for (int b = 0; b < bytesPerSample; b++, k++)
+					buf[k] = (byte)(val >>> (b * 8));
 			}
 		}
+		out.write(buf);
 		return true;
 	}
 	
@@ -234,17 +456,9 @@ public final class SimpleDecodeFlacToWav {
 		for (int i = 0; i < predOrder; i++)
 			result[i] = in.readSignedInt(sampleDepth);
 		decodeResiduals(in, predOrder, result);
-		restoreLinearPrediction(result, FIXED_PREDICTION_COEFFICIENTS[predOrder], 0);
+		restoreFixedPrediction(result, predOrder);
 	}
 	
-	private static final int[][] FIXED_PREDICTION_COEFFICIENTS = {
-		{},
-		{1},
-		{2, -1},
-		{3, -3, 1},
-		{4, -6, 4, -1},
-	};
-	
 	
 	private static void decodeLinearPredictiveCodingSubframe(BitInputStream in, int lpcOrder, int sampleDepth, long[] result)
 			throws IOException, DataFormatException {
@@ -279,8 +493,7 @@ public final class SimpleDecodeFlacToWav {
 			
 			int param = in.readUint(paramBits);
 			if (param < escapeParam) {
-				for (int j = start; j < end; j++)
-					result[j] = in.readRiceSignedInt(param);
+				in.readRiceSignedInts(param, result, start, end);
 			} else {
 				int numBits = in.readUint(5);
 				for (int j = start; j < end; j++)
@@ -290,28 +503,314 @@ public final class SimpleDecodeFlacToWav {
 	}
 	
 	
-	private static void restoreLinearPrediction(long[] result, int[] coefs, int shift) {
-		for (int i = coefs.length; i < result.length; i++) {
-			long sum = 0;
-			for (int j = 0; j < coefs.length; j++)
-				sum += result[i - 1 - j] * coefs[j];
+	// Adds the fixed predictor of the given order (0 to 4) to the residuals after the warmup samples.
+	// Each order has its own loop that keeps the previous samples in local variables.
+	static void restoreFixedPrediction(long[] result, int order) {
+		int n = result.length;
+		switch (order) {
+			case 0:
+				break;
+			case 1: {
+				long a = result[0];
+				for (int i = 1; i < n; i++) {
+					a += result[i];
+					result[i] = a;
+				}
+				break;
+			}
+			case 2: {
+				long a = result[1], b = result[0];
+				for (int i = 2; i < n; i++) {
+					long x = result[i] + 2 * a - b;
+					result[i] = x;
+					b = a;
+					a = x;
+				}
+				break;
+			}
+			case 3: {
+				long a = result[2], b = result[1], c = result[0];
+				for (int i = 3; i < n; i++) {
+					long x = result[i] + 3 * (a - b) + c;
+					result[i] = x;
+					c = b;
+					b = a;
+					a = x;
+				}
+				break;
+			}
+			case 4: {
+				long a = result[3], b = result[2], c = result[1], d = result[0];
+				for (int i = 4; i < n; i++) {
+					long x = result[i] + 4 * (a + c) - 6 * b - d;
+					result[i] = x;
+					d = c;
+					c = b;
+					b = a;
+					a = x;
+				}
+				break;
+			}
+			default:
+				throw new IllegalArgumentException("Invalid fixed prediction order");
+		}
+	}
+	
+	
+	// Adds the linear prediction to the residuals after the warmup samples, using a fully unrolled
+	// loop for the orders that encoders choose most often, and a general loop otherwise.
+	static void restoreLinearPrediction(long[] result, int[] coefs, int shift) {
+		if (coefs.length == 8)
+			restoreLinearPrediction8(result, coefs, shift);
+		else if (coefs.length == 12)
+			restoreLinearPrediction12(result, coefs, shift);
+		else {
+			for (int i = coefs.length; i < result.length; i++) {
+				long sum = 0;
+				for (int j = 0; j < coefs.length; j++)
+					sum += result[i - 1 - j] * coefs[j];
+				result[i] += sum >> shift;
+			}
+		}
+	}
+	
+	
+	private static void restoreLinearPrediction8(long[] result, int[] coefs, int shift) {
+		int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3];
+		int c4 = coefs[4], c5 = coefs[5], c6 = coefs[6], c7 = coefs[7];
+		for (int i = 8; i < result.length; i++) {
+			long sum = result[i - 1] * c0 + result[i - 2] * c1 + result[i - 3] * c2 + result[i - 4] * c3
+				+ result[i - 5] * c4 + result[i - 6] * c5 + result[i - 7] * c6 + result[i - 8] * c7;
 			result[i] += sum >> shift;
 		}
 	}
 	
+	
+	private static void restoreLinearPrediction12(long[] result, int[] coefs, int shift) {
+		int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3];
+		int c4 = coefs[4], c5 = coefs[5], c6 = coefs[6], c7 = coefs[7];
+		int c8 = coefs[8], c9 = coefs[9], c10 = coefs[10], c11 = coefs[11];
+		for (int i = 12; i < result.length; i++) {
+			long sum = result[i - 1] * c0 + result[i - 2] * c1 + result[i - 3] * c2 + result[i - 4] * c3
+				+ result[i - 5] * c4 + result[i - 6] * c5 + result[i - 7] * c6 + result[i - 8] * c7
+				+ result[i - 9] * c8 + result[i - 10] * c9 + result[i - 11] * c10 + result[i - 12] * c11;
+			result[i] += sum >> shift;
+		}
+	}
+	
+	
+	
+	/*---- Helper classes ----*/
+	
+	// The state of decoding one file in batch mode, from reading the whole file to closing the output.
+	private static final class BatchDecoding {
+		
+		public final int[] chunkOffsets;  // Byte offsets of the runs of frames that are decoded as tasks, plus the end
+		
+		private final byte[] data;
+		private final String fileName;
+		private final File outFile;
+		private final int numChannels;
+		private final int sampleDepth;
+		private final long numSamples;
+		private final byte[] expectedHash;
+		private final OutputStream output;
+		private final MessageDigest hasher;
+		private long numBytesDecoded = 0;
+		
+		
+		// Reads and checks the file, finds its frames, and writes the WAV header.
+		public BatchDecoding(File inFile, File outFile) throws IOException, DataFormatException {
+			data = Files.readAllBytes(inFile.toPath());
+			fileName = inFile.getName();
+			this.outFile = outFile;
+			
+			// Parse the metadata blocks, keeping only the stream info
+			if (data.length < 8 || (data[0] & 0xFF) != 0x66 || data[1] != 0x4C || data[2] != 0x61 || data[3] != 0x43)
+				throw new DataFormatException("Invalid magic string");
+			int pos = 4;
+			long info = -1;
+			byte[] hash = null;
+			for (boolean last = false; !last; ) {
+				if (data.length - pos < 4)
+					throw new EOFException();
+				last = (data[pos] & 0x80) != 0;
+				int type = data[pos] & 0x7F;
+				int length = (data[pos + 1] & 0xFF) << 16 | (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+				pos += 4;
+				if (data.length - pos < length)
+					throw new EOFException();
+				if (type == 0 && length >= 34) {
+					info = ByteBuffer.wrap(data, pos + 10, 8).getLong();
+					hash = Arrays.copyOfRange(data, pos + 18, pos + 34);
+				}
+				pos += length;
+			}
+			if (hash == null)
+				throw new DataFormatException("Stream info metadata block absent");
+			numChannels = (int)(info >>> 41 & 7) + 1;
+			sampleDepth = (int)(info >>> 36 & 0x1F) + 1;
+			numSamples = info & 0xFFFFFFFFFL;
+			if (sampleDepth % 8 != 0)
+				throw new DataFormatException("Sample depth not supported");
+			expectedHash = hash;
+			
+			// Group frames into runs of about CHUNK_SIZE bytes
+			int[] frames = scanFrameOffsets(data, pos);
+			int[] chunks = new int[frames.length];
+			int numChunks = 0;
+			chunks[numChunks++] = frames[0];
+			for (int i = 1; i < frames.length; i++) {
+				if (frames[i] - chunks[numChunks - 1] >= CHUNK_SIZE || i == frames.length - 1)
+					chunks[numChunks++] = frames[i];
+			}
+			chunkOffsets = Arrays.copyOf(chunks, numChunks);
+			
+			try {
+				hasher = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new AssertionError(e);
+			}
+			output = new BufferedOutputStream(new FileOutputStream(outFile));
+			writeWavHeader(numChannels, (int)(info >>> 44), sampleDepth, numSamples, output);
+		}
+		
+		
+		// Decodes the frames in data[start : end] to WAV sample bytes. Safe to call concurrently.
+		public byte[] decodeChunk(int start, int end) {
+			try {
+				BitInputStream in = new BitInputStream(data, start, end - start);
+				ByteArrayOutputStream out = new ByteArrayOutputStream((end - start) * 3);
+				while (decodeFrame(in, numChannels, sampleDepth, out));
+				return out.toByteArray();
+			} catch (IOException|DataFormatException e) {
+				throw new CompletionException(e);
+			}
+		}
+		
+		
+		// Hashes and writes the next run of decoded bytes. Must be called in order.
+		public void consume(byte[] pcm) {
+			if (sampleDepth == 8) {  // The hash covers signed samples, but 8-bit WAV samples are unsigned
+				byte[] signed = pcm.clone();
+				for (int i = 0; i < signed.length; i++)
+					signed[i] ^= 0x80;
+				hasher.update(signed);
+			} else
+				hasher.update(pcm);
+			try {
+				output.write(pcm);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+			numBytesDecoded += pcm.length;
+		}
+		
+		
+		public BatchResult finish(long startTime) {
+			try {
+				output.close();
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+			long expectedBytes = numSamples * numChannels * (sampleDepth / 8);
+			String status;
+			String msg = "";
+			if (numBytesDecoded != expectedBytes) {
+				status = "error";
+				msg = "Decoded length differs from stream info";
+			} else if (Arrays.equals(expectedHash, new byte[16])) {
+				status = "unverified";
+				msg = "No MD5 hash in stream info";
+			} else if (!Arrays.equals(hasher.digest(), expectedHash)) {
+				status = "md5_mismatch";
+				msg = "Decoded audio does not match MD5 hash";
+			} else
+				status = "ok";
+			return new BatchResult(fileName, status, numSamples, data.length,
+				numBytesDecoded + 44, (System.nanoTime() - startTime) / 1e9, msg);
+		}
+		
+		
+		// Closes and deletes the partial output after a failure.
+		public void abort() {
+			try {
+				output.close();
+			} catch (IOException e) {}
+			outFile.delete();
+		}
+		
+		
+		private static final int CHUNK_SIZE = 1 << 20;
+		
+	}
+	
+	
+	
+	// One line of the batch report.
+	private static final class BatchResult {
+		
+		public final String fileName;
+		public final String status;  // "ok", "unverified", "md5_mismatch", or "error"
+		public final long numSamples;
+		public final long flacBytes;
+		public final long wavBytes;
+		public final double seconds;
+		public final String message;
+		
+		
+		public BatchResult(String fileName, String status, long numSamples, long flacBytes, long wavBytes, double seconds, String message) {
+			this.fileName = fileName;
+			this.status = status;
+			this.numSamples = numSamples;
+			this.flacBytes = flacBytes;
+			this.wavBytes = wavBytes;
+			this.seconds = seconds;
+			this.message = message.replace('\t', ' ').replace('\n', ' ');
+		}
+		
+	}
+	
 }
 
 
 
 final class BitInputStream implements AutoCloseable {
 	
-	private InputStream in;
+	private InputStream in;  // Null if all data is in the byte array
+	private byte[] buffer;
+	private ByteBuffer bufferView;  // Big-endian view of buffer, for reading 8 bytes at once
+	private int bufferPos;
+	private int bufferLen;
+	
+	// The low bitBufferLen bits of bitBuffer are unread, most significant first. Only whole bytes are
+	// added, so bitBufferLen is a multiple of 8 whenever the reader is byte-aligned.
 	private long bitBuffer;
 	private int bitBufferLen;
 	
 	
 	public BitInputStream(InputStream in) {
 		this.in = in;
+		buffer = new byte[64 * 1024];
+		bufferView = ByteBuffer.wrap(buffer);
+	}
+	
+	
+	// Reads from the given array of the whole stream, which must not be modified.
+	public BitInputStream(byte[] data) {
+		this(data, 0, data.length);
+	}
+	
+	
+	// Reads from the given slice of the array, which must not be modified.
+	public BitInputStream(byte[] data, int off, int len) {
+		if (off < 0 || len < 0 || off > data.length - len)
+			throw new IndexOutOfBoundsException();
+		in = null;
+		buffer = data;
+		bufferView = ByteBuffer.wrap(buffer);
+		bufferPos = off;
+		bufferLen = off + len;
 	}
 	
 	
@@ -323,18 +822,18 @@ final class BitInputStream implements AutoCloseable {
 	public int readByte() throws IOException {
 		if (bitBufferLen >= 8)
 			return readUint(8);
+		else if (bufferPos == bufferLen && !refillBuffer())
+			return -1;
 		else
-			return in.read();
+			return buffer[bufferPos++] & 0xFF;
 	}
 	
 	
 	public int readUint(int n) throws IOException {
-		while (bitBufferLen < n) {
-			int temp = in.read();
-			if (temp == -1)
+		if (bitBufferLen < n) {
+			fillBitBuffer();
+			if (bitBufferLen < n)
 				throw new EOFException();
-			bitBuffer = (bitBuffer << 8) | temp;
-			bitBufferLen += 8;
 		}
 		bitBufferLen -= n;
 		int result = (int)(bitBuffer >>> bitBufferLen);
@@ -351,15 +850,75 @@ final class BitInputStream implements AutoCloseable {
 	
 	public long readRiceSignedInt(int param) throws IOException {
 		long val = 0;
-		while (readUint(1) == 0)
-			val++;
+		while (true) {
+			if (bitBufferLen == 0) {
+				fillBitBuffer();
+				if (bitBufferLen == 0)
+					throw new EOFException();
+			}
+			int zeros = Long.numberOfLeadingZeros(bitBuffer << (64 - bitBufferLen));  // Unread bits moved to the top
+			if (zeros < bitBufferLen) {
+				val += zeros;
+				bitBufferLen -= zeros + 1;
+				break;
+			}
+			val += bitBufferLen;
+			bitBufferLen = 0;
+		}
 		val = (val << param) | readUint(param);
 		return (val >>> 1) ^ -(val & 1);
 	}
 	
 	
+	// Reads Rice-coded values into result[start : end], all with the same parameter.
+	public void readRiceSignedInts(int param, long[] result, int start, int end) throws IOException {
+		for (int i = start; i < end; i++)
+			result[i] = readRiceSignedInt(param);
+	}
+	
+	
+	// Adds whole bytes to the bit buffer until it has more than 56 bits or the input is exhausted.
+	private void fillBitBuffer() throws IOException {
+		while (bitBufferLen <= 56) {
+			if (bufferLen - bufferPos >= 8) {
+				int n = (64 - bitBufferLen) >>> 3;  // Number of bytes that fit, in the range [1, 8]
+				long word = bufferView.getLong(bufferPos);
+				if (n == 8)
+					bitBuffer = word;
+				else
+					bitBuffer = (bitBuffer << (n * 8)) | (word >>> (64 - n * 8));
+				bufferPos += n;
+				bitBufferLen += n * 8;
+			} else if (bufferPos < bufferLen) {
+				bitBuffer = (bitBuffer << 8) | (buffer[bufferPos] & 0xFF);
+				bufferPos++;
+				bitBufferLen += 8;
+			} else if (!refillBuffer())
+				break;
+		}
+	}
+	
+	
+	// Moves the unread bytes to the front of the array and reads more after them.
+	// Returns false if no more bytes were read because the input is exhausted.
+	private boolean refillBuffer() throws IOException {
+		if (in == null)
+			return false;
+		int remain = bufferLen - bufferPos;
+		System.arraycopy(buffer, bufferPos, buffer, 0, remain);
+		bufferPos = 0;
+		bufferLen = remain;
+		int n = in.read(buffer, remain, buffer.length - remain);
+		if (n == -1)
+			return false;
+		bufferLen += n;
+		return true;
+	}
+	
+	
 	public void close() throws IOException {
-		in.close();
+		if (in != null)
+			in.close();
 	}
 	
 }
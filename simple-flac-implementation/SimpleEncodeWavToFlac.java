@@ -23,25 +23,54 @@
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.DataFormatException;
 
 
 public final class SimpleEncodeWavToFlac {
 	
 	public static void main(String[] args) throws IOException, DataFormatException {
-		if (args.length != 2) {
-			System.err.println("Usage: java SimpleEncodeWavToFlac InFile.wav OutFile.flac");
+		boolean compress = true;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		int argIndex = 0;
+		for (; argIndex < args.length && args[argIndex].startsWith("-"); argIndex++) {
+			String opt = args[argIndex];
+			if (opt.equals("-verbatim"))
+				compress = false;
+			else if (opt.startsWith("-threads=") && opt.length() > 9)
+				numThreads = Integer.parseInt(opt.substring(9));
+			else
+				break;
+		}
+		if (args.length - argIndex != 2 || numThreads < 1) {
+			System.err.println("Usage: java SimpleEncodeWavToFlac [-verbatim] [-threads=N] InFile.wav OutFile.flac");
 			System.exit(1);
 			return;
 		}
-		try (InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
-				BitOutputStream out = new BitOutputStream(new BufferedOutputStream(new FileOutputStream(args[1])))) {
-			encodeFile(in, out);
+		try (InputStream in = new BufferedInputStream(new FileInputStream(args[argIndex]));
+				RandomAccessFile out = new RandomAccessFile(args[argIndex + 1], "rw")) {
+			out.setLength(0);
+			encodeFile(in, out, compress, numThreads);
 		}
 	}
 	
 	
-	public static void encodeFile(InputStream in, BitOutputStream out) throws IOException, DataFormatException {
+	/* 
+	 * Encodes the WAV data, using predictive coding and stereo decorrelation if compress is true. Frames are
+	 * encoded concurrently on the given number of threads and written in order, and then the STREAMINFO block
+	 * is updated with the minimum and maximum frame sizes and the MD5 hash of the audio.
+	 */
+	public static void encodeFile(InputStream in, RandomAccessFile out, boolean compress, int numThreads)
+			throws IOException, DataFormatException {
 		// Read and parse WAV file headers
 		if (!readString(in, 4).equals("RIFF"))
 			throw new DataFormatException("Invalid RIFF file header");
@@ -73,29 +102,65 @@ public final class SimpleEncodeWavToFlac {
 		if (sampleDataLen <= 0 || sampleDataLen % (numChannels * (sampleDepth / 8)) != 0)
 			throw new DataFormatException("Invalid length of audio sample data");
 		
-		// Start writing FLAC file header and stream info metadata block
-		out.writeInt(32, 0x664C6143);
-		out.writeInt(1, 1);
-		out.writeInt(7, 0);
-		out.writeInt(24, 34);
-		out.writeInt(16, BLOCK_SIZE);
-		out.writeInt(16, BLOCK_SIZE);
-		out.writeInt(24, 0);
-		out.writeInt(24, 0);
-		out.writeInt(20, sampleRate);
-		out.writeInt(3, numChannels - 1);
-		out.writeInt(5, sampleDepth - 1);
+		// Start writing FLAC file header and stream info metadata block, leaving the frame sizes and hash as zero
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		BitOutputStream hout = new BitOutputStream(header);
+		hout.writeInt(32, 0x664C6143);
+		hout.writeInt(1, 1);
+		hout.writeInt(7, 0);
+		hout.writeInt(24, 34);
+		hout.writeInt(16, BLOCK_SIZE);
+		hout.writeInt(16, BLOCK_SIZE);
+		hout.writeInt(24, 0);
+		hout.writeInt(24, 0);
+		hout.writeInt(20, sampleRate);
+		hout.writeInt(3, numChannels - 1);
+		hout.writeInt(5, sampleDepth - 1);
 		int numSamples = sampleDataLen / (numChannels * (sampleDepth / 8));
-		out.writeInt(18, numSamples >>> 18);
-		out.writeInt(18, numSamples >>>  0);
+		hout.writeInt(18, numSamples >>> 18);
+		hout.writeInt(18, numSamples >>>  0);
 		for (int i = 0; i < 16; i++)
-			out.writeInt(8, 0);
+			hout.writeInt(8, 0);
+		long headerStart = out.getFilePointer();
+		out.write(header.toByteArray());
 		
-		// Read raw samples and encode FLAC audio frames
-		for (int i = 0; numSamples > 0; i++) {
-			int blockSize = Math.min(numSamples, BLOCK_SIZE);
-			encodeFrame(in, i, numChannels, sampleDepth, sampleRate, blockSize, out);
-			numSamples -= blockSize;
+		// Read raw samples in bulk and encode FLAC audio frames in parallel
+		MessageDigest hasher;
+		try {
+			hasher = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+		DataInputStream din = new DataInputStream(in);
+		int bytesPerFrameSample = numChannels * (sampleDepth / 8);
+		try (FrameWriter writer = new FrameWriter(out, numThreads)) {
+			for (int i = 0; numSamples > 0; i++) {
+				int blockSize = Math.min(numSamples, BLOCK_SIZE);
+				byte[] pcm = new byte[blockSize * bytesPerFrameSample];
+				din.readFully(pcm);
+				if (sampleDepth == 8) {  // The hash covers signed samples, but 8-bit WAV samples are unsigned
+					byte[] signed = pcm.clone();
+					for (int j = 0; j < signed.length; j++)
+						signed[j] ^= 0x80;
+					hasher.update(signed);
+				} else
+					hasher.update(pcm);
+				int frameIndex = i;
+				writer.submit(() -> encodeFrame(pcm, frameIndex, numChannels, sampleDepth, sampleRate, blockSize, compress));
+				numSamples -= blockSize;
+			}
+			writer.finish();
+			
+			// Fill in the fields that are only known now
+			byte[] hash = hasher.digest();
+			out.seek(headerStart + 12);
+			for (int i = 16; i >= 0; i -= 8)
+				out.write(writer.minFrameSize >>> i);
+			for (int i = 16; i >= 0; i -= 8)
+				out.write(writer.maxFrameSize >>> i);
+			out.seek(headerStart + 26);
+			out.write(hash);
+			out.seek(out.length());
 		}
 	}
 	
@@ -127,18 +192,15 @@ public final class SimpleEncodeWavToFlac {
 	}
 	
 	
-	private static void encodeFrame(InputStream in, int frameIndex, int numChannels, int sampleDepth, int sampleRate, int blockSize, BitOutputStream out) throws IOException {
+	// Returns the complete frame (header, subframes and footer) for the given little-endian interleaved WAV samples.
+	private static byte[] encodeFrame(byte[] pcm, int frameIndex, int numChannels, int sampleDepth, int sampleRate, int blockSize, boolean compress) throws IOException {
 		int[][] samples = new int[numChannels][blockSize];
 		int bytesPerSample = sampleDepth / 8;
-		for (int i = 0; i < blockSize; i++) {
+		for (int i = 0, k = 0; i < blockSize; i++) {
 			for (int ch = 0; ch < numChannels; ch++) {
 				int val = 0;
-				for (int j = 0; j < bytesPerSample; j++) {
-					int b = in.read();
-					if (b == -1)
-						throw new EOFException();
-					val |= b << (j * 8);
-				}
+				for (int j = 0; j < bytesPerSample; j++, k++)
+					val |= (pcm[k] & 0xFF) << (j * 8);
 				if (sampleDepth == 8)
 					samples[ch][i] = val - 128;
 				else
@@ -146,13 +208,51 @@ public final class SimpleEncodeWavToFlac {
 			}
 		}
 		
-		out.resetCrcs();
+		// Choose the coding of each channel, and possibly a stereo decorrelation
+		int chanAsgn = numChannels - 1;
+		Subframe[] subframes = new Subframe[numChannels];
+		for (int ch = 0; ch < numChannels; ch++)
+			subframes[ch] = compress ? Subframe.best(samples[ch], sampleDepth) : Subframe.verbatim(samples[ch], sampleDepth);
+		if (compress && numChannels == 2 && sampleDepth < 32) {
+			int[] mid  = new int[blockSize];
+			int[] side = new int[blockSize];
+			for (int i = 0; i < blockSize; i++) {
+				int left = samples[0][i], right = samples[1][i];
+				mid [i] = (left + right) >> 1;
+				side[i] = left - right;
+			}
+			Subframe midSf  = Subframe.best(mid , sampleDepth);
+			Subframe sideSf = Subframe.best(side, sampleDepth + 1);
+			long leftSize  = subframes[0].bitLength;
+			long rightSize = subframes[1].bitLength;
+			long bestSize = leftSize + rightSize;
+			Subframe[] bestPair = subframes;
+			if (leftSize + sideSf.bitLength < bestSize) {  // Left/side
+				chanAsgn = 8;
+				bestSize = leftSize + sideSf.bitLength;
+				bestPair = new Subframe[]{subframes[0], sideSf};
+			}
+			if (sideSf.bitLength + rightSize < bestSize) {  // Side/right
+				chanAsgn = 9;
+				bestSize = sideSf.bitLength + rightSize;
+				bestPair = new Subframe[]{sideSf, subframes[1]};
+			}
+			if (midSf.bitLength + sideSf.bitLength < bestSize) {  // Mid/side
+				chanAsgn = 10;
+				bestSize = midSf.bitLength + sideSf.bitLength;
+				bestPair = new Subframe[]{midSf, sideSf};
+			}
+			subframes = bestPair;
+		}
+		
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(blockSize * numChannels * bytesPerSample / 2 + 64);
+		BitOutputStream out = new BitOutputStream(bout);
 		out.writeInt(14, 0x3FFE);
 		out.writeInt(1, 0);
 		out.writeInt(1, 0);
 		out.writeInt(4, 7);
 		out.writeInt(4, sampleRate % 10 == 0 ? 14 : 13);
-		out.writeInt(4, numChannels - 1);
+		out.writeInt(4, chanAsgn);
 		switch (sampleDepth) {
 			case  8:  out.writeInt(3, 1);  break;
 			case 16:  out.writeInt(3, 4);  break;
@@ -168,19 +268,450 @@ public final class SimpleEncodeWavToFlac {
 		out.writeInt(16, sampleRate / (sampleRate % 10 == 0 ? 10 : 1));
 		out.writeInt(8, out.crc8);
 		
-		for (int[] chanSamples : samples)
-			encodeSubframe(chanSamples, sampleDepth, out);
+		for (Subframe sf : subframes)
+			sf.write(out);
 		out.alignToByte();
 		out.writeInt(16, out.crc16);
+		return bout.toByteArray();
 	}
 	
 	
-	private static void encodeSubframe(int[] samples, int sampleDepth, BitOutputStream out) throws IOException {
-		out.writeInt(1, 0);
-		out.writeInt(6, 1);  // Verbatim coding
-		out.writeInt(1, 0);
-		for (int x : samples)
-			out.writeInt(sampleDepth, x);
+	
+	/*---- Helper classes ----*/
+	
+	// Runs frame encoding tasks on a thread pool and writes their results in submission order,
+	// keeping a bounded number of frames in flight. Also tracks the range of frame sizes.
+	private static final class FrameWriter implements AutoCloseable {
+		
+		public int minFrameSize = Integer.MAX_VALUE;
+		public int maxFrameSize = 0;
+		
+		private final DataOutput output;
+		private final ExecutorService executor;  // Null if sequential
+		private final int maxPending;
+		private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+		
+		
+		public FrameWriter(DataOutput out, int numThreads) {
+			output = out;
+			if (numThreads > 1) {
+				executor = Executors.newFixedThreadPool(numThreads);
+				maxPending = numThreads * 4;
+			} else {
+				executor = null;
+				maxPending = 0;
+			}
+		}
+		
+		
+		public void submit(Callable<byte[]> task) throws IOException {
+			if (executor == null) {  // Run the task now; nothing is ever pending
+				try {
+					write(task.call());
+				} catch (IOException|RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new IOException(e);
+				}
+			} else {
+				pending.addLast(executor.submit(task));
+				while (pending.size() > maxPending)
+					writeHead();
+			}
+		}
+		
+		
+		// Waits for all tasks and writes their results. Must be called after the last frame.
+		public void finish() throws IOException {
+			while (!pending.isEmpty())
+				writeHead();
+			if (maxFrameSize == 0)
+				minFrameSize = 0;
+		}
+		
+		
+		private void writeHead() throws IOException {
+			try {
+				write(pending.removeFirst().get());
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+					throw (IOException)cause;
+				else if (cause instanceof RuntimeException)
+					throw (RuntimeException)cause;
+				else if (cause instanceof Error)
+					throw (Error)cause;
+				else
+					throw new IOException(cause);
+			}
+		}
+		
+		
+		private void write(byte[] frame) throws IOException {
+			output.write(frame);
+			minFrameSize = Math.min(frame.length, minFrameSize);
+			maxFrameSize = Math.max(frame.length, maxFrameSize);
+		}
+		
+		
+		// Stops the thread pool, abandoning any unfinished tasks.
+		public void close() {
+			if (executor != null)
+				executor.shutdownNow();
+		}
+		
+	}
+	
+	
+	
+	// The chosen coding of one channel of one frame, with its length in bits.
+	private static final class Subframe {
+		
+		public final long bitLength;
+		
+		private final int type;         // 0 = constant, 1 = verbatim, 8 to 12 = fixed, 32 to 63 = LPC
+		private final int wastedBits;   // Number of zero low-order bits removed from every sample
+		private final int sampleDepth;  // Bits per sample after removing the wasted bits
+		private final int[] samples;    // Samples after removing the wasted bits
+		
+		// Only used by predictive types
+		private final int[] coefs;      // Prediction coefficients, with coefs[0] applying to the previous sample
+		private final int precision;    // Bits per coefficient (LPC only)
+		private final int coefShift;    // Right shift of the prediction sum (LPC only)
+		private final long[] residuals; // Length equals samples.length, with the first coefs.length entries unused
+		private final RiceCoding rice;
+		
+		
+		private Subframe(int type, int wastedBits, int sampleDepth, int[] samples,
+				int[] coefs, int precision, int coefShift, long[] residuals, RiceCoding rice) {
+			this.type = type;
+			this.wastedBits = wastedBits;
+			this.sampleDepth = sampleDepth;
+			this.samples = samples;
+			this.coefs = coefs;
+			this.precision = precision;
+			this.coefShift = coefShift;
+			this.residuals = residuals;
+			this.rice = rice;
+			
+			long len = 8 + wastedBits;
+			if (type == 0)
+				len += sampleDepth;
+			else if (type == 1)
+				len += (long)sampleDepth * samples.length;
+			else {
+				len += (long)sampleDepth * coefs.length + rice.bitLength;
+				if (type >= 32)
+					len += 4 + 5 + precision * coefs.length;
+			}
+			bitLength = len;
+		}
+		
+		
+		public static Subframe verbatim(int[] samples, int sampleDepth) {
+			return new Subframe(1, 0, sampleDepth, samples, null, 0, 0, null, null);
+		}
+		
+		
+		// Tries the constant, verbatim, fixed and LPC codings, and returns the shortest.
+		public static Subframe best(int[] samples, int sampleDepth) {
+			boolean constant = true;
+			for (int x : samples)
+				constant &= x == samples[0];
+			if (constant)
+				return new Subframe(0, 0, sampleDepth, samples, null, 0, 0, null, null);
+			
+			// Remove low-order zero bits common to all samples
+			int or = 0;
+			for (int x : samples)
+				or |= x;
+			int wasted = Integer.numberOfTrailingZeros(or);
+			if (wasted > 0) {
+				int[] shifted = new int[samples.length];
+				for (int i = 0; i < samples.length; i++)
+					shifted[i] = samples[i] >> wasted;
+				samples = shifted;
+				sampleDepth -= wasted;
+			}
+			
+			Subframe result = new Subframe(1, wasted, sampleDepth, samples, null, 0, 0, null, null);
+			for (int order = 0; order < FIXED_PREDICTION_COEFFICIENTS.length && order < samples.length; order++) {
+				int[] coefs = FIXED_PREDICTION_COEFFICIENTS[order];
+				long[] residuals = computeResiduals(samples, coefs, 0);
+				if (residuals == null)
+					continue;
+				Subframe sf = new Subframe(8 + order, wasted, sampleDepth, samples,
+					coefs, 0, 0, residuals, RiceCoding.best(residuals, order));
+				if (sf.bitLength < result.bitLength)
+					result = sf;
+			}
+			
+			double[][] lpcs = levinsonDurbin(autocorrelation(samples, Math.min(MAX_LPC_ORDER, samples.length - 1)));
+			for (double[] lpc : lpcs) {
+				int order = lpc.length;
+				int shift = LPC_PRECISION - 1 - Math.getExponent(maxAbs(lpc)) - 1;
+				if (shift < 0)
+					continue;  // Coefficients too large for the precision
+				shift = Math.min(shift, 15);
+				int[] coefs = quantize(lpc, LPC_PRECISION, shift);
+				long[] residuals = computeResiduals(samples, coefs, shift);
+				if (residuals == null)
+					continue;
+				Subframe sf = new Subframe(31 + order, wasted, sampleDepth, samples,
+					coefs, LPC_PRECISION, shift, residuals, RiceCoding.best(residuals, order));
+				if (sf.bitLength < result.bitLength)
+					result = sf;
+			}
+			return result;
+		}
+		
+		
+		public void write(BitOutputStream out) throws IOException {
+			out.writeInt(1, 0);
+			out.writeInt(6, type);
+			if (wastedBits == 0)
+				out.writeInt(1, 0);
+			else {
+				out.writeInt(1, 1);
+				out.writeInt(wastedBits - 1, 0);
+				out.writeInt(1, 1);
+			}
+			
+			if (type == 0)
+				out.writeInt(sampleDepth, samples[0]);
+			else if (type == 1) {
+				for (int x : samples)
+					out.writeInt(sampleDepth, x);
+			} else {
+				for (int i = 0; i < coefs.length; i++)
+					out.writeInt(sampleDepth, samples[i]);
+				if (type >= 32) {
+					out.writeInt(4, precision - 1);
+					out.writeInt(5, coefShift);
+					for (int c : coefs)
+						out.writeInt(precision, c);
+				}
+				rice.write(residuals, coefs.length, out);
+			}
+		}
+		
+		
+		// Returns the differences between the samples and their predictions (the way the decoder computes them),
+		// or null if a residual is outside the 32-bit signed range that the format allows.
+		private static long[] computeResiduals(int[] samples, int[] coefs, int shift) {
+			long[] result = new long[samples.length];
+			for (int i = coefs.length; i < samples.length; i++) {
+				long sum = 0;
+				for (int j = 0; j < coefs.length; j++)
+					sum += (long)samples[i - 1 - j] * coefs[j];
+				long r = samples[i] - (sum >> shift);
+				if (r != (int)r)
+					return null;
+				result[i] = r;
+			}
+			return result;
+		}
+		
+		
+		// Returns the autocorrelation of the Welch-windowed samples at lags 0 to maxLag.
+		private static double[] autocorrelation(int[] samples, int maxLag) {
+			int n = samples.length;
+			double[] windowed = new double[n];
+			double half = (n - 1) / 2.0;
+			for (int i = 0; i < n; i++) {
+				double t = (i - half) / (half + 1);
+				windowed[i] = samples[i] * (1 - t * t);
+			}
+			double[] result = new double[maxLag + 1];
+			for (int lag = 0; lag <= maxLag; lag++) {
+				double sum = 0;
+				for (int i = lag; i < n; i++)
+					sum += windowed[i] * windowed[i - lag];
+				result[lag] = sum;
+			}
+			return result;
+		}
+		
+		
+		// Returns the prediction coefficients of every order from 1 to autoc.length - 1, stopping early
+		// if the prediction becomes perfect or numerically unstable. result[k][j] applies to the sample j + 1 back.
+		private static double[][] levinsonDurbin(double[] autoc) {
+			int maxOrder = autoc.length - 1;
+			double[][] result = new double[maxOrder][];
+			double[] coefs = {};
+			double error = autoc[0];
+			int order = 0;
+			while (order < maxOrder && error > 0) {
+				int m = order + 1;
+				double k = autoc[m];
+				for (int j = 0; j < order; j++)
+					k -= coefs[j] * autoc[m - 1 - j];
+				k /= error;
+				if (!(Math.abs(k) < 1))
+					break;
+				double[] next = new double[m];
+				next[order] = k;
+				for (int j = 0; j < order; j++)
+					next[j] = coefs[j] - k * coefs[order - 1 - j];
+				coefs = next;
+				error *= 1 - k * k;
+				result[order] = coefs;
+				order++;
+			}
+			return Arrays.copyOf(result, order);
+		}
+		
+		
+		private static double maxAbs(double[] vals) {
+			double result = Double.MIN_NORMAL;
+			for (double x : vals)
+				result = Math.max(Math.abs(x), result);
+			return result;
+		}
+		
+		
+		// Rounds the coefficients to signed integers of the given bit width after scaling by 2^shift,
+		// carrying each rounding error into the next coefficient.
+		private static int[] quantize(double[] lpc, int precision, int shift) {
+			int max = (1 << (precision - 1)) - 1;
+			int[] result = new int[lpc.length];
+			double error = 0;
+			for (int i = 0; i < lpc.length; i++) {
+				error += lpc[i] * (1 << shift);
+				long q = Math.round(error);
+				q = Math.max(Math.min(q, max), -max - 1);
+				result[i] = (int)q;
+				error -= q;
+			}
+			return result;
+		}
+		
+		
+		private static final int[][] FIXED_PREDICTION_COEFFICIENTS = {
+			{},
+			{1},
+			{2, -1},
+			{3, -3, 1},
+			{4, -6, 4, -1},
+		};
+		
+		private static final int MAX_LPC_ORDER = 12;
+		private static final int LPC_PRECISION = 12;
+		
+	}
+	
+	
+	
+	// A choice of Rice partition order and per-partition parameters for a residual signal.
+	private static final class RiceCoding {
+		
+		public final long bitLength;  // Estimated, including the method and partition order fields
+		
+		private final int partitionOrder;
+		private final int[] params;
+		private final int paramBits;  // 4 for coding method 0, or 5 for method 1
+		
+		
+		private RiceCoding(int partitionOrder, int[] params, long bitLength) {
+			this.partitionOrder = partitionOrder;
+			this.params = params;
+			int maxParam = 0;
+			for (int k : params)
+				maxParam = Math.max(k, maxParam);
+			paramBits = maxParam < 15 ? 4 : 5;
+			this.bitLength = bitLength + (paramBits - 4L) * params.length;
+		}
+		
+		
+		// Chooses the partition order and parameters that minimize the estimated length of the residuals
+		// after the given number of warm-up samples. Costs of each order are summed up from the next finer one.
+		public static RiceCoding best(long[] residuals, int warmup) {
+			int n = residuals.length;
+			int maxOrder = 0;
+			while (maxOrder < MAX_PARTITION_ORDER && n % (2 << maxOrder) == 0 && (n >> (maxOrder + 1)) > warmup)
+				maxOrder++;
+			
+			int numPartitions = 1 << maxOrder;
+			int partitionSize = n >> maxOrder;
+			long[] sums = new long[numPartitions];
+			long[] counts = new long[numPartitions];
+			for (int i = 0; i < numPartitions; i++) {
+				int start = i * partitionSize + (i == 0 ? warmup : 0);
+				int end = (i + 1) * partitionSize;
+				long sum = 0;
+				for (int j = start; j < end; j++) {
+					long r = residuals[j];
+					sum += (r << 1) ^ (r >> 63);
+				}
+				sums[i] = sum;
+				counts[i] = end - start;
+			}
+			
+			RiceCoding result = null;
+			for (int order = maxOrder; ; order--) {
+				int[] params = new int[sums.length];
+				long len = 2 + 4;
+				for (int i = 0; i < sums.length; i++) {
+					int bestK = 0;
+					long bestCost = Long.MAX_VALUE;
+					for (int k = 0; k <= MAX_PARAM; k++) {
+						long cost = counts[i] * (k + 1) + (sums[i] >>> k);
+						if (cost < bestCost) {
+							bestK = k;
+							bestCost = cost;
+						}
+					}
+					params[i] = bestK;
+					len += 4 + bestCost;
+				}
+				RiceCoding rc = new RiceCoding(order, params, len);
+				if (result == null || rc.bitLength < result.bitLength)
+					result = rc;
+				if (order == 0)
+					break;
+				// Merge adjacent partitions for the next coarser order
+				long[] newSums = new long[sums.length / 2];
+				long[] newCounts = new long[counts.length / 2];
+				for (int i = 0; i < newSums.length; i++) {
+					newSums[i] = sums[i * 2] + sums[i * 2 + 1];
+					newCounts[i] = counts[i * 2] + counts[i * 2 + 1];
+				}
+				sums = newSums;
+				counts = newCounts;
+			}
+			return result;
+		}
+		
+		
+		public void write(long[] residuals, int warmup, BitOutputStream out) throws IOException {
+			out.writeInt(2, paramBits == 4 ? 0 : 1);
+			out.writeInt(4, partitionOrder);
+			int partitionSize = residuals.length >> partitionOrder;
+			for (int i = 0; i < params.length; i++) {
+				int k = params[i];
+				out.writeInt(paramBits, k);
+				int end = (i + 1) * partitionSize;
+				for (int j = i * partitionSize + (i == 0 ? warmup : 0); j < end; j++) {
+					long r = residuals[j];
+					long u = (r << 1) ^ (r >> 63);
+					for (long q = u >>> k; ; q -= 32) {
+						if (q < 32) {
+							out.writeInt((int)q + 1, 1);
+							break;
+						}
+						out.writeInt(32, 0);
+					}
+					out.writeInt(k, (int)u);
+				}
+			}
+		}
+		
+		
+		private static final int MAX_PARTITION_ORDER = 8;
+		private static final int MAX_PARAM = 30;
+		
 	}
 	
 }
@@ -25,7 +25,11 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.event.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import javax.sound.sampled.*;
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -34,8 +38,9 @@ import javax.swing.plaf.metal.MetalSliderUI;
 
 
 /**
- * A GUI application which lets you open a FLAC file, listen to the audio, and seek to positions
- * in the file. Run this program with no command line arguments: java SimpleGuiFlacPlayer.
+ * A GUI application which lets you open FLAC files, listen to the audio, and seek to positions
+ * in the file. Selecting several files plays them in order without gaps between them.
+ * Run this program with no command line arguments: java SimpleGuiFlacPlayer.
  */
 public final class SimpleGuiFlacPlayer {
 	
@@ -44,22 +49,26 @@ public final class SimpleGuiFlacPlayer {
 	private static JFrame frame;
 	private static JSlider slider;
 	private static BasicSliderUI sliderUi;
+	private static JLabel status;
 	private static File lastDir = null;
 	
 	
 	public static void main(String[] args) {
 		// Create and configure button
-		JButton open = new JButton("Open file");
+		JButton open = new JButton("Open files");
 		open.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				JFileChooser fc = new JFileChooser(lastDir);
 				fc.setFileFilter(new FileNameExtensionFilter("FLAC audio files", "flac"));
-				if (fc.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
-					synchronized(lock) {
-						openRequest = fc.getSelectedFile();
-						lock.notify();
+				fc.setMultiSelectionEnabled(true);
+				if (fc.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION && fc.getSelectedFiles().length > 0) {
+					File[] files = fc.getSelectedFiles();
+					Arrays.sort(files);
+					synchronized(ring) {
+						openRequest = files;
+						ring.notifyAll();
 					}
-					lastDir = fc.getSelectedFile().getParentFile();
+					lastDir = files[0].getParentFile();
 				}
 			}
 		});
@@ -77,9 +86,9 @@ public final class SimpleGuiFlacPlayer {
 			public void mouseReleased(MouseEvent ev) {
 				moveSlider(ev);
 				if (slider.isEnabled()) {
-					synchronized(lock) {
+					synchronized(ring) {
 						seekRequest = (double)slider.getValue() / slider.getMaximum();
-						lock.notify();
+						ring.notifyAll();
 					}
 				}
 			}
@@ -94,6 +103,8 @@ public final class SimpleGuiFlacPlayer {
 		frame = new JFrame("FLAC Player");
 		frame.add(open, BorderLayout.WEST);
 		frame.add(slider, BorderLayout.CENTER);
+		status = new JLabel(formatStatus(0, 0));
+		frame.add(status, BorderLayout.EAST);
 		frame.pack();
 		frame.addWindowListener(new WindowAdapter() {
 			public void windowClosing(WindowEvent ev) {
@@ -114,7 +125,7 @@ public final class SimpleGuiFlacPlayer {
 			slider.setValue(sliderUi.valueForXPosition(ev.getX()));
 	}
 	
-	// Called by the audio worker.
+	// Called by the audio output thread.
 	private static void setSliderPosition(final double t) {
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
@@ -124,161 +135,441 @@ public final class SimpleGuiFlacPlayer {
 		});
 	}
 	
+	// Called by the audio output thread when a different file starts being heard.
+	private static void setNowPlaying(File file) {
+		String name = file.getName();
+		if (name.contains("."))
+			name = name.substring(0, name.lastIndexOf("."));
+		final String title = name + " - FLAC Player";
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				frame.setTitle(title);
+				slider.setEnabled(true);
+			}
+		});
+	}
+	
+	// Called by the audio output thread.
+	private static void setStatus(double fill, int underruns) {
+		final String text = formatStatus(fill, underruns);
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				status.setText(text);
+			}
+		});
+	}
+	
+	private static String formatStatus(double fill, int underruns) {
+		return String.format(" Buffer %3d%%  Underruns %d ", Math.round(fill * 100), underruns);
+	}
+	
+	// Called by either audio thread.
+	private static void showError(String prefix, Exception e) {
+		final String msg = prefix + " exception: " + e.getMessage();
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				JOptionPane.showMessageDialog(frame, msg);
+				frame.setTitle("FLAC Player");
+				setSliderPosition(0);
+				slider.setEnabled(false);
+			}
+		});
+	}
+	
+	
 	
+	/*---- Audio decoder and output worker logic ----*/
 	
-	/*---- Audio decoder worker logic ----*/
+	// Decoded audio waiting to be played. Its monitor also guards the GUI-to-decoder request variables.
+	private static final PcmRingBuffer ring = new PcmRingBuffer(32);
 	
 	// GUI-to-decoder communication
-	private static Object lock = new Object();
-	private static File openRequest = null;
+	private static File[] openRequest = null;
 	private static double seekRequest = -1;  // Either -1 or a number in [0.0, 1.0]
 	
-	// Decoder state
+	// Decoder thread state
+	private static File[] queue = {};
+	private static int decIndex = -1;  // Index in queue of the file being decoded
 	private static FlacDecoder dec = null;
-	private static SourceDataLine line = null;
-	private static long clipStartTime;
+	private static AudioFormat decFormat = null;
+	private static int[][] sampleBuffers = null;  // Reused across blocks and files
 	
+	// Index in queue of the file being heard, published by the output thread
+	private static volatile int playingIndex = -1;
 	
+	
+	// Runs the decoder on the calling thread, after starting the output thread. The decoder reads ahead
+	// into the next queued file as soon as the current one is fully decoded, so consecutive files play
+	// without a gap, and disk stalls are absorbed by the ring buffer instead of the audio line.
 	private static void doAudioDecoderWorkerLoop() {
+		Thread output = new Thread(new Runnable() {
+			public void run() {
+				doAudioOutputLoop();
+			}
+		}, "Audio output");
+		output.setDaemon(true);
+		output.start();
+		
 		while (true) {
 			try {
-				doWorkerIteration();
-			} catch (IOException|LineUnavailableException e) {
-				String prefix;
-				if (e instanceof FlacDecoder.FormatException) prefix = "FLAC format";
-				else if (e instanceof IOException) prefix = "I/O";
-				else if (e instanceof LineUnavailableException) prefix = "Line unavailable";
-				else prefix = "General";
-				final String msg = prefix + " exception: " + e.getMessage();
-				SwingUtilities.invokeLater(new Runnable() {
-					public void run() {
-						JOptionPane.showMessageDialog(frame, msg);
-						frame.setTitle("FLAC Player");
-						setSliderPosition(0);
-						slider.setEnabled(false);
-					}
-				});
+				doDecoderIteration();
+			} catch (IOException e) {
+				showError(e instanceof FlacDecoder.FormatException ? "FLAC format" : "I/O", e);
 				try {
-					closeFile();
+					closeDecoder();
 				} catch (IOException ee) {
 					ee.printStackTrace();
 					System.exit(1);
 				}
+				queue = new File[0];
+				ring.clear();
 			} catch (InterruptedException e) {}
 		}
 	}
-		
 	
-	// Tries to decode+play a block of audio, process an asynchronous request, wait for a request, or throws an exception.
-	private static void doWorkerIteration() throws IOException, LineUnavailableException, InterruptedException {
+	
+	// Processes a request, or decodes one block into the ring buffer, or waits for a request or free space.
+	private static void doDecoderIteration() throws IOException, InterruptedException {
 		// Take request from shared variables
-		File openReq;
+		File[] openReq;
 		double seekReq;
-		synchronized(lock) {
+		synchronized(ring) {
+			while (openRequest == null && seekRequest == -1 && (dec == null || ring.isFull()))
+				ring.wait();
 			openReq = openRequest;
 			openRequest = null;
 			seekReq = seekRequest;
 			seekRequest = -1;
 		}
 		
-		// Open or switch files, and start audio line
+		// Replace the queue and start decoding its first file
 		if (openReq != null) {
 			seekReq = -1;
-			closeFile();
-			dec = new FlacDecoder(openReq);
-			if (dec.numSamples == 0)
-				throw new FlacDecoder.FormatException("Unknown audio length");
-			AudioFormat format = new AudioFormat(dec.sampleRate, dec.sampleDepth, dec.numChannels, true, false);
-			line = (SourceDataLine)AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format));
-			line.open(format);
-			line.start();
-			String name = openReq.getName();
-			if (name.contains("."))
-				name = name.substring(0, name.lastIndexOf("."));
-			final String title = name + " - FLAC Player";
-			SwingUtilities.invokeLater(new Runnable() {
-				public void run() {
-					frame.setTitle(title);
-					slider.setEnabled(true);
-				}
-			});
-			clipStartTime = 0;
-		} else if (dec == null) {
-			synchronized(lock) {
-				while (openRequest == null)
-					lock.wait();
-			}
-			return;
+			queue = openReq;
+			playingIndex = -1;
+			openTrack(0);
+			ring.clear();
 		}
 		
-		// Decode next audio block, or seek and decode
-		long[][] samples = null;
-		if (seekReq == -1) {
-			Object[] temp = dec.readNextBlock();
-			if (temp != null)
-				samples = (long[][])temp[0];
-		} else {
+		// Seek within the file being heard, which may be before the file being decoded
+		if (seekReq != -1) {
+			int index = playingIndex;
+			if (index < 0 || index >= queue.length)
+				index = decIndex;
+			if (index < 0)
+				return;
+			if (dec == null || index != decIndex)
+				openTrack(index);
 			long samplePos = Math.round(seekReq * dec.numSamples);
-			samples = dec.seekAndReadBlock(samplePos);
-			line.flush();
-			clipStartTime = line.getMicrosecondPosition() - Math.round(samplePos * 1e6 / dec.sampleRate);
-		}
-		
-		// Set display position
-		double timePos = (line.getMicrosecondPosition() - clipStartTime) / 1e6;
-		setSliderPosition(timePos * dec.sampleRate / dec.numSamples);
-		
-		// Wait when end of stream reached
-		if (samples == null) {
-			synchronized(lock) {
-				while (openRequest == null && seekRequest == -1)
-					lock.wait();
-			}
+			int n = dec.seekAndReadBlock(samplePos, sampleBuffers);
+			ring.clear();
+			if (n > 0)
+				ring.put(dec, decFormat, queue[decIndex], decIndex, samplePos, sampleBuffers, n);
 			return;
 		}
 		
-		// Convert samples to channel-interleaved bytes in little endian
-		int bytesPerSample = dec.sampleDepth / 8;
-		byte[] sampleBytes = new byte[samples[0].length * samples.length * bytesPerSample];
-		for (int i = 0, k = 0; i < samples[0].length; i++) {
-			for (int ch = 0; ch < samples.length; ch++) {
-				long val = samples[ch][i];
-				for (int j = 0; j < bytesPerSample; j++, k++)
-					sampleBytes[k] = (byte)(val >>> (j << 3));
-			}
-		}
-		line.write(sampleBytes, 0, sampleBytes.length);
+		// Decode the next block, or move on to the next file
+		int n = dec.readBlock(sampleBuffers);
+		if (n > 0)
+			ring.put(dec, decFormat, queue[decIndex], decIndex, dec.getBlockSampleOffset(), sampleBuffers, n);
+		else if (decIndex + 1 < queue.length)
+			openTrack(decIndex + 1);
+		else
+			closeDecoder();
+	}
+	
+	
+	private static void openTrack(int index) throws IOException {
+		closeDecoder();
+		dec = new FlacDecoder(queue[index]);
+		decIndex = index;
+		if (dec.numSamples == 0)
+			throw new FlacDecoder.FormatException("Unknown audio length");
+		decFormat = new AudioFormat(dec.sampleRate, dec.sampleDepth, dec.numChannels, true, false);
+		if (sampleBuffers == null || sampleBuffers.length != dec.numChannels || sampleBuffers[0].length < dec.maxBlockSize)
+			sampleBuffers = new int[dec.numChannels][dec.maxBlockSize];
+		ring.setProducerActive(true);
 	}
 	
 	
-	private static void closeFile() throws IOException {
+	private static void closeDecoder() throws IOException {
+		ring.setProducerActive(false);
 		if (dec != null) {
 			dec.close();
 			dec = null;
 		}
-		if (line != null) {
-			line.close();
-			line = null;
+	}
+	
+	
+	// Writes blocks from the ring buffer to the audio line, and reports what is being heard. The line stays
+	// open while consecutive blocks have the same format, and is flushed when the ring buffer is cleared.
+	private static void doAudioOutputLoop() {
+		SourceDataLine line = null;
+		long generation = 0;
+		long failedGeneration = -1;   // Blocks of this generation are dropped, after a line error
+		long lineFramesWritten = 0;   // Total frames given to the line since it was opened
+		Deque<PlayedBlock> written = new ArrayDeque<>();  // Blocks given to the line that may not be fully heard yet
+		int lastIndex = -1;
+		File lastFile = null;
+		int underruns = 0;
+		boolean starved = false;
+		while (true) {
+			try {
+				long gen = ring.getGeneration();
+				if (gen != generation) {  // Cleared for a seek or new files
+					generation = gen;
+					if (line != null) {
+						line.flush();
+						lineFramesWritten = line.getLongFramePosition();
+					}
+					written.clear();
+					starved = false;
+				}
+				
+				PcmRingBuffer.Slot slot = ring.peek(100);
+				if (slot == null) {
+					if (ring.isProducerActive() && line != null && line.available() >= line.getBufferSize()) {
+						if (!starved)
+							underruns++;
+						starved = true;
+					}
+				} else if (slot.generation != generation) {
+					if (slot.generation < generation)
+						ring.release();  // Stale; otherwise newer than our flush, so loop around first
+					continue;
+				} else if (slot.generation == failedGeneration)
+					ring.release();
+				else {
+					starved = false;
+					if (line == null || !slot.format.matches(line.getFormat())) {
+						if (line != null) {
+							line.drain();
+							line.close();
+						}
+						line = null;
+						written.clear();
+						try {
+							line = (SourceDataLine)AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, slot.format));
+							line.open(slot.format);
+						} catch (LineUnavailableException|IllegalArgumentException e) {
+							line = null;
+							failedGeneration = generation;
+							ring.release();
+							showError("Line unavailable", e);
+							continue;
+						}
+						line.start();
+						lineFramesWritten = 0;
+					}
+					line.write(slot.pcm, 0, slot.length);
+					lineFramesWritten += slot.numSamples;
+					written.addLast(new PlayedBlock(lineFramesWritten, slot));
+					ring.release();
+				}
+				
+				// Report the position of the sample being heard, and the buffer metrics
+				if (line != null) {
+					long pos = line.getLongFramePosition();
+					while (written.size() > 1 && written.peekFirst().lineFrameEnd <= pos)
+						written.removeFirst();
+					PlayedBlock head = written.peekFirst();
+					if (head != null) {
+						playingIndex = head.trackIndex;
+						if (head.trackIndex != lastIndex || head.file != lastFile) {
+							lastIndex = head.trackIndex;
+							lastFile = head.file;
+							setNowPlaying(head.file);
+						}
+						long samplePos = head.startSample + Math.max(head.numSamples - (head.lineFrameEnd - pos), 0);
+						setSliderPosition((double)samplePos / head.totalSamples);
+					}
+				}
+				setStatus(ring.getFillRatio(), underruns);
+			} catch (InterruptedException e) {}
 		}
 	}
 	
 	
 	
+	/*---- Audio pipeline classes ----*/
+	
+	// A bounded queue of decoded PCM blocks between one producer and one consumer, made of reusable slots.
+	// The consumer reads a slot in place and then releases it. Clearing doesn't touch the slots, but makes
+	// the ones already filled stale, which the consumer recognizes by their generation number.
+	private static final class PcmRingBuffer {
+		
+		private final Slot[] slots;
+		private int readIndex = 0;
+		private int count = 0;  // Filled slots, including the one being read
+		private long generation = 0;
+		private boolean producerActive = false;
+		
+		
+		public PcmRingBuffer(int capacity) {
+			slots = new Slot[capacity];
+			for (int i = 0; i < slots.length; i++)
+				slots[i] = new Slot();
+		}
+		
+		
+		public synchronized boolean isFull() {
+			return count == slots.length;
+		}
+		
+		
+		// Fraction of slots filled, which is a measure of how much audio is buffered.
+		public synchronized double getFillRatio() {
+			return (double)count / slots.length;
+		}
+		
+		
+		public synchronized long getGeneration() {
+			return generation;
+		}
+		
+		
+		// Tells whether more blocks are expected, so that an empty buffer is an underrun.
+		public synchronized boolean isProducerActive() {
+			return producerActive;
+		}
+		
+		
+		public synchronized void setProducerActive(boolean active) {
+			producerActive = active;
+		}
+		
+		
+		// Converts the given samples to PCM bytes in the next free slot, waiting for one if necessary.
+		public synchronized void put(FlacDecoder dec, AudioFormat format, File file, int trackIndex,
+				long startSample, int[][] samples, int numSamples) throws InterruptedException {
+			while (count == slots.length)
+				wait();
+			Slot slot = slots[(readIndex + count) % slots.length];
+			int numBytes = numSamples * format.getFrameSize();
+			if (slot.pcm.length < numBytes)
+				slot.pcm = new byte[Math.max(numBytes, dec.maxBlockSize * format.getFrameSize())];
+			slot.length = dec.interleave(samples, numSamples, slot.pcm);
+			slot.format = format;
+			slot.file = file;
+			slot.trackIndex = trackIndex;
+			slot.startSample = startSample;
+			slot.numSamples = numSamples;
+			slot.totalSamples = dec.numSamples;
+			slot.generation = generation;
+			count++;
+			notifyAll();
+		}
+		
+		
+		// Returns the oldest filled slot without removing it, or null if none arrives within the timeout.
+		public synchronized Slot peek(long timeoutMillis) throws InterruptedException {
+			if (count == 0)
+				wait(timeoutMillis);
+			return count > 0 ? slots[readIndex] : null;
+		}
+		
+		
+		// Frees the slot returned by peek().
+		public synchronized void release() {
+			slots[readIndex].file = null;
+			readIndex = (readIndex + 1) % slots.length;
+			count--;
+			notifyAll();
+		}
+		
+		
+		// Makes all filled slots stale, for a seek or a new queue of files.
+		public synchronized void clear() {
+			generation++;
+			notifyAll();
+		}
+		
+		
+		
+		public static final class Slot {
+			
+			public byte[] pcm = new byte[0];
+			public int length;
+			public AudioFormat format;
+			public File file;
+			public int trackIndex;
+			public long startSample;
+			public int numSamples;
+			public long totalSamples;
+			public long generation;
+			
+		}
+		
+	}
+	
+	
+	
+	// A block that was given to the audio line, with the line frame position just after it.
+	private static final class PlayedBlock {
+		
+		public final long lineFrameEnd;
+		public final File file;
+		public final int trackIndex;
+		public final long startSample;
+		public final int numSamples;
+		public final long totalSamples;
+		
+		
+		public PlayedBlock(long lineFrameEnd, PcmRingBuffer.Slot slot) {
+			this.lineFrameEnd = lineFrameEnd;
+			file = slot.file;
+			trackIndex = slot.trackIndex;
+			startSample = slot.startSample;
+			numSamples = slot.numSamples;
+			totalSamples = slot.totalSamples;
+		}
+		
+	}
+	
+	
+	
 	/*---- FLAC decoding logic classes ----*/
 	
 	private static final class FlacDecoder {
 		
+		private File file;
 		private Stream input;
 		private long metadataEndPos;
 		
+		// Points from the SEEKTABLE metadata block as absolute file positions, in ascending sample order.
+		// Both arrays are empty if the block is absent.
+		private long[] seekPointSamples = {};
+		private long[] seekPointPositions = {};
+		
+		// Index of the frames decoded so far in one contiguous run from the first frame, in file order.
+		// Once the run reaches the end of the stream, the index is complete and is saved in a sidecar file
+		// (if the stream has no seek table), so that later openings of the file can seek directly.
+		private long[] indexSamples = new long[64];
+		private long[] indexPositions = new long[64];
+		private int indexLength = 0;
+		private long indexEndPos;     // File position just after the last indexed frame
+		private long indexEndSample;  // Sample offset just after the last indexed frame
+		private boolean indexComplete = false;
+		
 		public int sampleRate = -1;
 		public int numChannels = -1;
 		public int sampleDepth = -1;
 		public long numSamples = -1;
 		public int constantBlockSize = -1;
+		public int maxBlockSize = 65535;
+		
+		// Sample offset of the block most recently returned by readBlock().
+		private long blockSampleOffset = -1;
+		
+		// Reused by the methods that don't take caller-supplied buffers. Length equals numChannels.
+		private int[][] scratch;
+		
+		// LPC coefficient arrays indexed by prediction order, reused across subframes.
+		private int[][] coefsBuffers = new int[33][];
 		
 		
 		public FlacDecoder(File file) throws IOException {
+			this.file = file;
 			input = new Stream(file);
 			if (input.readUint(32) != 0x664C6143)
 				throw new FormatException("Invalid magic string");
@@ -290,9 +581,11 @@ public final class SimpleGuiFlacPlayer {
 				int length = input.readUint(24);
 				if (type == 0) {  // Parse stream info block
 					int minBlockSize = input.readUint(16);
-					int maxBlockSize = input.readUint(16);
-					if (minBlockSize == maxBlockSize)
+					int maxBlkSize = input.readUint(16);
+					if (minBlockSize == maxBlkSize)
 						constantBlockSize = minBlockSize;
+					if (maxBlkSize >= 16)
+						maxBlockSize = maxBlkSize;
 					input.readUint(24);
 					input.readUint(24);
 					sampleRate = input.readUint(20);
@@ -301,6 +594,25 @@ public final class SimpleGuiFlacPlayer {
 					numSamples = (long)input.readUint(18) << 18 | input.readUint(18);
 					for (int i = 0; i < 16; i++)
 						input.readUint(8);
+				} else if (type == 3) {  // Parse seek table block, skipping placeholder points
+					int numPoints = length / 18;
+					seekPointSamples = new long[numPoints];
+					seekPointPositions = new long[numPoints];
+					int n = 0;
+					for (int i = 0; i < numPoints; i++) {
+						long sample = (long)input.readUint(32) << 32 | (input.readUint(32) & 0xFFFFFFFFL);
+						long offset = (long)input.readUint(32) << 32 | (input.readUint(32) & 0xFFFFFFFFL);
+						input.readUint(16);
+						if (sample != -1 && (n == 0 || sample > seekPointSamples[n - 1])) {
+							seekPointSamples[n] = sample;
+							seekPointPositions[n] = offset;
+							n++;
+						}
+					}
+					seekPointSamples = Arrays.copyOf(seekPointSamples, n);
+					seekPointPositions = Arrays.copyOf(seekPointPositions, n);
+					for (int i = 0; i < length % 18; i++)
+						input.readUint(8);
 				} else {  // Skip other blocks
 					for (int i = 0; i < length; i++)
 						input.readUint(8);
@@ -309,6 +621,15 @@ public final class SimpleGuiFlacPlayer {
 			if (sampleRate == -1)
 				throw new FormatException("Stream info metadata block absent");
 			metadataEndPos = input.getPosition();
+			for (int i = 0; i < seekPointPositions.length; i++)
+				seekPointPositions[i] += metadataEndPos;  // Stored relative to the first frame
+			indexEndPos = metadataEndPos;
+			indexEndSample = 0;
+			if (seekPointSamples.length == 0)
+				loadIndex();
+			scratch = new int[numChannels][maxBlockSize];
+			for (int i = 0; i < coefsBuffers.length; i++)
+				coefsBuffers[i] = new int[i];
 		}
 		
 		
@@ -317,8 +638,56 @@ public final class SimpleGuiFlacPlayer {
 		}
 		
 		
-		public long[][] seekAndReadBlock(long samplePos) throws IOException {
-			// Binary search to find a frame slightly before requested position
+		// Decodes the block containing the given sample position into the given arrays (one per channel,
+		// each at least maxBlockSize long), shifted so that the position is at index 0. Returns the number
+		// of samples from the position to the end of the block, or 0 if the position is beyond the stream.
+		public int seekAndReadBlock(long samplePos, int[][] samples) throws IOException {
+			long startFilePos;
+			long curSamplePos;
+			if (indexLength > 0 && (samplePos < indexEndSample || indexComplete)) {
+				// Go straight to the indexed frame containing the position
+				int i = floorIndex(indexSamples, indexLength, samplePos);
+				startFilePos = indexPositions[i];
+				curSamplePos = indexSamples[i];
+			} else {
+				// Start from the end of the index, or from a later point found by other means
+				startFilePos = indexEndPos;
+				curSamplePos = indexEndSample;
+				if (seekPointSamples.length > 0) {
+					int i = floorIndex(seekPointSamples, seekPointSamples.length, samplePos);
+					if (i >= 0 && seekPointSamples[i] > curSamplePos) {
+						startFilePos = seekPointPositions[i];
+						curSamplePos = seekPointSamples[i];
+					}
+				} else {
+					long[] found = binarySearchFrame(samplePos);
+					if (found[1] > curSamplePos) {
+						startFilePos = found[0];
+						curSamplePos = found[1];
+					}
+				}
+			}
+			
+			input.seekTo(startFilePos);
+			while (true) {
+				int blockSize = readBlock(samples);
+				if (blockSize == 0)
+					return 0;
+				long nextSamplePos = curSamplePos + blockSize;
+				if (nextSamplePos > samplePos) {
+					int skip = (int)(samplePos - curSamplePos);
+					for (int ch = 0; ch < numChannels; ch++)
+						System.arraycopy(samples[ch], skip, samples[ch], 0, blockSize - skip);
+					return blockSize - skip;
+				}
+				curSamplePos = nextSamplePos;
+			}
+		}
+		
+		
+		// Returns (filePosition, sampleOffset) of a frame slightly before the given sample position, by probing
+		// the file for sync codes. Used only when there is no seek table and the position is beyond the index.
+		private long[] binarySearchFrame(long samplePos) throws IOException {
 			long startFilePos = metadataEndPos;
 			long endFilePos = input.getLength();
 			long curSamplePos = 0;
@@ -332,23 +701,7 @@ public final class SimpleGuiFlacPlayer {
 					curSamplePos = offsets[1];
 				}
 			}
-			
-			input.seekTo(startFilePos);
-			while (true) {
-				Object[] temp = readNextBlock();
-				if (temp == null)
-					return null;
-				long[][] samples = (long[][])temp[0];
-				int blockSize = samples[0].length;
-				long nextSamplePos = curSamplePos + blockSize;
-				if (nextSamplePos > samplePos) {
-					long[][] result = new long[samples.length][];
-					for (int ch = 0; ch < numChannels; ch++)
-						result[ch] = Arrays.copyOfRange(samples[ch], (int)(samplePos - curSamplePos), blockSize);
-					return result;
-				}
-				curSamplePos = nextSamplePos;
-			}
+			return new long[]{startFilePos, curSamplePos};
 		}
 		
 		
@@ -371,11 +724,10 @@ public final class SimpleGuiFlacPlayer {
 				filePos = input.getPosition() - 2;
 				input.seekTo(filePos);
 				try {
-					Object[] temp = readNextBlock();
-					if (temp == null)
+					if (readBlock(scratch) == 0)
 						return null;
 					else
-						return new long[]{filePos, (long)temp[1]};
+						return new long[]{filePos, blockSampleOffset};
 				} catch (FormatException e) {
 					filePos += 2;
 				}
@@ -383,13 +735,61 @@ public final class SimpleGuiFlacPlayer {
 		}
 		
 		
-		// Returns (long[][] blockSamples, long sampleOffsetAtStartOfBlock)
-		// if a block is decoded, or null if the end of stream is reached.
-		public Object[] readNextBlock() throws IOException {
+		// Decodes the next block as little-endian channel-interleaved PCM bytes into the given array, which must
+		// hold at least maxBlockSize * numChannels * (sampleDepth / 8) bytes. Returns the number of bytes, or 0
+		// if the end of stream is reached. Allocates nothing.
+		public int readBlockInterleaved(byte[] pcm) throws IOException {
+			return interleave(scratch, readBlock(scratch), pcm);
+		}
+		
+		
+		// Converts the given number of samples per channel to little-endian channel-interleaved PCM bytes,
+		// returning the number of bytes written.
+		public int interleave(int[][] samples, int length, byte[] pcm) {
+			int bytesPerSample = sampleDepth / 8;
+			int k = 0;
+			if (bytesPerSample == 2) {
+				for (int i = 0; i < length; i++) {
+					for (int[] chanSamples : samples) {
+						int val = chanSamples[i];
+						pcm[k + 0] = (byte)(val >>> 0);
+						pcm[k + 1] = (byte)(val >>> 8);
+						k += 2;
+					}
+				}
+			} else {
+				for (int i = 0; i < length; i++) {
+					for (int[] chanSamples : samples) {
+						int val = chanSamples[i];
+						for (int j = 0; j < bytesPerSample; j++, k++)
+							pcm[k] = (byte)(val >>> (j << 3));
+					}
+				}
+			}
+			return k;
+		}
+		
+		
+		// Returns the sample offset of the block most recently decoded by readBlock().
+		public long getBlockSampleOffset() {
+			return blockSampleOffset;
+		}
+		
+		
+		// Decodes the next block into the given arrays (one per channel, each at least maxBlockSize long),
+		// and returns the block size, or 0 if the end of stream is reached. Allocates nothing.
+		public int readBlock(int[][] samples) throws IOException {
 			// Find next sync code
+			long framePos = input.getPosition();
 			int byteVal = input.readByte();
-			if (byteVal == -1)
-				return null;
+			if (byteVal == -1) {
+				if (framePos == indexEndPos && !indexComplete) {
+					indexComplete = true;
+					if (seekPointSamples.length == 0)
+						saveIndex();
+				}
+				return 0;
+			}
 			int sync = byteVal << 6 | input.readUint(6);
 			if (sync != 0x3FFE)
 				throw new FormatException("Sync code expected");
@@ -436,6 +836,8 @@ public final class SimpleGuiFlacPlayer {
 				blockSize = 256 << (blockSizeCode - 8);
 			else
 				throw new FormatException("Reserved block size");
+			if (blockSize > maxBlockSize)
+				throw new FormatException("Block size exceeds maximum");
 			
 			if (sampleRateCode == 12)
 				input.readUint(8);
@@ -445,44 +847,150 @@ public final class SimpleGuiFlacPlayer {
 			input.readUint(8);
 			
 			// Decode each channel's subframe, then skip footer
-			long[][] samples = decodeSubframes(blockSize, sampleDepth, chanAsgn);
+			decodeSubframes(blockSize, sampleDepth, chanAsgn, samples);
 			input.alignToByte();
 			input.readUint(16);
-			return new Object[]{samples, rawPosition * (blockStrategy == 0 ? constantBlockSize : 1)};
+			long sampleOffset = rawPosition * (blockStrategy == 0 ? constantBlockSize : 1);
+			if (framePos == indexEndPos && sampleOffset == indexEndSample && !indexComplete) {
+				if (indexLength == indexSamples.length) {
+					indexSamples = Arrays.copyOf(indexSamples, indexLength * 2);
+					indexPositions = Arrays.copyOf(indexPositions, indexLength * 2);
+				}
+				indexSamples[indexLength] = sampleOffset;
+				indexPositions[indexLength] = framePos;
+				indexLength++;
+				indexEndPos = input.getPosition();
+				indexEndSample = sampleOffset + blockSize;
+			}
+			blockSampleOffset = sampleOffset;
+			return blockSize;
+		}
+		
+		
+		// Returns the last index i in [0, length) such that samples[i] <= target, or -1 if none.
+		private static int floorIndex(long[] samples, int length, long target) {
+			int lo = 0;
+			int hi = length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (samples[mid] <= target)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo - 1;
+		}
+		
+		
+		private File getIndexFile() {
+			return new File(file.getPath() + ".frameindex");
+		}
+		
+		
+		// Loads a complete frame index from the sidecar file, if it exists and matches this FLAC file.
+		private void loadIndex() {
+			File indexFile = getIndexFile();
+			if (!indexFile.isFile())
+				return;
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+				if (in.readInt() != INDEX_MAGIC || in.readLong() != input.getLength()
+						|| in.readLong() != file.lastModified() || in.readLong() != metadataEndPos)
+					return;
+				int n = in.readInt();
+				if (n <= 0 || n > input.getLength() / 10)
+					return;
+				long[] samples = new long[n];
+				long[] positions = new long[n];
+				for (int i = 0; i < n; i++) {
+					samples[i] = in.readLong();
+					positions[i] = in.readLong();
+					if (i == 0 ? samples[i] != 0 || positions[i] != metadataEndPos
+							: samples[i] <= samples[i - 1] || positions[i] <= positions[i - 1])
+						return;
+				}
+				long endPos = in.readLong();
+				long endSample = in.readLong();
+				if (endPos <= positions[n - 1] || endSample <= samples[n - 1])
+					return;
+				indexSamples = samples;
+				indexPositions = positions;
+				indexLength = n;
+				indexEndPos = endPos;
+				indexEndSample = endSample;
+				indexComplete = true;
+			} catch (IOException e) {}  // Treat as absent; the index is only a cache
+		}
+		
+		
+		// Writes the complete frame index to the sidecar file, silently giving up on failure (e.g. a read-only directory).
+		private void saveIndex() {
+			if (indexLength == 0)
+				return;
+			File indexFile = getIndexFile();
+			File tempFile = new File(indexFile.getPath() + ".tmp");
+			try {
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+					out.writeInt(INDEX_MAGIC);
+					out.writeLong(input.getLength());
+					out.writeLong(file.lastModified());
+					out.writeLong(metadataEndPos);
+					out.writeInt(indexLength);
+					for (int i = 0; i < indexLength; i++) {
+						out.writeLong(indexSamples[i]);
+						out.writeLong(indexPositions[i]);
+					}
+					out.writeLong(indexEndPos);
+					out.writeLong(indexEndSample);
+				}
+				if (!tempFile.renameTo(indexFile)) {
+					indexFile.delete();
+					if (!tempFile.renameTo(indexFile))
+						tempFile.delete();
+				}
+			} catch (IOException e) {
+				tempFile.delete();
+			}
 		}
 		
 		
-		private long[][] decodeSubframes(int blockSize, int sampleDepth, int chanAsgn) throws IOException {
-			long[][] result;
+		private static final int INDEX_MAGIC = 0x46494458;  // "FIDX"
+		
+		
+		// Decodes all channels into result[ch][0 : blockSize]. Sample depths up to 24 bits are supported,
+		// so that side channels and prediction residuals fit in int.
+		private void decodeSubframes(int blockSize, int sampleDepth, int chanAsgn, int[][] result) throws IOException {
 			if (0 <= chanAsgn && chanAsgn <= 7) {
-				result = new long[chanAsgn + 1][blockSize];
-				for (int ch = 0; ch < result.length; ch++)
-					decodeSubframe(sampleDepth, result[ch]);
+				if (chanAsgn + 1 != numChannels)
+					throw new FormatException("Channel count mismatch");
+				for (int ch = 0; ch < numChannels; ch++)
+					decodeSubframe(sampleDepth, result[ch], blockSize);
 			} else if (8 <= chanAsgn && chanAsgn <= 10) {
-				result = new long[2][blockSize];
-				decodeSubframe(sampleDepth + (chanAsgn == 9 ? 1 : 0), result[0]);
-				decodeSubframe(sampleDepth + (chanAsgn == 9 ? 0 : 1), result[1]);
+				if (numChannels != 2)
+					throw new FormatException("Channel count mismatch");
+				int[] left = result[0];
+				int[] right = result[1];
+				decodeSubframe(sampleDepth + (chanAsgn == 9 ? 1 : 0), left, blockSize);
+				decodeSubframe(sampleDepth + (chanAsgn == 9 ? 0 : 1), right, blockSize);
 				if (chanAsgn == 8) {
 					for (int i = 0; i < blockSize; i++)
-						result[1][i] = result[0][i] - result[1][i];
+						right[i] = left[i] - right[i];
 				} else if (chanAsgn == 9) {
 					for (int i = 0; i < blockSize; i++)
-						result[0][i] += result[1][i];
+						left[i] += right[i];
 				} else if (chanAsgn == 10) {
 					for (int i = 0; i < blockSize; i++) {
-						long side = result[1][i];
-						long right = result[0][i] - (side >> 1);
-						result[1][i] = right;
-						result[0][i] = right + side;
+						int side = right[i];
+						int r = left[i] - (side >> 1);
+						right[i] = r;
+						left[i] = r + side;
 					}
 				}
 			} else
 				throw new FormatException("Reserved channel assignment");
-			return result;
 		}
 		
 		
-		private void decodeSubframe(int sampleDepth, long[] result) throws IOException {
+		private void decodeSubframe(int sampleDepth, int[] result, int blockSize) throws IOException {
 			if (input.readUint(1) != 0)
 				throw new FormatException("Invalid padding bit");
 			int type = input.readUint(6);
@@ -494,46 +1002,46 @@ public final class SimpleGuiFlacPlayer {
 			sampleDepth -= shift;
 			
 			if (type == 0)  // Constant coding
-				Arrays.fill(result, 0, result.length, input.readSignedInt(sampleDepth));
+				Arrays.fill(result, 0, blockSize, input.readSignedInt(sampleDepth));
 			else if (type == 1) {  // Verbatim coding
-				for (int i = 0; i < result.length; i++)
+				for (int i = 0; i < blockSize; i++)
 					result[i] = input.readSignedInt(sampleDepth);
 			} else if (8 <= type && type <= 12 || 32 <= type && type <= 63) {
 				int predOrder;
-				int[] lpcCoefs;
-				int lpcShift;
+				int[] lpcCoefs = null;
+				int lpcShift = 0;
 				if (type <= 12) {  // Fixed prediction
 					predOrder = type - 8;
 					for (int i = 0; i < predOrder; i++)
 						result[i] = input.readSignedInt(sampleDepth);
-					lpcCoefs = FIXED_PREDICTION_COEFFICIENTS[predOrder];
-					lpcShift = 0;
 				} else {  // Linear predictive coding
 					predOrder = type - 31;
 					for (int i = 0; i < predOrder; i++)
 						result[i] = input.readSignedInt(sampleDepth);
 					int precision = input.readUint(4) + 1;
 					lpcShift = input.readSignedInt(5);
-					lpcCoefs = new int[predOrder];
+					lpcCoefs = coefsBuffers[predOrder];
 					for (int i = 0; i < predOrder; i++)
 						lpcCoefs[i] = input.readSignedInt(precision);
 				}
-				decodeRiceResiduals(predOrder, result);
-				for (int i = predOrder; i < result.length; i++) {  // LPC restoration
-					long sum = 0;
-					for (int j = 0; j < lpcCoefs.length; j++)
-						sum += result[i - 1 - j] * lpcCoefs[j];
-					result[i] += sum >> lpcShift;
-				}
+				if (predOrder > blockSize)
+					throw new FormatException("Prediction order exceeds block size");
+				decodeRiceResiduals(predOrder, result, blockSize);
+				if (lpcCoefs == null)
+					restoreFixedPrediction(result, predOrder, blockSize);
+				else
+					restoreLinearPrediction(result, lpcCoefs, lpcShift, blockSize);
 			} else
 				throw new FormatException("Reserved subframe type");
 			
-			for (int i = 0; i < result.length; i++)
-				result[i] <<= shift;
+			if (shift > 0) {
+				for (int i = 0; i < blockSize; i++)
+					result[i] <<= shift;
+			}
 		}
 		
 		
-		private void decodeRiceResiduals(int warmup, long[] result) throws IOException {
+		private void decodeRiceResiduals(int warmup, int[] result, int blockSize) throws IOException {
 			int method = input.readUint(2);
 			if (method >= 2)
 				throw new FormatException("Reserved residual coding method");
@@ -541,22 +1049,17 @@ public final class SimpleGuiFlacPlayer {
 			int escapeParam = method == 0 ? 0xF : 0x1F;
 			int partitionOrder = input.readUint(4);
 			int numPartitions = 1 << partitionOrder;
-			if (result.length % numPartitions != 0)
+			if (blockSize % numPartitions != 0)
 				throw new FormatException("Block size not divisible by number of Rice partitions");
-			int partitionSize = result.length / numPartitions;
+			int partitionSize = blockSize / numPartitions;
 			
 			for (int i = 0; i < numPartitions; i++) {
 				int start = i * partitionSize + (i == 0 ? warmup : 0);
 				int end = (i + 1) * partitionSize;
 				int param = input.readUint(paramBits);
 				if (param < escapeParam) {
-					for (int j = start; j < end; j++) {  // Read Rice signed integers
-						long val = 0;
-						while (input.readUint(1) == 0)
-							val++;
-						val = (val << param) | input.readUint(param);
-						result[j] = (val >>> 1) ^ -(val & 1);
-					}
+					for (int j = start; j < end; j++)
+						result[j] = (int)input.readRiceSignedInt(param);
 				} else {
 					int numBits = input.readUint(5);
 					for (int j = start; j < end; j++)
@@ -566,28 +1069,115 @@ public final class SimpleGuiFlacPlayer {
 		}
 		
 		
-		private static final int[][] FIXED_PREDICTION_COEFFICIENTS = {
-			{},
-			{1},
-			{2, -1},
-			{3, -3, 1},
-			{4, -6, 4, -1},
-		};
+		// Adds the fixed predictor of the given order (0 to 4) to the residuals after the warmup samples.
+		// Plain int arithmetic gives the same result as the long sums of the general LPC loop, because
+		// there is no shift and the sum is truncated to int anyway.
+		private static void restoreFixedPrediction(int[] result, int order, int blockSize) {
+			switch (order) {
+				case 0:
+					break;
+				case 1: {
+					int a = result[0];
+					for (int i = 1; i < blockSize; i++) {
+						a += result[i];
+						result[i] = a;
+					}
+					break;
+				}
+				case 2: {
+					int a = result[1], b = result[0];
+					for (int i = 2; i < blockSize; i++) {
+						int x = result[i] + 2 * a - b;
+						result[i] = x;
+						b = a;
+						a = x;
+					}
+					break;
+				}
+				case 3: {
+					int a = result[2], b = result[1], c = result[0];
+					for (int i = 3; i < blockSize; i++) {
+						int x = result[i] + 3 * (a - b) + c;
+						result[i] = x;
+						c = b;
+						b = a;
+						a = x;
+					}
+					break;
+				}
+				case 4: {
+					int a = result[3], b = result[2], c = result[1], d = result[0];
+					for (int i = 4; i < blockSize; i++) {
+						int x = result[i] + 4 * (a + c) - 6 * b - d;
+						result[i] = x;
+						d = c;
+						c = b;
+						b = a;
+						a = x;
+					}
+					break;
+				}
+				default:
+					throw new IllegalArgumentException("Invalid fixed prediction order");
+			}
+		}
 		
 		
+		// Adds the linear prediction to the residuals after the warmup samples, with fully unrolled loops
+		// for orders 8 and 12 (the most common ones) and a general loop otherwise.
+		private static void restoreLinearPrediction(int[] result, int[] coefs, int shift, int blockSize) {
+			int order = coefs.length;
+			if (order == 8) {
+				int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3];
+				int c4 = coefs[4], c5 = coefs[5], c6 = coefs[6], c7 = coefs[7];
+				for (int i = 8; i < blockSize; i++) {
+					long sum = (long)result[i - 1] * c0 + (long)result[i - 2] * c1 + (long)result[i - 3] * c2
+						+ (long)result[i - 4] * c3 + (long)result[i - 5] * c4 + (long)result[i - 6] * c5
+						+ (long)result[i - 7] * c6 + (long)result[i - 8] * c7;
+					result[i] += (int)(sum >> shift);
+				}
+			} else if (order == 12) {
+				int c0 = coefs[0], c1 = coefs[1], c2 = coefs[2], c3 = coefs[3];
+				int c4 = coefs[4], c5 = coefs[5], c6 = coefs[6], c7 = coefs[7];
+				int c8 = coefs[8], c9 = coefs[9], c10 = coefs[10], c11 = coefs[11];
+				for (int i = 12; i < blockSize; i++) {
+					long sum = (long)result[i - 1] * c0 + (long)result[i - 2] * c1 + (long)result[i - 3] * c2
+						+ (long)result[i - 4] * c3 + (long)result[i - 5] * c4 + (long)result[i - 6] * c5
+						+ (long)result[i - 7] * c6 + (long)result[i - 8] * c7 + (long)result[i - 9] * c8
+						+ (long)result[i - 10] * c9 + (long)result[i - 11] * c10 + (long)result[i - 12] * c11;
+					result[i] += (int)(sum >> shift);
+				}
+			} else {
+				for (int i = order; i < blockSize; i++) {
+					long sum = 0;
+					for (int j = 0; j < order; j++)
+						sum += (long)result[i - 1 - j] * coefs[j];
+					result[i] += (int)(sum >> shift);
+				}
+			}
+		}
 		
-		// Provides low-level bit/byte reading of a file.
+		
+		
+		// Provides low-level bit/byte reading of a file, which is memory-mapped in large windows. Bytes are
+		// moved into the bit buffer up to eight at a time. Seeking within the current window is free.
 		private static final class Stream {
 			
 			private RandomAccessFile raf;
-			private long bytePosition;
-			private InputStream byteBuffer;
-			private long bitBuffer;
+			private FileChannel channel;
+			private long fileLength;
+			private ByteBuffer buffer;   // Mapped window of the file, big-endian for reading 8 bytes at once
+			private long bufferFilePos;  // File offset of the start of the window
+			private int bufferPos;
+			private int bufferLen;
+			private long bitBuffer;  // The low bitBufferLen bits are unread; always a whole number of bytes when aligned
 			private int bitBufferLen;
 			
 			public Stream(File file) throws IOException {
 				raf = new RandomAccessFile(file, "r");
-				seekTo(0);
+				channel = raf.getChannel();
+				fileLength = raf.length();
+				mapWindow(0);
 			}
 			
 			
@@ -595,47 +1185,37 @@ public final class SimpleGuiFlacPlayer {
 				raf.close();
 			}
 			
-			public long getLength() throws IOException {
-				return raf.length();
+			public long getLength() {
+				return fileLength;
 			}
 			
+			// Returns the file offset of the next byte, which is exact when the reader is byte-aligned.
 			public long getPosition() {
-				return bytePosition;
+				return bufferFilePos + bufferPos - bitBufferLen / 8;
 			}
 			
 			public void seekTo(long pos) throws IOException {
-				raf.seek(pos);
-				bytePosition = pos;
-				byteBuffer = new BufferedInputStream(new InputStream() {
-					public int read() throws IOException {
-						return raf.read();
-					}
-					public int read(byte[] b, int off, int len) throws IOException {
-						return raf.read(b, off, len);
-					}
-				});
+				if (bufferFilePos <= pos && pos <= bufferFilePos + bufferLen)
+					bufferPos = (int)(pos - bufferFilePos);
+				else
+					mapWindow(pos);
 				bitBufferLen = 0;
 			}
 			
 			public int readByte() throws IOException {
 				if (bitBufferLen >= 8)
 					return readUint(8);
-				else {
-					int result = byteBuffer.read();
-					if (result != -1)
-						bytePosition++;
-					return result;
-				}
+				else if (bufferPos == bufferLen && !refillBuffer())
+					return -1;
+				else
+					return buffer.get(bufferPos++) & 0xFF;
 			}
 			
 			public int readUint(int n) throws IOException {
-				while (bitBufferLen < n) {
-					int temp = byteBuffer.read();
-					if (temp == -1)
+				if (bitBufferLen < n) {
+					fillBitBuffer();
+					if (bitBufferLen < n)
 						throw new EOFException();
-					bytePosition++;
-					bitBuffer = (bitBuffer << 8) | temp;
-					bitBufferLen += 8;
 				}
 				bitBufferLen -= n;
 				int result = (int)(bitBuffer >>> bitBufferLen);
@@ -648,10 +1228,72 @@ public final class SimpleGuiFlacPlayer {
 				return (readUint(n) << (32 - n)) >> (32 - n);
 			}
 			
+			// Reads a unary quotient by counting leading zeros of whole buffer words, then the remainder bits.
+			public long readRiceSignedInt(int param) throws IOException {
+				long val = 0;
+				while (true) {
+					if (bitBufferLen == 0) {
+						fillBitBuffer();
+						if (bitBufferLen == 0)
+							throw new EOFException();
+					}
+					int zeros = Long.numberOfLeadingZeros(bitBuffer << (64 - bitBufferLen));
+					if (zeros < bitBufferLen) {
+						val += zeros;
+						bitBufferLen -= zeros + 1;
+						break;
+					}
+					val += bitBufferLen;
+					bitBufferLen = 0;
+				}
+				val = (val << param) | readUint(param);
+				return (val >>> 1) ^ -(val & 1);
+			}
+			
 			public void alignToByte() {
 				bitBufferLen -= bitBufferLen % 8;
 			}
 			
+			
+			// Adds whole bytes to the bit buffer until it has more than 56 bits or the file is exhausted.
+			private void fillBitBuffer() throws IOException {
+				while (bitBufferLen <= 56) {
+					if (bufferLen - bufferPos >= 8) {
+						int n = (64 - bitBufferLen) >>> 3;  // In the range [1, 8]
+						long word = buffer.getLong(bufferPos);
+						if (n == 8)
+							bitBuffer = word;
+						else
+							bitBuffer = (bitBuffer << (n * 8)) | (word >>> (64 - n * 8));
+						bufferPos += n;
+						bitBufferLen += n * 8;
+					} else if (bufferPos < bufferLen) {
+						bitBuffer = (bitBuffer << 8) | (buffer.get(bufferPos) & 0xFF);
+						bufferPos++;
+						bitBufferLen += 8;
+					} else if (!refillBuffer())
+						break;
+				}
+			}
+			
+			// Maps the next window, starting at the first unread byte. Returns false at end of file.
+			private boolean refillBuffer() throws IOException {
+				if (bufferFilePos + bufferLen >= fileLength)
+					return false;
+				mapWindow(bufferFilePos + bufferPos);
+				return true;
+			}
+			
+			private void mapWindow(long pos) throws IOException {
+				pos = Math.min(pos, fileLength);
+				bufferLen = (int)Math.min(fileLength - pos, WINDOW_SIZE);
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, bufferLen);
+				bufferFilePos = pos;
+				bufferPos = 0;
+			}
+			
+			private static final int WINDOW_SIZE = 64 << 20;
+			
 		}
 		
 		